@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.bench;
+
+import com.physikk.base.SystemManager;
+import com.physikk.mechanic.effects.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures one update of a CollisionEffect on a seeded cluster with every broad phase.
+ * The bodies don't move between the updates, so this is the steady state of the incremental index.
+ * @author Sleepersword
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CollisionBenchmark 
+{
+    @Param(Scenarios.SEED)
+    public long seed;
+    
+    @Param({"1000", "10000", "100000"})
+    public int bodies;
+    
+    @Param({"hash", "sweep"})
+    public String broadPhase;
+    
+    @Param({"10"})
+    public double radius;
+    
+    private CollisionEffect effect;
+    private SystemManager manager;
+    
+    @Setup
+    public void setup() {
+        effect = new CollisionEffect(createBroadPhase(broadPhase), radius, 1e6, 1e3);
+        manager = new SystemManager(true);
+        manager.addObjects(Scenarios.cluster(seed, bodies));
+        manager.addEffect(effect, true);
+    }
+    
+    @Benchmark
+    public CollisionEffect update() {
+        effect.update();
+        return effect;
+    }
+    
+    static BroadPhase createBroadPhase(String name) {
+        switch(name) {
+            case "hash": return new SpatialHashBroadPhase();
+            case "sweep": return new SweepAndPruneBroadPhase();
+            default: throw new IllegalArgumentException("Unknown broad phase: " + name);
+        }
+    }
+}
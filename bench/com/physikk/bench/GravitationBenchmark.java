@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.bench;
+
+import com.physikk.base.SystemManager;
+import com.physikk.mechanic.effects.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures one force evaluation of a GravitationEffect on a seeded cluster with every solver.
+ * The direct solvers are quadratic, so the largest sizes take seconds per operation.
+ * @author Sleepersword
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class GravitationBenchmark 
+{
+    @Param(Scenarios.SEED)
+    public long seed;
+    
+    @Param({"100", "1000", "10000", "100000"})
+    public int bodies;
+    
+    @Param({"direct", "symmetric", "softened", "barnes-hut", "particle-mesh"})
+    public String solver;
+    
+    @Param({"true"})
+    public boolean bodyStore;
+    
+    private GravitationEffect effect;
+    private SystemManager manager;
+    
+    @Setup
+    public void setup() {
+        effect = new GravitationEffect(createSolver(solver));
+        manager = Scenarios.gravitatingCluster(seed, bodies, bodyStore, effect);
+    }
+    
+    @Benchmark
+    public GravitationEffect update() {
+        effect.update();
+        return effect;
+    }
+    
+    static GravitySolver createSolver(String name) {
+        switch(name) {
+            case "direct": return new DirectGravitySolver();
+            case "symmetric": return new SymmetricGravitySolver();
+            case "softened": return new SoftenedGravitySolver(1.0);
+            case "barnes-hut": return new BarnesHutGravitySolver(0.5);
+            case "particle-mesh": return new ParticleMeshGravitySolver(64, 4 * Scenarios.RADIUS, ParticleMeshGravitySolver.Boundary.ISOLATED);
+            default: throw new IllegalArgumentException("Unknown solver: " + name);
+        }
+    }
+}
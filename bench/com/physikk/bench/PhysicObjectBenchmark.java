@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.bench;
+
+import com.physikk.base.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the force summation and the integration of a single PhysicObject, 
+ * either stand alone or as a view of a BodyStore.
+ * @author Sleepersword
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PhysicObjectBenchmark 
+{
+    @Param(Scenarios.SEED)
+    public long seed;
+    
+    @Param({"1", "4", "16"})
+    public int forces;
+    
+    @Param({"false", "true"})
+    public boolean bodyStore;
+    
+    private PhysicObject body;
+    private Vector result;
+    
+    @Setup
+    public void setup() {
+        body = Scenarios.cluster(seed, 1)[0];
+        if(bodyStore) {
+            new SystemManager(true).addObject(body);
+        }
+        
+        Random random = new Random(seed);
+        for(int i = 0; i < forces; i++) {
+            body.setForce(new NamedVector("F" + i, random.nextDouble() - 0.5, random.nextDouble() - 0.5, random.nextDouble() - 0.5));
+        }
+        result = new Vector(0.0);
+    }
+    
+    @Benchmark
+    public NamedVector getTotalForce() {
+        return body.getTotalForce();
+    }
+    
+    @Benchmark
+    public Vector getTotalForceInPlace() {
+        return body.getTotalForce(result);
+    }
+    
+    @Benchmark
+    public PhysicObject update() {
+        body.manualUpdate();
+        return body;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.bench;
+
+import com.physikk.base.*;
+import com.physikk.mechanic.effects.GravitationEffect;
+import java.util.Random;
+
+/**
+ * Builds the reproducible scenarios of the benchmarks. The same seed always creates the same bodies.
+ * @author Sleepersword
+ */
+final class Scenarios 
+{
+    /**
+     * The default seed of all benchmarks.
+     */
+    static final String SEED = "20170601";
+    
+    /**
+     * The radius of the clusters in meters.
+     */
+    static final double RADIUS = 1000.0;
+    private static final double MIN_MASS = 1e6;
+    private static final double MAX_MASS = 1e10;
+    private static final double MAX_SPEED = 0.01;
+    
+    // Override default constructor
+    private Scenarios() {}
+    
+    /**
+     * Creates n bodies with random masses and velocities, uniformly distributed in a ball.
+     * @param seed The seed.
+     * @param n The number of bodies.
+     * @return The bodies.
+     */
+    static Body[] cluster(long seed, int n) {
+        return cluster(seed, n, false);
+    }
+    
+    /**
+     * Creates the same bodies as cluster(seed, n), optionally spread over three classes with different tick()
+     * methods in turn, so the per object calls of a tick see several classes like a real scene.
+     * @param seed The seed.
+     * @param n The number of bodies.
+     * @param mixedClasses Whether the bodies are of three classes instead of one.
+     * @return The bodies.
+     */
+    static Body[] cluster(long seed, int n, boolean mixedClasses) {
+        Random random = new Random(seed);
+        Body[] bodies = new Body[n];
+        
+        for(int i = 0; i < n; i++) {
+            Vector position = new Vector(0.0);
+            do {
+                position.set(uniform(random, -1, 1), uniform(random, -1, 1), uniform(random, -1, 1));
+            } while(position.getNorm() > 1);
+            position.scaleInPlace(RADIUS);
+            
+            Vector velocity = new Vector(uniform(random, -1, 1), uniform(random, -1, 1), uniform(random, -1, 1)).scaleInPlace(MAX_SPEED);
+            double mass = MIN_MASS + random.nextDouble() * (MAX_MASS - MIN_MASS);
+            switch(mixedClasses ? i % 3 : 0) {
+                case 1: bodies[i] = new CountingBody("b" + i, mass, position, velocity); break;
+                case 2: bodies[i] = new AgingBody("b" + i, mass, position, velocity); break;
+                default: bodies[i] = new Body("b" + i, mass, position, velocity);
+            }
+        }
+        return bodies;
+    }
+    
+    /**
+     * Creates a manager with a seeded cluster and a GravitationEffect on all of its objects.
+     * @param seed The seed.
+     * @param n The number of bodies.
+     * @param useBodyStore Whether the manager stores the bodies in a BodyStore.
+     * @param effect The gravitation effect.
+     * @return The manager.
+     */
+    static SystemManager gravitatingCluster(long seed, int n, boolean useBodyStore, GravitationEffect effect) {
+        return gravitatingCluster(seed, n, false, useBodyStore, effect);
+    }
+    
+    /**
+     * Creates a manager with a seeded cluster and a GravitationEffect on all of its objects.
+     * @param seed The seed.
+     * @param n The number of bodies.
+     * @param mixedClasses Whether the bodies are of three classes instead of one.
+     * @param useBodyStore Whether the manager stores the bodies in a BodyStore.
+     * @param effect The gravitation effect.
+     * @return The manager.
+     */
+    static SystemManager gravitatingCluster(long seed, int n, boolean mixedClasses, boolean useBodyStore, GravitationEffect effect) {
+        SystemManager manager = new SystemManager(useBodyStore);
+        manager.addObjects(cluster(seed, n, mixedClasses));
+        manager.addEffect(effect, true);
+        return manager;
+    }
+    
+    /**
+     * Creates n random vectors with components in [-1, 1).
+     * @param seed The seed.
+     * @param n The number of vectors.
+     * @return The vectors.
+     */
+    static Vector[] vectors(long seed, int n) {
+        Random random = new Random(seed);
+        Vector[] vectors = new Vector[n];
+        for(int i = 0; i < n; i++) {
+            vectors[i] = new Vector(uniform(random, -1, 1), uniform(random, -1, 1), uniform(random, -1, 1));
+        }
+        return vectors;
+    }
+    
+    private static double uniform(Random random, double min, double max) {
+        return min + random.nextDouble() * (max - min);
+    }
+    
+    /**
+     * A mass point without the console output of MassPoint, which would dominate the measurements.
+     */
+    static class Body extends PhysicObject
+    {
+        Body(String name, double mass, Vector position, Vector velocity) {
+            super(name, true);
+            this.mass = mass;
+            this.position = new Vector(position);
+            this.velocity = new Vector(velocity);
+        }
+        
+        @Override
+        protected void tick() {
+        }
+        
+        @Override
+        protected void tickSecond() {
+        }
+    }
+    
+    /**
+     * A body counting its ticks.
+     */
+    static final class CountingBody extends Body
+    {
+        long ticks;
+        
+        CountingBody(String name, double mass, Vector position, Vector velocity) {
+            super(name, mass, position, velocity);
+        }
+        
+        @Override
+        protected void tick() {
+            ticks++;
+        }
+    }
+    
+    /**
+     * A body summing up its simulated age.
+     */
+    static final class AgingBody extends Body
+    {
+        double age;
+        
+        AgingBody(String name, double mass, Vector position, Vector velocity) {
+            super(name, mass, position, velocity);
+        }
+        
+        @Override
+        protected void tick() {
+            age += Utils.SECONDS_PER_TICK;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.bench;
+
+import com.physikk.base.*;
+import com.physikk.base.integrators.VelocityVerletIntegrator;
+import com.physikk.mechanic.effects.GravitationEffect;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures complete ticks of a SystemManager with a gravitating seeded cluster,
+ * in the classic object mode, with a BodyStore and with an integrator.
+ * The bodies are of a single class or of three classes with different tick() methods.
+ * The solver "none" leaves out the gravitation, so only the per object phases of the tick are measured.
+ * @author Sleepersword
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SystemManagerBenchmark 
+{
+    @Param(Scenarios.SEED)
+    public long seed;
+    
+    @Param({"100", "1000", "10000"})
+    public int bodies;
+    
+    @Param({"objects", "store", "verlet"})
+    public String mode;
+    
+    @Param({"barnes-hut", "none"})
+    public String solver;
+    
+    @Param({"1"})
+    public int threads;
+    
+    @Param({"single", "mixed"})
+    public String classes;
+    
+    private SystemManager manager;
+    
+    @Setup
+    public void setup() {
+        boolean mixed = classes.equals("mixed");
+        if(solver.equals("none")) {
+            manager = new SystemManager(!mode.equals("objects"));
+            manager.addObjects(Scenarios.cluster(seed, bodies, mixed));
+        } else {
+            GravitationEffect effect = new GravitationEffect(GravitationBenchmark.createSolver(solver));
+            manager = Scenarios.gravitatingCluster(seed, bodies, mixed, !mode.equals("objects"), effect);
+        }
+        if(mode.equals("verlet")) {
+            manager.setIntegrator(new VelocityVerletIntegrator());
+        }
+        manager.setThreadCount(threads);
+        // The per second updates and their console output aren't part of the measured tick
+        manager.setSecondUpdates(false);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        manager.setThreadCount(1);
+    }
+    
+    @Benchmark
+    public RunStatistics tick() {
+        return manager.runTicks(1);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.bench;
+
+import com.physikk.base.Vector;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the allocating and the in place arithmetic of Vector.
+ * @author Sleepersword
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VectorBenchmark 
+{
+    @Param(Scenarios.SEED)
+    public long seed;
+    
+    private Vector a, b, accumulator;
+    private double s;
+    
+    @Setup
+    public void setup() {
+        Vector[] vectors = Scenarios.vectors(seed, 3);
+        a = vectors[0];
+        b = vectors[1];
+        accumulator = vectors[2];
+        s = 0.5;
+    }
+    
+    @Benchmark
+    public Vector sum() {
+        return a.sum(b);
+    }
+    
+    @Benchmark
+    public Vector subtract() {
+        return a.subtract(b);
+    }
+    
+    @Benchmark
+    public Vector scale() {
+        return a.scale(s);
+    }
+    
+    @Benchmark
+    public double scalarMultiply() {
+        return a.scalarMultiply(b);
+    }
+    
+    @Benchmark
+    public Vector vectorMultiply() {
+        return a.vectorMultiply(b);
+    }
+    
+    @Benchmark
+    public double norm() {
+        return a.getNorm();
+    }
+    
+    @Benchmark
+    public Vector normalize() {
+        return a.getNormalizedVector();
+    }
+    
+    @Benchmark
+    public Vector addInPlace() {
+        return accumulator.addInPlace(a);
+    }
+    
+    @Benchmark
+    public Vector addScaled() {
+        return accumulator.addScaled(a, s);
+    }
+    
+    @Benchmark
+    public Vector scaleInPlace() {
+        // Alternating factors keep the accumulator finite
+        accumulator.scaleInPlace(s);
+        return accumulator.scaleInPlace(1 / s);
+    }
+}
@@ -0,0 +1,4 @@
+package com.physikk.bench.jmh_generated;
+public class CollisionBenchmark_jmhType extends CollisionBenchmark_jmhType_B3 {
+}
+
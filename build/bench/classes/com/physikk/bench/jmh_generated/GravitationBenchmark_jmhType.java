@@ -0,0 +1,4 @@
+package com.physikk.bench.jmh_generated;
+public class GravitationBenchmark_jmhType extends GravitationBenchmark_jmhType_B3 {
+}
+
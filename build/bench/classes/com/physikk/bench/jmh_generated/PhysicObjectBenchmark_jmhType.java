@@ -0,0 +1,4 @@
+package com.physikk.bench.jmh_generated;
+public class PhysicObjectBenchmark_jmhType extends PhysicObjectBenchmark_jmhType_B3 {
+}
+
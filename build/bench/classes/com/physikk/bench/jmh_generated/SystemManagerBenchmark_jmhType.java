@@ -0,0 +1,4 @@
+package com.physikk.bench.jmh_generated;
+public class SystemManagerBenchmark_jmhType extends SystemManagerBenchmark_jmhType_B3 {
+}
+
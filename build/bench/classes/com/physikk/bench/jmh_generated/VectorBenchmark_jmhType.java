@@ -0,0 +1,4 @@
+package com.physikk.bench.jmh_generated;
+public class VectorBenchmark_jmhType extends VectorBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+/**
+ * Emits the phases of a tick as PhaseEvents. Loaded by TickMetrics through reflection, if JFR is available.
+ * @author Sleepersword
+ */
+final class JfrPhaseEvents implements PhaseEvents
+{
+    @Override
+    public Object begin(String phase, String effect, long tick) {
+        return PhaseEvent.begin(phase, effect, tick);
+    }
+    
+    @Override
+    public void commit(Object event) {
+        ((PhaseEvent)event).commit();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Java Flight Recorder event for a phase of a tick. Only used by TickMetrics through JfrPhaseEvents, if JFR is available.
+ * @author Sleepersword
+ */
+@Name("com.physikk.TickPhase")
+@Label("Tick Phase")
+@Category("Physikk")
+@Description("A phase of a tick of a SystemManager.")
+final class PhaseEvent extends Event
+{
+    @Label("Phase")
+    String phase;
+    
+    @Label("Effect")
+    @Description("The name of the effect, if the phase is the update of a single effect.")
+    String effect;
+    
+    @Label("Tick")
+    long tick;
+    
+    private static final EventType TYPE = EventType.getEventType(PhaseEvent.class);
+    
+    /**
+     * Starts an event, if JFR records it.
+     * @param phase The phase.
+     * @param effect The name of the effect or null.
+     * @param tick The number of the tick.
+     * @return The started event or null.
+     */
+    static PhaseEvent begin(String phase, String effect, long tick) {
+        // Checking the type doesn't allocate an event for every phase while JFR isn't recording
+        if(!TYPE.isEnabled()) {
+            return null;
+        }
+        PhaseEvent event = new PhaseEvent();
+        event.phase = phase;
+        event.effect = effect;
+        event.tick = tick;
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.mechanic.effects;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The SIMD kernel of the SoftenedGravitySolver, built on the JDK Vector API. 
+ * Every iteration processes one source per lane (4 with AVX2, 8 with AVX-512) and keeps 
+ * per lane partial sums, which are reduced once per call. The rest of the range is done by the scalar loop.
+ * This class is compiled separately for Java 16+ and is only loaded through reflection.
+ * @author Sleepersword
+ */
+final class VectorGravityKernel implements GravityKernel
+{
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONG_SPECIES = SPECIES.withLanes(long.class);
+    private static final long MAGIC = 0x5FE6EB50C7B537A9L;
+    private static final int NEWTON_STEPS = 4;
+    
+    VectorGravityKernel() {
+        if(SPECIES.length() < 2) {
+            throw new UnsupportedOperationException("No SIMD support for doubles.");
+        }
+    }
+    
+    @Override
+    public void accumulate(double xi, double yi, double zi, int from, int to, double[] x, double[] y, double[] z, double[] m, 
+            double eps2, double[] acc, int a) {
+        DoubleVector vxi = DoubleVector.broadcast(SPECIES, xi);
+        DoubleVector vyi = DoubleVector.broadcast(SPECIES, yi);
+        DoubleVector vzi = DoubleVector.broadcast(SPECIES, zi);
+        DoubleVector veps2 = DoubleVector.broadcast(SPECIES, eps2);
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        DoubleVector half = DoubleVector.broadcast(SPECIES, 0.5);
+        DoubleVector threeHalves = DoubleVector.broadcast(SPECIES, 1.5);
+        DoubleVector sx = zero, sy = zero, sz = zero;
+        
+        int j = from;
+        int upper = from + SPECIES.loopBound(to - from);
+        for(; j < upper; j += SPECIES.length()) {
+            DoubleVector lx = DoubleVector.fromArray(SPECIES, x, j).sub(vxi);
+            DoubleVector ly = DoubleVector.fromArray(SPECIES, y, j).sub(vyi);
+            DoubleVector lz = DoubleVector.fromArray(SPECIES, z, j).sub(vzi);
+            DoubleVector r2 = lx.fma(lx, ly.fma(ly, lz.fma(lz, veps2)));
+            
+            DoubleVector inverse = inverseSqrt(r2, half, threeHalves);
+            DoubleVector s = DoubleVector.fromArray(SPECIES, m, j).mul(inverse.mul(inverse).mul(inverse));
+            
+            // Without softening the target itself is at distance 0 and would contribute NaN
+            VectorMask<Double> singular = r2.compare(VectorOperators.EQ, 0.0);
+            s = s.blend(zero, singular);
+            
+            sx = s.fma(lx, sx);
+            sy = s.fma(ly, sy);
+            sz = s.fma(lz, sz);
+        }
+        
+        double rx = sx.reduceLanes(VectorOperators.ADD);
+        double ry = sy.reduceLanes(VectorOperators.ADD);
+        double rz = sz.reduceLanes(VectorOperators.ADD);
+        
+        for(; j < to; j++) {
+            double lx = x[j] - xi;
+            double ly = y[j] - yi;
+            double lz = z[j] - zi;
+            double r2 = lx*lx + ly*ly + lz*lz + eps2;
+            if(r2 == 0) continue;
+            
+            double inverse = 1.0 / Math.sqrt(r2);
+            double s = m[j] * inverse * inverse * inverse;
+            rx += s * lx;
+            ry += s * ly;
+            rz += s * lz;
+        }
+        
+        acc[a] += rx;
+        acc[a + 1] += ry;
+        acc[a + 2] += rz;
+    }
+    
+    /**
+     * Calculates 1 / sqrt(r2) without the slow square root and division instructions: 
+     * The bit pattern trick gives an estimate with a relative error below 3.5%, 
+     * every Newton step y = y * (1.5 - 0.5 * r2 * y^2) squares the error, so 4 steps reach double precision.
+     */
+    private static DoubleVector inverseSqrt(DoubleVector r2, DoubleVector half, DoubleVector threeHalves) {
+        DoubleVector y = LongVector.broadcast(LONG_SPECIES, MAGIC)
+                .sub(r2.reinterpretAsLongs().lanewise(VectorOperators.LSHR, 1))
+                .reinterpretAsDoubles();
+        DoubleVector halfR2 = r2.mul(half);
+        for(int step = 0; step < NEWTON_STEPS; step++) {
+            y = y.mul(threeHalves.sub(halfR2.mul(y).mul(y)));
+        }
+        return y;
+    }
+}
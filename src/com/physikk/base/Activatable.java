@@ -37,13 +37,25 @@ public abstract class Activatable
      * Activates this object.
      */
     public final void activate() {
-        active = true;
+        if(!active) {
+            active = true;
+            activationChanged();
+        }
     }
     
     /**
      * Deactivates this object.
      */
     public final void deactivate() {
-        active = false;
+        if(active) {
+            active = false;
+            activationChanged();
+        }
+    }
+    
+    /**
+     * Gets called after this object was activated or deactivated.
+     */
+    protected void activationChanged() {
     }
 }
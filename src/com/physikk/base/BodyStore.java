@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+import java.util.Arrays;
+
+/**
+ * Stores the state of many PhysicObjects in contiguous primitive arrays (structure of arrays).
+ * Every stored object gets a dense id in [0, size()), which is the index into all arrays.
+ * The arrays returned by the getters are only valid until the next add or remove.
+ * @author Sleepersword
+ */
+public class BodyStore
+{
+    private static final int INITIAL_CAPACITY = 16;
+
+    double[] posX, posY, posZ;
+    double[] veloX, veloY, veloZ;
+    double[] forceX, forceY, forceZ;
+    double[] mass;
+    PhysicObject[] bodies;
+    int size;
+    // The ids an integrator moves, null if it moves all bodies
+    int[] movingIds;
+    int movingCount;
+
+    public BodyStore() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public BodyStore(int initialCapacity) {
+        allocate(Math.max(1, initialCapacity));
+    }
+
+    /// Methods
+
+    /**
+     * Returns the number of stored objects.
+     * @return The number of stored objects.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the object with the given id.
+     * @param id The dense id.
+     * @return The object.
+     */
+    public PhysicObject get(int id) {
+        return bodies[id];
+    }
+
+    public double[] getPositionX() { return posX; }
+    public double[] getPositionY() { return posY; }
+    public double[] getPositionZ() { return posZ; }
+    public double[] getVelocityX() { return veloX; }
+    public double[] getVelocityY() { return veloY; }
+    public double[] getVelocityZ() { return veloZ; }
+    public double[] getForceX() { return forceX; }
+    public double[] getForceY() { return forceY; }
+    public double[] getForceZ() { return forceZ; }
+    public double[] getMass() { return mass; }
+
+    /**
+     * Returns the ids of the bodies an integrator moves, in ascending order. The other bodies keep their position 
+     * and velocity, like the inactive and sleeping objects of a SystemManager.
+     * @return The ids, only the first getMovingCount() are valid, or null if all bodies move.
+     */
+    public int[] getMovingIds() {
+        return movingIds;
+    }
+
+    /**
+     * Returns the number of bodies an integrator moves.
+     * @return The number of valid entries of getMovingIds() or size(), if all bodies move.
+     */
+    public int getMovingCount() {
+        return movingIds == null ? size : movingCount;
+    }
+
+    /**
+     * Restricts the integrators to the given bodies.
+     * @param ids The ids in ascending order or null for all bodies.
+     * @param count The number of ids.
+     */
+    void setMovingIds(int[] ids, int count) {
+        movingIds = ids;
+        movingCount = count;
+    }
+
+    /**
+     * Copies the state of the given object into the store and binds it.
+     * @param obj The object.
+     * @return The dense id of the object.
+     */
+    int add(PhysicObject obj) {
+        if(size == bodies.length) {
+            grow(size * 2);
+        }
+
+        int id = size++;
+        bodies[id] = obj;
+        posX[id] = obj.position.x;
+        posY[id] = obj.position.y;
+        posZ[id] = obj.position.z;
+        veloX[id] = obj.velocity.x;
+        veloY[id] = obj.velocity.y;
+        veloZ[id] = obj.velocity.z;
+        forceX[id] = 0;
+        forceY[id] = 0;
+        forceZ[id] = 0;
+        mass[id] = obj.mass;
+
+        obj.bind(this, id);
+        return id;
+    }
+
+    /**
+     * Removes the given object by moving the last object into its slot.
+     * The state is written back into the object before it gets unbound.
+     * @param obj The object.
+     */
+    void remove(PhysicObject obj) {
+        int id = obj.storeId;
+        if(obj.store != this || bodies[id] != obj) {
+            return;
+        }
+
+        obj.unbind();
+
+        int last = --size;
+        if(id != last) {
+            bodies[id] = bodies[last];
+            posX[id] = posX[last];
+            posY[id] = posY[last];
+            posZ[id] = posZ[last];
+            veloX[id] = veloX[last];
+            veloY[id] = veloY[last];
+            veloZ[id] = veloZ[last];
+            forceX[id] = forceX[last];
+            forceY[id] = forceY[last];
+            forceZ[id] = forceZ[last];
+            mass[id] = mass[last];
+            bodies[id].storeId = id;
+        }
+        bodies[last] = null;
+    }
+
+    /**
+     * Copies the total forces of every object into the force arrays.
+     */
+    void gatherForces() {
+        for(int i = 0; i < size; i++) {
+            gatherForce(i);
+        }
+    }
+
+    /**
+     * Copies the total force of the given object into the force arrays.
+     * @param id The dense id.
+     */
+    void gatherForce(int id) {
+        PhysicObject obj = bodies[id];
+        forceX[id] = obj.totalX;
+        forceY[id] = obj.totalY;
+        forceZ[id] = obj.totalZ;
+    }
+
+    /**
+     * Integrates all objects by one tick with the semi-implicit euler method,
+     * exactly like PhysicObject.update() does for a single object.
+     * @param dt The timestep in seconds.
+     */
+    void integrate(double dt) {
+        for(int i = 0; i < size; i++) {
+            integrate(i, dt);
+        }
+    }
+
+    /**
+     * Integrates the given object by one tick with the semi-implicit euler method.
+     * @param id The dense id.
+     * @param dt The timestep in seconds.
+     */
+    void integrate(int id, double dt) {
+        double inverseMass = 1.0 / mass[id];
+
+        veloX[id] = veloX[id] + dt * (inverseMass * forceX[id]);
+        veloY[id] = veloY[id] + dt * (inverseMass * forceY[id]);
+        veloZ[id] = veloZ[id] + dt * (inverseMass * forceZ[id]);
+
+        posX[id] = posX[id] + dt * veloX[id];
+        posY[id] = posY[id] + dt * veloY[id];
+        posZ[id] = posZ[id] + dt * veloZ[id];
+    }
+
+    /**
+     * Makes sure the arrays can hold the given number of objects.
+     * @param capacity The number of objects.
+     */
+    void ensureCapacity(int capacity) {
+        if(capacity > bodies.length) {
+            grow(capacity);
+        }
+    }
+    
+    /**
+     * Binds objects to the ids [0, n) of an empty store, whose arrays were already filled in bulk.
+     * @param objs The objects in the order of the arrays.
+     * @param n The number of objects.
+     */
+    void attachAll(PhysicObject[] objs, int n) {
+        ensureCapacity(n);
+        for(int i = 0; i < n; i++) {
+            bodies[i] = objs[i];
+            forceX[i] = 0;
+            forceY[i] = 0;
+            forceZ[i] = 0;
+            objs[i].bind(this, i);
+        }
+        size = n;
+    }
+    
+    private void allocate(int capacity) {
+        posX = new double[capacity];
+        posY = new double[capacity];
+        posZ = new double[capacity];
+        veloX = new double[capacity];
+        veloY = new double[capacity];
+        veloZ = new double[capacity];
+        forceX = new double[capacity];
+        forceY = new double[capacity];
+        forceZ = new double[capacity];
+        mass = new double[capacity];
+        bodies = new PhysicObject[capacity];
+    }
+
+    private void grow(int capacity) {
+        posX = Arrays.copyOf(posX, capacity);
+        posY = Arrays.copyOf(posY, capacity);
+        posZ = Arrays.copyOf(posZ, capacity);
+        veloX = Arrays.copyOf(veloX, capacity);
+        veloY = Arrays.copyOf(veloY, capacity);
+        veloZ = Arrays.copyOf(veloZ, capacity);
+        forceX = Arrays.copyOf(forceX, capacity);
+        forceY = Arrays.copyOf(forceY, capacity);
+        forceZ = Arrays.copyOf(forceZ, capacity);
+        mass = Arrays.copyOf(mass, capacity);
+        bodies = Arrays.copyOf(bodies, capacity);
+    }
+}
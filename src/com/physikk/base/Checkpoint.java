@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Writes and reads binary snapshots of the state of a SystemManager through memory mapped files.
+ * The masses, positions and velocities are stored as one block per array (structure of arrays),
+ * so they are copied in bulk between the file and a BodyStore.
+ * 
+ * Layout (little endian):
+ * header (64 bytes): magic, version, body count, effect count, tick count, timestep, offset of the names,
+ * 7 double blocks of body count entries: mass, position x/y/z, velocity x/y/z,
+ * names: length + UTF-8 bytes per body,
+ * effects: name, whether it uses the objects of the manager, member count and member indexes.
+ * 
+ * write() and read() need an idle manager. A running manager is written at tick boundaries by a Checkpoint.Writer.
+ * @author Sleepersword
+ */
+public final class Checkpoint 
+{
+    /**
+     * Creates the objects of a restored checkpoint, e.g. MassPoint::new.
+     */
+    public interface BodyFactory 
+    {
+        PhysicObject create(String name, double mass, Vector position, Vector velocity);
+    }
+    
+    private static final int MAGIC = 0x5048594B;    // "PHYK"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int BLOCKS = 7;
+    
+    /**
+     * Writes a checkpoint of a running manager every n ticks, on the simulation thread after the tick is completed.
+     * Every checkpoint replaces the previous one atomically. A failed write stops the simulation with an IllegalStateException.
+     */
+    public static final class Writer implements TickListener
+    {
+        private final Path file;
+        private final long interval;
+        
+        /**
+         * Creates a writer.
+         * @param file The file, it gets replaced by every checkpoint.
+         * @param interval A checkpoint gets written every interval ticks.
+         */
+        public Writer(Path file, long interval) {
+            if(interval < 1) {
+                throw new IllegalArgumentException("The interval has to be at least 1.");
+            }
+            this.file = file;
+            this.interval = interval;
+        }
+        
+        @Override
+        public void tickCompleted(SystemManager manager, long tick) {
+            if(tick % interval != 0) {
+                return;
+            }
+            try {
+                replace(manager, file);
+            } catch(IOException ex) {
+                throw new IllegalStateException("Writing the checkpoint failed.", ex);
+            }
+        }
+    }
+    
+    // Override default constructor
+    private Checkpoint() {}
+    
+    /**
+     * Writes the current state of an idle manager to the given file, use a Writer for a running manager.
+     * The checkpoint is written to a temporary file in the same directory, which is forced to the storage device
+     * and then atomically replaces the file, so a crash leaves either the previous or the new checkpoint.
+     * @param manager The manager.
+     * @param file The file, it gets replaced.
+     * @throws IOException If the file can't be written.
+     * @throws IllegalStateException If the manager is running.
+     */
+    public static void write(SystemManager manager, Path file) throws IOException {
+        synchronized(manager.stateLock) {
+            manager.checkIdle();
+            replace(manager, file);
+        }
+    }
+    
+    /**
+     * Writes the checkpoint to a temporary file and moves it over the given file.
+     */
+    private static void replace(SystemManager manager, Path file) throws IOException {
+        Path target = file.toAbsolutePath();
+        Path directory = target.getParent();
+        Path temp = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+        try {
+            writeFile(manager, temp);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        
+        // Persist the rename, not every platform can open a directory
+        try(FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch(IOException ex) {
+            // The rename is persisted by the file system eventually
+        }
+    }
+    
+    private static void writeFile(SystemManager manager, Path file) throws IOException {
+        PhysicObject[] bodies = bodiesInOrder(manager);
+        int n = bodies.length;
+        
+        // Encode the variable sized parts first, to know the file size
+        byte[][] names = new byte[n][];
+        long namesSize = 0;
+        for(int i = 0; i < n; i++) {
+            names[i] = bodies[i].name.getBytes(StandardCharsets.UTF_8);
+            namesSize += 4 + names[i].length;
+        }
+        ByteBuffer effects = encodeEffects(manager, bodies);
+        
+        long blocksOffset = HEADER_SIZE;
+        long namesOffset = blocksOffset + (long)BLOCKS * 8 * n;
+        long size = namesOffset + namesSize + effects.remaining();
+        
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, 
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            BodyStore store = manager.getBodyStore();
+            for(int block = 0; block < BLOCKS; block++) {
+                MappedByteBuffer buffer = map(channel, FileChannel.MapMode.READ_WRITE, blocksOffset + (long)block * 8 * n, 8L * n);
+                DoubleBuffer doubles = buffer.asDoubleBuffer();
+                if(store != null) {
+                    doubles.put(storeArray(store, block), 0, n);
+                } else {
+                    for(int i = 0; i < n; i++) {
+                        doubles.put(objectValue(bodies[i], block));
+                    }
+                }
+                buffer.force();
+            }
+            
+            MappedByteBuffer tail = map(channel, FileChannel.MapMode.READ_WRITE, namesOffset, size - namesOffset);
+            for(int i = 0; i < n; i++) {
+                tail.putInt(names[i].length).put(names[i]);
+            }
+            tail.put(effects);
+            tail.force();
+            
+            MappedByteBuffer header = map(channel, FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(manager.effects.size());
+            header.putLong(manager.getTickCount()).putDouble(manager.getTimeStep()).putLong(namesOffset);
+            header.force();
+            // The size of the file is metadata, which the mappings don't flush
+            channel.force(true);
+        }
+    }
+    
+    /**
+     * Restores a checkpoint into the given manager, which must not contain any objects yet.
+     * The manager switches to a BodyStore, which is filled in bulk from the file.
+     * Effects are matched by name with the effects already added to the manager, effects missing in the manager are skipped.
+     * @param file The file.
+     * @param manager The empty manager.
+     * @param factory Creates the objects.
+     * @return The number of restored objects.
+     * @throws IOException If the file can't be read or isn't a checkpoint.
+     * @throws IllegalStateException If the manager is running or contains objects.
+     */
+    public static int read(Path file, SystemManager manager, BodyFactory factory) throws IOException {
+        synchronized(manager.stateLock) {
+            manager.checkIdle();
+            return restore(file, manager, factory);
+        }
+    }
+    
+    private static int restore(Path file, SystemManager manager, BodyFactory factory) throws IOException {
+        if(!manager.objects.isEmpty()) {
+            throw new IllegalStateException("A checkpoint can only be restored into an empty SystemManager.");
+        }
+        
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer header = map(channel, FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if(header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a Physikk checkpoint: " + file);
+            }
+            int n = header.getInt();
+            int effectCount = header.getInt();
+            long tickCount = header.getLong();
+            double timeStep = header.getDouble();
+            long namesOffset = header.getLong();
+            
+            // Bulk load the state into the store
+            manager.enableBodyStore();
+            BodyStore store = manager.getBodyStore();
+            store.ensureCapacity(n);
+            for(int block = 0; block < BLOCKS; block++) {
+                MappedByteBuffer buffer = map(channel, FileChannel.MapMode.READ_ONLY, HEADER_SIZE + (long)block * 8 * n, 8L * n);
+                buffer.asDoubleBuffer().get(storeArray(store, block), 0, n);
+            }
+            
+            MappedByteBuffer tail = map(channel, FileChannel.MapMode.READ_ONLY, namesOffset, channel.size() - namesOffset);
+            HashMap<String, PhysicObject> objects = new HashMap<>(n * 4 / 3 + 1);
+            PhysicObject[] bodies = new PhysicObject[n];
+            for(int i = 0; i < n; i++) {
+                String name = readString(tail);
+                PhysicObject obj = factory.create(name, store.mass[i], 
+                        new Vector(store.posX[i], store.posY[i], store.posZ[i]), 
+                        new Vector(store.veloX[i], store.veloY[i], store.veloZ[i]));
+                bodies[i] = obj;
+                objects.put(name, obj);
+            }
+            store.attachAll(bodies, n);
+            manager.restoreObjects(objects, tickCount, timeStep);
+            
+            readEffects(tail, effectCount, manager, bodies);
+            return n;
+        }
+    }
+    
+    /// Helpers
+    
+    private static PhysicObject[] bodiesInOrder(SystemManager manager) {
+        BodyStore store = manager.getBodyStore();
+        if(store == null) {
+            return manager.objects.values().toArray(new PhysicObject[manager.objects.size()]);
+        }
+        PhysicObject[] bodies = new PhysicObject[store.size()];
+        System.arraycopy(store.bodies, 0, bodies, 0, bodies.length);
+        return bodies;
+    }
+    
+    private static double[] storeArray(BodyStore store, int block) {
+        switch(block) {
+            case 0: return store.mass;
+            case 1: return store.posX;
+            case 2: return store.posY;
+            case 3: return store.posZ;
+            case 4: return store.veloX;
+            case 5: return store.veloY;
+            default: return store.veloZ;
+        }
+    }
+    
+    private static double objectValue(PhysicObject obj, int block) {
+        switch(block) {
+            case 0: return obj.mass;
+            case 1: return obj.getPosition().x;
+            case 2: return obj.getPosition().y;
+            case 3: return obj.getPosition().z;
+            case 4: return obj.getVelocity().x;
+            case 5: return obj.getVelocity().y;
+            default: return obj.getVelocity().z;
+        }
+    }
+    
+    private static ByteBuffer encodeEffects(SystemManager manager, PhysicObject[] bodies) {
+        ArrayList<byte[]> names = new ArrayList<>();
+        long size = 0;
+        boolean needsIndex = false;
+        for(Effect<?> fx : manager.effects.values()) {
+            byte[] name = fx.name.getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            size += 4 + name.length + 1 + 4 + (fx.usesManagerObjects() ? 0 : 4L * fx.attachedObjects.size());
+            needsIndex |= !fx.usesManagerObjects();
+        }
+        
+        // In a BodyStore the index of an object is its id, otherwise it has to be looked up
+        IdentityHashMap<PhysicObject, Integer> index = null;
+        if(needsIndex && manager.getBodyStore() == null) {
+            index = new IdentityHashMap<>(bodies.length);
+            for(int i = 0; i < bodies.length; i++) {
+                index.put(bodies[i], i);
+            }
+        }
+        
+        ByteBuffer buffer = ByteBuffer.allocate((int)size).order(ByteOrder.LITTLE_ENDIAN);
+        int e = 0;
+        for(Effect<?> fx : manager.effects.values()) {
+            byte[] name = names.get(e++);
+            buffer.putInt(name.length).put(name);
+            if(fx.usesManagerObjects()) {
+                buffer.put((byte)1).putInt(0);
+            } else {
+                buffer.put((byte)0).putInt(fx.attachedObjects.size());
+                for(PhysicObject obj : fx.attachedObjects.values()) {
+                    buffer.putInt(indexOf(obj, manager, index));
+                }
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+    
+    private static int indexOf(PhysicObject obj, SystemManager manager, IdentityHashMap<PhysicObject, Integer> index) {
+        if(index == null) {
+            return obj.store == manager.getBodyStore() ? obj.storeId : -1;
+        }
+        Integer i = index.get(obj);
+        return i == null ? -1 : i;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static void readEffects(ByteBuffer tail, int effectCount, SystemManager manager, PhysicObject[] bodies) {
+        for(int e = 0; e < effectCount; e++) {
+            String name = readString(tail);
+            boolean usesManagerObjects = tail.get() != 0;
+            int members = tail.getInt();
+            Effect<PhysicObject> fx = manager.effects.get(name);
+            
+            for(int k = 0; k < members; k++) {
+                int i = tail.getInt();
+                if(fx != null && !usesManagerObjects && i >= 0) {
+                    fx.setObject(bodies[i]);
+                }
+            }
+        }
+    }
+    
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long offset, long length) throws IOException {
+        if(length > Integer.MAX_VALUE) {
+            throw new IOException("A section of the checkpoint exceeds 2 GiB.");
+        }
+        MappedByteBuffer buffer = channel.map(mode, offset, length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+import java.util.Arrays;
+
+/**
+ * Tracks the conserved quantities of a SystemManager every n ticks: the total energy, the linear and angular 
+ * momentum (about the origin) and the center of mass, to validate a running simulation.
+ * 
+ * The kinetic terms and momenta are sums over all objects, calculated in fixed chunks on the TickEngine 
+ * of the manager and merged in a fixed order, so the result doesn't depend on the number of threads.
+ * The potential energy comes from the active effects implementing PotentialEnergySource. If the forces of a tick 
+ * are evaluated at the state of the previous tick first (the built-in integration, the SemiImplicitEulerIntegrator
+ * and the RungeKutta4Integrator), the monitor requests the potential energy after the sampled tick and reads it 
+ * after the next one, so it's calculated along with the forces for the price of a few more operations per pair.
+ * Otherwise, or if the next update didn't cover all objects (sleeping objects, changed objects), the potential 
+ * energy is calculated separately, which costs about one force evaluation per sample.
+ * @author Sleepersword
+ */
+public final class ConservationMonitor implements TickListener
+{
+    /**
+     * The conserved quantities of one tick.
+     */
+    public static final class Sample 
+    {
+        private final long tick;
+        private final double kineticEnergy, potentialEnergy, mass;
+        private final double momentumX, momentumY, momentumZ;
+        private final double angularX, angularY, angularZ;
+        private final double centerX, centerY, centerZ;
+        
+        Sample(long tick, double[] sums, double potentialEnergy) {
+            this.tick = tick;
+            this.kineticEnergy = sums[KINETIC];
+            this.potentialEnergy = potentialEnergy;
+            this.mass = sums[MASS];
+            this.momentumX = sums[MOMENTUM_X];
+            this.momentumY = sums[MOMENTUM_Y];
+            this.momentumZ = sums[MOMENTUM_Z];
+            this.angularX = sums[ANGULAR_X];
+            this.angularY = sums[ANGULAR_Y];
+            this.angularZ = sums[ANGULAR_Z];
+            double inverse = mass == 0 ? 0 : 1.0 / mass;
+            this.centerX = inverse * sums[MOMENT_X];
+            this.centerY = inverse * sums[MOMENT_Y];
+            this.centerZ = inverse * sums[MOMENT_Z];
+        }
+        
+        public long getTick() {
+            return tick;
+        }
+        
+        public double getKineticEnergy() {
+            return kineticEnergy;
+        }
+        
+        public double getPotentialEnergy() {
+            return potentialEnergy;
+        }
+        
+        public double getTotalEnergy() {
+            return kineticEnergy + potentialEnergy;
+        }
+        
+        public double getMass() {
+            return mass;
+        }
+        
+        public Vector getMomentum() {
+            return new Vector(momentumX, momentumY, momentumZ);
+        }
+        
+        public Vector getAngularMomentum() {
+            return new Vector(angularX, angularY, angularZ);
+        }
+        
+        public Vector getCenterOfMass() {
+            return new Vector(centerX, centerY, centerZ);
+        }
+        
+        @Override
+        public String toString() {
+            return "tick " + tick + ": E=" + getTotalEnergy() + " J (K=" + kineticEnergy + ", U=" + potentialEnergy 
+                    + "), p=" + getMomentum() + ", L=" + getAngularMomentum() + ", com=" + getCenterOfMass();
+        }
+    }
+    
+    /**
+     * The number of objects per chunk of the reductions.
+     */
+    private static final int CHUNK_SIZE = 1024;
+    
+    // The sums of a chunk
+    private static final int MASS = 0, KINETIC = 1;
+    private static final int MOMENTUM_X = 2, MOMENTUM_Y = 3, MOMENTUM_Z = 4;
+    private static final int ANGULAR_X = 5, ANGULAR_Y = 6, ANGULAR_Z = 7;
+    private static final int MOMENT_X = 8, MOMENT_Y = 9, MOMENT_Z = 10;
+    private static final int SUMS = 11;
+    
+    private final int interval;
+    private double[] partials = new double[SUMS];
+    private final double[] sums = new double[SUMS];
+    
+    // The sample waiting for the potential energy of the next tick
+    private PotentialEnergySource[] requested = new PotentialEnergySource[0];
+    private int requestedCount;
+    private long pendingTick = -1;
+    private int pendingObjects;
+    private final double[] pendingSums = new double[SUMS];
+    
+    private volatile Sample first, latest;
+    private volatile long samples, nanos;
+    
+    /**
+     * Creates a monitor.
+     * @param interval A sample gets taken every interval ticks.
+     */
+    public ConservationMonitor(int interval) {
+        if(interval < 1) {
+            throw new IllegalArgumentException("The interval has to be at least 1.");
+        }
+        this.interval = interval;
+    }
+    
+    /// Methods
+    
+    @Override
+    public void tickCompleted(SystemManager manager, long tick) {
+        long start = System.nanoTime();
+        if(pendingTick >= 0) {
+            complete(manager, tick);
+        }
+        if(tick % interval == 0) {
+            sample(manager, tick);
+        }
+        nanos += System.nanoTime() - start;
+    }
+    
+    /**
+     * Returns the first sample, the reference for the errors.
+     * @return The first sample or null, if no sample has been taken yet.
+     */
+    public Sample getFirstSample() {
+        return first;
+    }
+    
+    /**
+     * Returns the latest sample.
+     * @return The latest sample or null, if no sample has been taken yet.
+     */
+    public Sample getLatestSample() {
+        return latest;
+    }
+    
+    /**
+     * Returns the relative change of the total energy between the first and the latest sample.
+     * @return |E - E0| / |E0|, or NaN if no sample has been taken yet.
+     */
+    public double getRelativeEnergyError() {
+        Sample reference = first, current = latest;
+        if(reference == null) {
+            return Double.NaN;
+        }
+        return Math.abs(current.getTotalEnergy() - reference.getTotalEnergy()) / Math.abs(reference.getTotalEnergy());
+    }
+    
+    /**
+     * Returns the change of the momentum between the first and the latest sample.
+     * @return |p - p0| in kg*m/s, or NaN if no sample has been taken yet.
+     */
+    public double getMomentumError() {
+        Sample reference = first, current = latest;
+        if(reference == null) {
+            return Double.NaN;
+        }
+        return Math.sqrt(square(current.momentumX - reference.momentumX) + square(current.momentumY - reference.momentumY) 
+                + square(current.momentumZ - reference.momentumZ));
+    }
+    
+    /**
+     * Returns the change of the angular momentum between the first and the latest sample.
+     * @return |L - L0| in kg*m^2/s, or NaN if no sample has been taken yet.
+     */
+    public double getAngularMomentumError() {
+        Sample reference = first, current = latest;
+        if(reference == null) {
+            return Double.NaN;
+        }
+        return Math.sqrt(square(current.angularX - reference.angularX) + square(current.angularY - reference.angularY) 
+                + square(current.angularZ - reference.angularZ));
+    }
+    
+    /**
+     * Returns the number of samples taken so far.
+     * @return The number of samples.
+     */
+    public long getSampleCount() {
+        return samples;
+    }
+    
+    /**
+     * Returns the time the simulation thread spent in this monitor, to compare it with the time of the ticks.
+     * @return The time in nanoseconds.
+     */
+    public long getTimeSpent() {
+        return nanos;
+    }
+    
+    /**
+     * Forgets all samples, so the next one becomes the new reference.
+     */
+    public void reset() {
+        first = null;
+        latest = null;
+        samples = 0;
+    }
+    
+    /// Sampling
+    
+    /**
+     * Sums the kinetic terms of the current state and either requests the potential energy for the next tick
+     * or calculates it right away.
+     */
+    private void sample(SystemManager manager, long tick) {
+        int objects = reduce(manager, sums);
+        Effect[] effects = manager.effectArray();
+        
+        Integrator integrator = manager.getIntegrator();
+        if(integrator != null && !integrator.evaluatesForcesFirst()) {
+            publish(tick, sums, computePotentialEnergy(effects));
+            return;
+        }
+        
+        requestedCount = 0;
+        for(Effect fx : effects) {
+            if(fx instanceof PotentialEnergySource && fx.isActive()) {
+                if(requestedCount == requested.length) {
+                    requested = Arrays.copyOf(requested, requestedCount + 1);
+                }
+                PotentialEnergySource source = (PotentialEnergySource)fx;
+                source.requestPotentialEnergy();
+                requested[requestedCount++] = source;
+            }
+        }
+        if(requestedCount == 0) {
+            publish(tick, sums, 0);
+            return;
+        }
+        pendingTick = tick;
+        pendingObjects = objects;
+        System.arraycopy(sums, 0, pendingSums, 0, SUMS);
+    }
+    
+    /**
+     * Completes the pending sample with the potential energy calculated during the last tick.
+     * If it wasn't calculated for the sampled state, the sample gets taken again for the current state.
+     */
+    private void complete(SystemManager manager, long tick) {
+        double potential = 0;
+        for(int s = 0; s < requestedCount; s++) {
+            potential += requested[s].getPotentialEnergy();
+            requested[s] = null;
+        }
+        long sampled = pendingTick;
+        pendingTick = -1;
+        
+        int objects = manager.getBodyStore() != null ? manager.getBodyStore().size() : manager.objectArray().length;
+        if(Double.isNaN(potential) || objects != pendingObjects) {
+            reduce(manager, sums);
+            publish(tick, sums, computePotentialEnergy(manager.effectArray()));
+        } else {
+            publish(sampled, pendingSums, potential);
+        }
+    }
+    
+    private double computePotentialEnergy(Effect[] effects) {
+        double potential = 0;
+        for(Effect fx : effects) {
+            if(fx instanceof PotentialEnergySource && fx.isActive()) {
+                potential += ((PotentialEnergySource)fx).computePotentialEnergy();
+            }
+        }
+        return potential;
+    }
+    
+    private void publish(long tick, double[] sums, double potential) {
+        Sample sample = new Sample(tick, sums, potential);
+        if(first == null) {
+            first = sample;
+        }
+        latest = sample;
+        samples++;
+    }
+    
+    /// Reductions
+    
+    /**
+     * Sums mass, kinetic energy, momentum, angular momentum and mass moment of all objects.
+     * @return The number of objects.
+     */
+    private int reduce(SystemManager manager, double[] result) {
+        BodyStore store = manager.getBodyStore();
+        PhysicObject[] objects = store == null ? manager.objectArray() : null;
+        int n = store != null ? store.size() : objects.length;
+        int chunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if(partials.length < SUMS * chunks) {
+            partials = new double[SUMS * chunks];
+        }
+        
+        double[] p = partials;
+        manager.forEachObject(chunks, (from, to) -> {
+            for(int c = from; c < to; c++) {
+                int start = c * CHUNK_SIZE, end = Math.min(n, start + CHUNK_SIZE);
+                if(store != null) {
+                    sumStore(store, start, end, p, SUMS * c);
+                } else {
+                    sumObjects(objects, start, end, p, SUMS * c);
+                }
+            }
+        });
+        
+        Arrays.fill(result, 0.0);
+        for(int c = 0; c < chunks; c++) {
+            for(int k = 0; k < SUMS; k++) {
+                result[k] += p[SUMS * c + k];
+            }
+        }
+        result[KINETIC] *= 0.5;
+        return n;
+    }
+    
+    private static void sumStore(BodyStore store, int from, int to, double[] p, int offset) {
+        double[] x = store.posX, y = store.posY, z = store.posZ;
+        double[] vx = store.veloX, vy = store.veloY, vz = store.veloZ;
+        double[] m = store.mass;
+        double mass = 0, kinetic = 0, px = 0, py = 0, pz = 0, lx = 0, ly = 0, lz = 0, mx = 0, my = 0, mz = 0;
+        
+        for(int i = from; i < to; i++) {
+            double mi = m[i], xi = x[i], yi = y[i], zi = z[i];
+            double pxi = mi * vx[i], pyi = mi * vy[i], pzi = mi * vz[i];
+            mass += mi;
+            kinetic += pxi * vx[i] + pyi * vy[i] + pzi * vz[i];
+            px += pxi;
+            py += pyi;
+            pz += pzi;
+            // L = r x p
+            lx += yi * pzi - zi * pyi;
+            ly += zi * pxi - xi * pzi;
+            lz += xi * pyi - yi * pxi;
+            mx += mi * xi;
+            my += mi * yi;
+            mz += mi * zi;
+        }
+        store(p, offset, mass, kinetic, px, py, pz, lx, ly, lz, mx, my, mz);
+    }
+    
+    private static void sumObjects(PhysicObject[] objects, int from, int to, double[] p, int offset) {
+        double mass = 0, kinetic = 0, px = 0, py = 0, pz = 0, lx = 0, ly = 0, lz = 0, mx = 0, my = 0, mz = 0;
+        
+        for(int i = from; i < to; i++) {
+            Vector r = objects[i].getPosition(), v = objects[i].getVelocity();
+            double mi = objects[i].getMass();
+            double pxi = mi * v.x, pyi = mi * v.y, pzi = mi * v.z;
+            mass += mi;
+            kinetic += pxi * v.x + pyi * v.y + pzi * v.z;
+            px += pxi;
+            py += pyi;
+            pz += pzi;
+            lx += r.y * pzi - r.z * pyi;
+            ly += r.z * pxi - r.x * pzi;
+            lz += r.x * pyi - r.y * pxi;
+            mx += mi * r.x;
+            my += mi * r.y;
+            mz += mi * r.z;
+        }
+        store(p, offset, mass, kinetic, px, py, pz, lx, ly, lz, mx, my, mz);
+    }
+    
+    private static void store(double[] p, int offset, double mass, double kinetic, double px, double py, double pz, 
+            double lx, double ly, double lz, double mx, double my, double mz) {
+        p[offset + MASS] = mass;
+        p[offset + KINETIC] = kinetic;
+        p[offset + MOMENTUM_X] = px;
+        p[offset + MOMENTUM_Y] = py;
+        p[offset + MOMENTUM_Z] = pz;
+        p[offset + ANGULAR_X] = lx;
+        p[offset + ANGULAR_Y] = ly;
+        p[offset + ANGULAR_Z] = lz;
+        p[offset + MOMENT_X] = mx;
+        p[offset + MOMENT_Y] = my;
+        p[offset + MOMENT_Z] = mz;
+    }
+    
+    private static double square(double a) {
+        return a * a;
+    }
+}
@@ -17,6 +17,7 @@
  */
 package com.physikk.base;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 
 /**
@@ -30,27 +31,65 @@ public abstract class Effect<T extends PhysicObject> extends Activatable
     protected String name;
     protected HashMap<String, T> attachedObjects;
     private SystemManager manager;
+    private boolean usesManagerObjects;
+    private final ArrayList<T> objectList;
+    private boolean objectListValid;
     
     protected Effect(String name, boolean isActive) {
         this.name = name;
         this.active = isActive;
         this.attachedObjects = new HashMap<>();
+        this.objectList = new ArrayList<>();
     }
     
     /**
      * Adds a new PhysicObject or replaces an existing one.
+     * If the SystemManager of this effect is running, the object is added at the start of its next tick.
      * @param object The new object.
      */
     public void setObject(T object) {
-        attachedObjects.put(object.name, object);
+        if(manager != null) {
+            manager.mutate(() -> { attach(object); });
+        } else {
+            attach(object);
+        }
     }    
     
     /**
      * Removes the given PhysicObject, if it exists.
+     * If the SystemManager of this effect is running, the object is removed at the start of its next tick.
      * @param object The PhysicObject to be removed.
      */
     public void removeObject(T object) {        
+        if(manager != null) {
+            manager.mutate(() -> { detach(object); });
+        } else {
+            detach(object);
+        }
+    }
+    
+    private void attach(T object) {
+        attachedObjects.put(object.name, object);
+        objectListValid = false;
+    }
+    
+    private void detach(T object) {
         attachedObjects.remove(object.name);
+        objectListValid = false;
+    }
+    
+    /**
+     * Returns the attached objects as a list, which is only rebuilt if objects were added or removed.
+     * Iterating it by index doesn't allocate, unlike iterating attachedObjects.
+     * @return The attached objects.
+     */
+    protected final ArrayList<T> getObjects() {
+        if(!objectListValid) {
+            objectList.clear();
+            objectList.addAll(attachedObjects.values());
+            objectListValid = true;
+        }
+        return objectList;
     }
         
     /**
@@ -59,6 +98,17 @@ public abstract class Effect<T extends PhysicObject> extends Activatable
     protected abstract void update(); 
     protected abstract void updateSecond();    
     
+    /**
+     * Gets called internally by a SystemManager, if only some bodies of its BodyStore need new forces.
+     * Override it, if the effect can skip the other bodies. The default implementation updates all objects.
+     * @param store The store of the SystemManager.
+     * @param active The ids of the bodies needing new forces.
+     * @param count The number of active bodies.
+     */
+    protected void updateActive(BodyStore store, int[] active, int count) {
+        update();
+    }
+    
     /**
      * Gets called if you call SystemManager.addEffect
      */
@@ -66,7 +116,31 @@ public abstract class Effect<T extends PhysicObject> extends Activatable
         this.manager = manager;
     }
     
+    /**
+     * Returns the BodyStore holding exactly the attached objects.
+     * @return The store of the SystemManager, if this effect uses the objects of a manager with a store. Otherwise null.
+     */
+    protected final BodyStore getBodyStore() {
+        return usesManagerObjects ? manager.getBodyStore() : null;
+    }
+    
+    /**
+     * Returns true if this effect uses the objects of its SystemManager.
+     */
+    final boolean usesManagerObjects() {
+        return usesManagerObjects;
+    }
+    
     final void setObjectsFromSystemManager(HashMap<String, T> list) {
-        attachedObjects = list;
+        usesManagerObjects = list != null;
+        if(list != null) attachedObjects = list;
+        objectListValid = false;
+    }
+    
+    /**
+     * Gets called by the SystemManager if its objects changed.
+     */
+    final void managerObjectsChanged() {
+        if(usesManagerObjects) objectListValid = false;
     }
 }
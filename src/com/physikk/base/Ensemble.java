@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collector;
+
+/**
+ * Runs many independent, small simulations (e.g. Monte-Carlo variants of a scenario) on a pool of worker threads.
+ * Every run gets its own SystemManager, created by a Scenario from the seed of the run, 
+ * and is simulated headless for a fixed number of ticks on one worker thread. 
+ * The runs are delivered in the order of their seeds, so the results don't depend on the number of threads.
+ * @author Sleepersword
+ */
+public final class Ensemble<R>
+{
+    /**
+     * Creates the system of one run. Use the given generator (e.g. with Utils.randomVector3D(random, ...)) 
+     * for all random initial conditions, so the run is reproducible.
+     */
+    public interface Scenario 
+    {
+        SystemManager create(long seed, Random random);
+    }
+    
+    /**
+     * Extracts the result of a run from its system after the last tick.
+     */
+    public interface Measurement<R> 
+    {
+        R measure(SystemManager manager, RunStatistics statistics);
+    }
+    
+    /**
+     * The outcome of a single run.
+     */
+    public static final class Run<R>
+    {
+        private final long seed;
+        private final R result;
+        private final RunStatistics statistics;
+        private final Throwable failure;
+        
+        Run(long seed, R result, RunStatistics statistics, Throwable failure) {
+            this.seed = seed;
+            this.result = result;
+            this.statistics = statistics;
+            this.failure = failure;
+        }
+        
+        public long getSeed() { return seed; }
+        public R getResult() { return result; }
+        public RunStatistics getStatistics() { return statistics; }
+        
+        /**
+         * Returns the exception that aborted this run.
+         * @return The exception or null, if the run succeeded.
+         */
+        public Throwable getFailure() { return failure; }
+        
+        public boolean isSuccessful() { return failure == null; }
+        
+        @Override
+        public String toString() {
+            return "[Run " + seed + "] " + (failure == null ? String.valueOf(result) : "failed: " + failure);
+        }
+    }
+    
+    /**
+     * The number of runs per thread that may be started ahead of the next run to be delivered.
+     */
+    private static final int RUNS_AHEAD = 4;
+    
+    private final Scenario scenario;
+    private final Measurement<R> measurement;
+    private long ticks = Utils.TICKS_PER_SECOND;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean secondUpdates;
+    
+    /**
+     * Creates an ensemble.
+     * @param scenario Creates the system of every run.
+     * @param measurement Extracts the result of every run.
+     */
+    public Ensemble(Scenario scenario, Measurement<R> measurement) {
+        this.scenario = scenario;
+        this.measurement = measurement;
+    }
+    
+    /// Configuration
+    
+    /**
+     * Sets the number of ticks every run is simulated, one second of simulated time by default.
+     * @param ticks The number of ticks.
+     * @return This ensemble.
+     */
+    public Ensemble<R> setTicks(long ticks) {
+        if(ticks < 0) {
+            throw new IllegalArgumentException("ticks must not be negative: " + ticks);
+        }
+        this.ticks = ticks;
+        return this;
+    }
+    
+    /**
+     * Sets the number of worker threads, the number of processors by default.
+     * @param threads The number of threads.
+     * @return This ensemble.
+     */
+    public Ensemble<R> setThreads(int threads) {
+        if(threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.threads = threads;
+        return this;
+    }
+    
+    /**
+     * Enables the per second updates and console output of the systems, they are disabled by default.
+     * @param enabled Whether updateSecond() is called during the runs.
+     * @return This ensemble.
+     */
+    public Ensemble<R> setSecondUpdates(boolean enabled) {
+        this.secondUpdates = enabled;
+        return this;
+    }
+    
+    /// Methods
+    
+    /**
+     * Creates the generator of the given seed. Consecutive seeds are scrambled first, 
+     * because java.util.Random produces correlated first values for them.
+     * @param seed The seed of the run.
+     * @return A new generator.
+     */
+    public static Random random(long seed) {
+        // SplitMix64 finalizer
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return new Random(z ^ (z >>> 31));
+    }
+    
+    /**
+     * Runs the seeds [fromSeed, toSeed) and streams every run to the sink as soon as 
+     * all runs with smaller seeds are delivered. The sink is called on the calling thread.
+     * A failing run doesn't abort the others, it is delivered with its failure.
+     * @param fromSeed The first seed.
+     * @param toSeed The end of the seeds (exclusive).
+     * @param sink Receives the runs in the order of their seeds.
+     * @throws InterruptedException If the calling thread is interrupted, the remaining runs are cancelled.
+     */
+    public void run(long fromSeed, long toSeed, Consumer<? super Run<R>> sink) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new WorkerFactory());
+        CompletionService<Run<R>> completion = new ExecutorCompletionService<>(pool);
+        TreeMap<Long, Run<R>> early = new TreeMap<>();
+        long window = (long)threads * RUNS_AHEAD;
+        long next = fromSeed;
+        long deliver = fromSeed;
+        
+        try {
+            while(deliver < toSeed) {
+                while(next < toSeed && next - deliver < window) {
+                    final long seed = next++;
+                    completion.submit(() -> execute(seed));
+                }
+                
+                Run<R> run = completion.take().get();
+                early.put(run.seed, run);
+                while(!early.isEmpty() && early.firstKey() == deliver) {
+                    sink.accept(early.pollFirstEntry().getValue());
+                    deliver++;
+                }
+            }
+        } catch(ExecutionException ex) {
+            // execute() catches everything but errors
+            throw (Error)ex.getCause();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    /**
+     * Runs the seeds [fromSeed, toSeed) and returns all runs.
+     * @param fromSeed The first seed.
+     * @param toSeed The end of the seeds (exclusive).
+     * @return The runs in the order of their seeds.
+     * @throws InterruptedException If the calling thread is interrupted.
+     */
+    public List<Run<R>> runAll(long fromSeed, long toSeed) throws InterruptedException {
+        ArrayList<Run<R>> runs = new ArrayList<>();
+        run(fromSeed, toSeed, runs::add);
+        return runs;
+    }
+    
+    /**
+     * Runs the seeds [fromSeed, toSeed) and aggregates the runs without keeping them, 
+     * e.g. with Collectors.summarizingDouble(). The runs are accumulated in the order of their seeds.
+     * @param fromSeed The first seed.
+     * @param toSeed The end of the seeds (exclusive).
+     * @param collector The aggregation.
+     * @return The aggregate.
+     * @throws InterruptedException If the calling thread is interrupted.
+     */
+    public <A, T> T aggregate(long fromSeed, long toSeed, Collector<? super Run<R>, A, T> collector) throws InterruptedException {
+        A container = collector.supplier().get();
+        run(fromSeed, toSeed, (run) -> { collector.accumulator().accept(container, run); });
+        return collector.finisher().apply(container);
+    }
+    
+    private Run<R> execute(long seed) {
+        try {
+            SystemManager manager = scenario.create(seed, random(seed));
+            manager.setSecondUpdates(secondUpdates);
+            RunStatistics statistics = manager.runTicks(ticks);
+            return new Run<>(seed, measurement.measure(manager, statistics), statistics, null);
+        } catch(Exception ex) {
+            return new Run<>(seed, null, null, ex);
+        }
+    }
+    
+    private static final class WorkerFactory implements ThreadFactory
+    {
+        private static final AtomicInteger pools = new AtomicInteger();
+        private final int pool = pools.incrementAndGet();
+        private final AtomicInteger workers = new AtomicInteger();
+        
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread t = new Thread(task, "Physikk ensemble " + pool + "-" + workers.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
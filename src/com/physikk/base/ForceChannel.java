@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns the names of forces as dense integer channel ids, which index the force slots of every PhysicObject.
+ * Effects register their channel once and then write their force without hashing the name, e.g.
+ * {@code private static final int CHANNEL = ForceChannel.register("GravitationForce");}
+ * Channel ids are global and never released.
+ * @author Sleepersword
+ */
+public final class ForceChannel 
+{
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[0];
+    
+    // Override default constructor
+    private ForceChannel() {}
+    
+    /**
+     * Returns the channel id of the given force name and registers it, if necessary.
+     * @param name The name of the force.
+     * @return The channel id.
+     */
+    public static int register(String name) {
+        Integer id = ids.get(name);
+        if(id != null) {
+            return id;
+        }
+        synchronized(ForceChannel.class) {
+            id = ids.get(name);
+            if(id == null) {
+                String[] grown = Arrays.copyOf(names, names.length + 1);
+                grown[names.length] = name;
+                id = names.length;
+                names = grown;
+                ids.put(name, id);
+            }
+            return id;
+        }
+    }
+    
+    /**
+     * Returns the channel id of the given force name without registering it.
+     * @param name The name of the force.
+     * @return The channel id or -1, if the name isn't registered.
+     */
+    public static int find(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+    
+    /**
+     * Returns the name of the given channel.
+     * @param channel The channel id.
+     * @return The name of the force.
+     */
+    public static String getName(int channel) {
+        return names[channel];
+    }
+    
+    /**
+     * Returns the number of registered channels, all ids are in [0, count()).
+     * @return The number of channels.
+     */
+    public static int count() {
+        return names.length;
+    }
+}
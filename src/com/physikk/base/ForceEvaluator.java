@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+/**
+ * Calculates the forces on all bodies of a BodyStore for their current state.
+ * @author Sleepersword
+ */
+public interface ForceEvaluator 
+{
+    /**
+     * Updates all effects and sums the forces of every body into the force arrays of the store.
+     */
+    void computeForces();
+    
+    /**
+     * Only sums the forces of every body into the force arrays of the store, the effects aren't updated.
+     * Use it if the effect forces are still valid for the current positions.
+     */
+    void gatherForces();
+    
+    /**
+     * Updates the effects only for the given bodies and sums their forces into the force arrays of the store.
+     * The force entries of all other bodies stay untouched.
+     * @param active The ids of the bodies.
+     * @param count The number of bodies.
+     */
+    void computeForces(int[] active, int count);
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+/**
+ * Describes a numerical method that advances the bodies of a BodyStore by one timestep.
+ * Only the bodies of BodyStore.getMovingIds() are moved, the others keep their position and velocity.
+ * @author Sleepersword
+ */
+public interface Integrator 
+{
+    /**
+     * Advances the moving bodies by the given timestep.
+     * The integrator calls the evaluator whenever it needs the forces at the current positions and velocities,
+     * the forces are then found in the force arrays of the store.
+     * @param store The store holding the state of all bodies.
+     * @param evaluator Calculates the forces of the current state.
+     * @param dt The timestep in seconds.
+     */
+    void step(BodyStore store, ForceEvaluator evaluator, double dt);
+    
+    /**
+     * Gets called if the bodies or effects of the system changed, so cached forces are invalid.
+     */
+    default void reset() {
+    }
+    
+    /**
+     * Returns whether every step starts with a force evaluation at the initial state, before any body moved.
+     * Quantities calculated along with these forces belong to the state at the end of the previous step.
+     * @return False by default.
+     */
+    default boolean evaluatesForcesFirst() {
+        return false;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An unbounded lock-free queue for many producer threads and a single consumer thread (Vyukov's MPSC queue).
+ * Offering is one atomic swap of the tail, polling and checking for elements only read volatile fields,
+ * so the consumer never blocks and never takes a lock.
+ * An element offered concurrently may become visible to the consumer a little later than the offer returns.
+ * @author Sleepersword
+ * @param <E> The type of the elements.
+ */
+final class MpscQueue<E> 
+{
+    private static final class Node<E>
+    {
+        E value;
+        volatile Node<E> next;
+        
+        Node(E value) {
+            this.value = value;
+        }
+    }
+    
+    private final AtomicReference<Node<E>> tail;
+    // Only touched by the consumer: the node whose value was polled last
+    private Node<E> head;
+    
+    MpscQueue() {
+        head = new Node<>(null);
+        tail = new AtomicReference<>(head);
+    }
+    
+    /**
+     * Appends an element. Can be called from any thread.
+     * @param value The element.
+     */
+    void offer(E value) {
+        Node<E> node = new Node<>(value);
+        Node<E> previous = tail.getAndSet(node);
+        previous.next = node;
+    }
+    
+    /**
+     * Removes the first element. Must only be called by the consumer.
+     * @return The element or null, if the queue is empty.
+     */
+    E poll() {
+        Node<E> next = head.next;
+        if(next == null) {
+            return null;
+        }
+        E value = next.value;
+        next.value = null;
+        head = next;
+        return value;
+    }
+    
+    /**
+     * Returns true if the consumer would poll nothing. Must only be called by the consumer.
+     * @return Whether is empty.
+     */
+    boolean isEmpty() {
+        return head.next == null;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+/**
+ * Emits the phases of a tick as Java Flight Recorder events for TickMetrics.
+ * The implementation uses the JFR API of Java 11+, it's compiled separately from src-jfr/ (see build.xml)
+ * and loaded through reflection, so the rest of the library still runs on Java 8.
+ * @author Sleepersword
+ */
+interface PhaseEvents 
+{
+    /**
+     * Starts an event, if JFR records it.
+     * @param phase The phase.
+     * @param effect The name of the effect or null.
+     * @param tick The number of the tick.
+     * @return The started event or null.
+     */
+    Object begin(String phase, String effect, long tick);
+    
+    /**
+     * Ends and commits an event started by begin().
+     * @param event The event.
+     */
+    void commit(Object event);
+}
@@ -17,7 +17,8 @@
  */
 package com.physikk.base;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 //TODO: Create updateSecond()
 
@@ -31,39 +32,112 @@ public abstract class PhysicObject extends Activatable
     protected String name;
     protected Vector position;
     protected Vector velocity;
-    protected HashMap<String, NamedVector> forces;
     protected double mass;
     
+    /**
+     * After this many force writes the total force is summed up again, 
+     * so the rounding errors of the incremental updates can't accumulate.
+     */
+    private static final int RESUM_INTERVAL = 1024;
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+    
+    private final int id = NEXT_ID.getAndIncrement();
     private SystemManager manager;
+    private final Vector acceleration = new Vector(0, 0, 0);
+    
+    // Force slots: 3 components per channel id, and the channels that are set, in the order they were set
+    private double[] channelForces = new double[0];
+    private boolean[] channelSet = new boolean[0];
+    private int[] channels = new int[0];
+    private int channelCount;
+    private int writesSinceResum;
+    double totalX, totalY, totalZ;
+    
+    BodyStore store;
+    int storeId = -1;
+    
+    // Sleeping: set and read by the SystemManager
+    boolean sleeping;
+    int quietTicks;
     
     protected PhysicObject(String name, boolean isActive) {
         this.name = name;
         this.active = isActive;
-        this.forces = new HashMap<>();
     }
     
     /// Full implemented
     
+    /**
+     * Returns the id of this object. It is unique within the JVM and never changes, 
+     * unlike the position of the object in a BodyStore or in the update order of the manager.
+     * @return The id.
+     */
+    public final int getId() {
+        return id;
+    }
+    
     /**
      * Calculates the total force on this object by superposition.
      * @return The total force.
      */
     public final NamedVector getTotalForce() {
-        Vector res = Vector.NULLVECTOR();
+        NamedVector res = new NamedVector("total_force");
+        getTotalForce(res);
         
-        for(Vector f : forces.values()){
-            res = res.sum(f);
+        return res;
+    }
+    
+    /**
+     * Returns the total force on this object without allocating. 
+     * The total is kept up to date whenever a force is set, so this doesn't iterate the forces.
+     * @param result The vector the total force is written to.
+     * @return The given result vector.
+     */
+    public final Vector getTotalForce(Vector result) {
+        return result.set(totalX, totalY, totalZ);
+    }
+    
+    /**
+     * Returns a copy of the force with the given name.
+     * @param name The name of the force.
+     * @return The force or null, if there is none with this name.
+     */
+    public final NamedVector getForce(String name) {
+        int channel = ForceChannel.find(name);
+        if(!hasForce(channel)) {
+            return null;
         }
-        
-        return new NamedVector("total_force", res);
+        return new NamedVector(name, channelForces[3 * channel], channelForces[3 * channel + 1], channelForces[3 * channel + 2]);
+    }
+    
+    /**
+     * Writes the force of the given channel into the result vector.
+     * @param channel The channel id.
+     * @param result The vector the force is written to, it is set to zero if the force isn't set.
+     * @return The given result vector.
+     */
+    public final Vector getForce(int channel, Vector result) {
+        if(!hasForce(channel)) {
+            return result.set(0, 0, 0);
+        }
+        return result.set(channelForces[3 * channel], channelForces[3 * channel + 1], channelForces[3 * channel + 2]);
+    }
+    
+    /**
+     * Returns whether the force of the given channel is set.
+     * @param channel The channel id.
+     * @return True, if the force is set.
+     */
+    public final boolean hasForce(int channel) {
+        return channel >= 0 && channel < channelSet.length && channelSet[channel];
     }
     
     /**
-     * Adds a new force or replaces an existing one.
+     * Adds a new force or replaces an existing one. The values of the force are copied.
      * @param force The new force.
      */
     public void setForce(NamedVector force) {
-        forces.put(force.name, force);
+        setForce(ForceChannel.register(force.name), force.x, force.y, force.z);
     }    
     
     /**
@@ -71,9 +145,100 @@ public abstract class PhysicObject extends Activatable
      * @param force The force to be removed.
      */
     public void removeForce(NamedVector force) {        
-        forces.remove(force.name);
+        removeForce(ForceChannel.find(force.name));
     }    
     
+    /**
+     * Sets the force of the given channel and updates the total force incrementally. Doesn't allocate,
+     * once the channel has been set on this object.
+     * @param channel The channel id from ForceChannel.register().
+     * @param x The X coordinate of the force.
+     * @param y The Y coordinate of the force.
+     * @param z The Z coordinate of the force.
+     */
+    public final void setForce(int channel, double x, double y, double z) {
+        int i = 3 * channel;
+        if(!hasForce(channel)) {
+            addChannel(channel);
+        } else {
+            totalX -= channelForces[i];
+            totalY -= channelForces[i + 1];
+            totalZ -= channelForces[i + 2];
+        }
+        channelForces[i] = x;
+        channelForces[i + 1] = y;
+        channelForces[i + 2] = z;
+        
+        if(channelCount == 1) {
+            totalX = x;
+            totalY = y;
+            totalZ = z;
+        } else if(++writesSinceResum >= RESUM_INTERVAL) {
+            resum();
+        } else {
+            totalX += x;
+            totalY += y;
+            totalZ += z;
+        }
+        
+        if(sleeping && manager != null && manager.exceedsSleepForce(totalX, totalY, totalZ)) {
+            wake();
+        }
+    }
+    
+    /**
+     * Removes the force of the given channel, if it is set.
+     * @param channel The channel id.
+     */
+    public final void removeForce(int channel) {
+        if(!hasForce(channel)) {
+            return;
+        }
+        channelSet[channel] = false;
+        for(int k = 0; k < channelCount; k++) {
+            if(channels[k] == channel) {
+                System.arraycopy(channels, k + 1, channels, k, channelCount - k - 1);
+                break;
+            }
+        }
+        channelCount--;
+        resum();
+        
+        if(sleeping) {
+            wake();
+        }
+    }
+    
+    private void addChannel(int channel) {
+        if(channel >= channelSet.length) {
+            int length = Math.max(channel + 1, ForceChannel.count());
+            channelSet = Arrays.copyOf(channelSet, length);
+            channelForces = Arrays.copyOf(channelForces, 3 * length);
+        }
+        if(channelCount == channels.length) {
+            channels = Arrays.copyOf(channels, Math.max(4, 2 * channelCount));
+        }
+        channelSet[channel] = true;
+        channels[channelCount++] = channel;
+    }
+    
+    /**
+     * Sums the total force up again from the force slots.
+     */
+    private void resum() {
+        double x = 0, y = 0, z = 0;
+        for(int k = 0; k < channelCount; k++) {
+            int i = 3 * channels[k];
+            x += channelForces[i];
+            y += channelForces[i + 1];
+            z += channelForces[i + 2];
+        }
+        totalX = x;
+        totalY = y;
+        totalZ = z;
+        writesSinceResum = 0;
+    }
+    
     /**
      * Returns the name of this object.
      * @return The name.
@@ -84,52 +249,109 @@ public abstract class PhysicObject extends Activatable
     
     /**
      * Returns the position of this object.
+     * The returned vector is updated in place every tick, copy it if you want to keep it.
+     * If this object lives in a BodyStore, the position is read from the store.
      * @return The position.
      */
     public Vector getPosition() {
+        if(store != null) {
+            position.x = store.posX[storeId];
+            position.y = store.posY[storeId];
+            position.z = store.posZ[storeId];
+        }
         return position;
     }
     
     /**
      * Returns the velocity of this object.
+     * The returned vector is updated in place every tick, copy it if you want to keep it.
+     * If this object lives in a BodyStore, the velocity is read from the store.
      * @return The velocity.
      */
     public Vector getVelocity() {
+        if(store != null) {
+            velocity.x = store.veloX[storeId];
+            velocity.y = store.veloY[storeId];
+            velocity.z = store.veloZ[storeId];
+        }
         return velocity;
     }
+    
+    /**
+     * Returns the BodyStore this object lives in.
+     * @return The store or null, if this object stores its state by itself.
+     */
+    public final BodyStore getBodyStore() {
+        return store;
+    }
+    
+    /**
+     * Returns the dense id of this object inside its BodyStore.
+     * @return The id or -1, if this object isn't stored in a BodyStore.
+     */
+    public final int getBodyId() {
+        return storeId;
+    }
         
     /**
      * Returns the mass of this object.
      * @return The mass.
      */
-    public Double getMass() {
+    public double getMass() {
         return mass;
     }
     
+    /**
+     * Returns true if the SystemManager put this object to sleep, because it stayed quiet for a while.
+     * Sleeping objects aren't ticked or moved, until a force wakes them up.
+     * @return Whether is sleeping.
+     */
+    public final boolean isSleeping() {
+        return sleeping;
+    }
+    
+    /**
+     * Wakes this object up, if it is sleeping. Effects call it if they changed something a sleeping object 
+     * depends on, setting a force above the sleep threshold or removing a force wakes it up by itself.
+     * Can be called from any thread, the object moves again from the next tick on.
+     */
+    public final void wake() {
+        SystemManager m = manager;
+        if(sleeping && m != null) {
+            m.wake(this);
+        }
+    }
+    
     /**
      * Forces a manual update.
      */
     public void manualUpdate() {
-        this.update();
+        this.update(Utils.SECONDS_PER_TICK);
     }
     
     /**
      * Gets called internally by a SystemManager
+     * @param dt The timestep in seconds.
      */
-    final void update() {        
+    final void update(double dt) {        
         // Call specific method tick()
         this.tick();
         
+        // Let the store integrate its flat arrays
+        if(store != null) {
+            store.gatherForce(storeId);
+            store.integrate(storeId, dt);
+            return;
+        }
+        
         // Calculate acceleration
-        Vector acceleration = getTotalForce().scale(1.0 / getMass() );
+        getTotalForce(acceleration).scaleInPlace(1.0 / mass);
         
         // Calculate the change of the velocity
-        Vector delta_velo = acceleration.scale( Utils.SECONDS_PER_TICK );
-        this.velocity = this.velocity.sum(delta_velo);
+        this.velocity.addScaled(acceleration, dt);
         
         // Calculate the change of the position
-        Vector delta_pos = getVelocity().scale( Utils.SECONDS_PER_TICK );
-        this.position = this.position.sum(delta_pos);
+        this.position.addScaled(velocity, dt);
     }
     
     /**
@@ -145,6 +367,35 @@ public abstract class PhysicObject extends Activatable
     final void setSystemManager(SystemManager manager) {
         this.manager = manager;
     }
+    
+    @Override
+    protected void activationChanged() {
+        SystemManager m = manager;
+        if(m != null) {
+            m.invalidateHotSet();
+        }
+    }
+    
+    /**
+     * Gets called by a BodyStore after it copied the state of this object.
+     * The vectors are copied, so refreshing them from the store never touches vectors of the caller.
+     */
+    final void bind(BodyStore store, int id) {
+        this.store = store;
+        this.storeId = id;
+        this.position = new Vector(position.x, position.y, position.z);
+        this.velocity = new Vector(velocity.x, velocity.y, velocity.z);
+    }
+    
+    /**
+     * Gets called by a BodyStore before this object gets removed from it.
+     */
+    final void unbind() {
+        getPosition();
+        getVelocity();
+        this.store = null;
+        this.storeId = -1;
+    }
     /// Abstract
     
     protected abstract void tick();
@@ -157,7 +408,7 @@ public abstract class PhysicObject extends Activatable
         StringBuilder sb = new StringBuilder();
         
         sb.append("[PhysicObject:"); sb.append(getName()); sb.append("]");
-        sb.append("\n  Mass="); sb.append(getMass().toString());
+        sb.append("\n  Mass="); sb.append(getMass());
         sb.append("\n  Position="); sb.append(getPosition().toString());
         sb.append("\n  Velocity="); sb.append(getVelocity().toString());
         
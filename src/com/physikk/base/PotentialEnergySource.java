@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+/**
+ * Describes an effect with a potential energy, which is tracked by a ConservationMonitor.
+ * The potential energy is cheapest to calculate along with the forces, from the same distances,
+ * so the monitor requests it before a tick and reads it after the tick.
+ * @author Sleepersword
+ */
+public interface PotentialEnergySource 
+{
+    /**
+     * Requests the potential energy to be calculated along with the forces of the next update of all objects.
+     * Until then getPotentialEnergy() returns NaN.
+     */
+    void requestPotentialEnergy();
+    
+    /**
+     * Returns the potential energy calculated by the first update of all objects after the last request.
+     * @return The potential energy in joules or NaN, if it hasn't been calculated yet.
+     */
+    double getPotentialEnergy();
+    
+    /**
+     * Calculates the potential energy of the current positions now, without changing any force.
+     * @return The potential energy in joules.
+     */
+    double computePotentialEnergy();
+}
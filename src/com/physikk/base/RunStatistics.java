@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+import java.util.Locale;
+
+/**
+ * Describes the throughput of a headless run of a SystemManager.
+ * @author Sleepersword
+ */
+public final class RunStatistics 
+{
+    private final long ticks;
+    private final double simulatedSeconds;
+    private final long bodyUpdates;
+    private final long elapsedNanos;
+    
+    public RunStatistics(long ticks, double simulatedSeconds, long bodyUpdates, long elapsedNanos) {
+        this.ticks = ticks;
+        this.simulatedSeconds = simulatedSeconds;
+        this.bodyUpdates = bodyUpdates;
+        this.elapsedNanos = elapsedNanos;
+    }
+    
+    /**
+     * Returns the number of simulated ticks.
+     * @return The number of ticks.
+     */
+    public long getTicks() {
+        return ticks;
+    }
+    
+    /**
+     * Returns the number of object updates, summed over all ticks.
+     * @return The number of object updates.
+     */
+    public long getBodyUpdates() {
+        return bodyUpdates;
+    }
+    
+    /**
+     * Returns the wall time of the run.
+     * @return The wall time in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+    
+    /**
+     * Returns the simulated time of the run.
+     * @return The simulated time in seconds.
+     */
+    public double getSimulatedSeconds() {
+        return simulatedSeconds;
+    }
+    
+    /**
+     * Returns the number of ticks per wall second.
+     * @return The ticks per second.
+     */
+    public double getTicksPerSecond() {
+        return perSecond(ticks);
+    }
+    
+    /**
+     * Returns the number of object updates per wall second.
+     * @return The object updates per second.
+     */
+    public double getBodyUpdatesPerSecond() {
+        return perSecond(bodyUpdates);
+    }
+    
+    private double perSecond(long count) {
+        return elapsedNanos == 0 ? 0 : count * 1e9 / elapsedNanos;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "[RunStatistics] Ticks=%d Time=%.3fs Ticks/s=%.1f BodyUpdates/s=%.1f", 
+                ticks, elapsedNanos / 1e9, getTicksPerSecond(), getBodyUpdatesPerSecond());
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+import java.util.Arrays;
+
+/**
+ * Publishes the state of all objects of a SystemManager every n ticks as a StateSnapshot, 
+ * so renderers, loggers or network threads can read a consistent state while the simulation keeps running.
+ * 
+ * The simulation thread copies the state into a back buffer and swaps it in with a single volatile write;
+ * it never locks and never waits for readers. Buffers are reference counted: the back buffer is always one,
+ * that is neither the latest snapshot nor held by a reader. Three buffers suffice for one reader 
+ * (triple buffering), if more readers hold older snapshots at the same time, another buffer gets allocated.
+ * 
+ * Readers call acquire(), which doesn't lock either, it only retries if a new snapshot was published
+ * between reading the latest one and holding it.
+ * @author Sleepersword
+ */
+public final class SnapshotPublisher implements TickListener
+{
+    private static final int INITIAL_BUFFERS = 3;
+    
+    private final int interval;
+    private StateSnapshot[] buffers = new StateSnapshot[INITIAL_BUFFERS];
+    private volatile StateSnapshot latest;
+    
+    /**
+     * Creates a publisher, which publishes a snapshot after every tick.
+     */
+    public SnapshotPublisher() {
+        this(1);
+    }
+    
+    /**
+     * Creates a publisher.
+     * @param interval A snapshot gets published every interval ticks.
+     */
+    public SnapshotPublisher(int interval) {
+        if(interval < 1) {
+            throw new IllegalArgumentException("The interval has to be at least 1.");
+        }
+        this.interval = interval;
+        for(int i = 0; i < buffers.length; i++) {
+            buffers[i] = new StateSnapshot();
+        }
+    }
+    
+    /// Methods
+    
+    @Override
+    public void tickCompleted(SystemManager manager, long tick) {
+        if(tick % interval == 0) {
+            publish(manager, tick);
+        }
+    }
+    
+    /**
+     * Publishes the current state of the manager, e.g. before it gets started. 
+     * Must not be called while the manager is running on another thread.
+     * @param manager The manager.
+     */
+    public void publish(SystemManager manager) {
+        publish(manager, manager.getTickCount());
+    }
+    
+    /**
+     * Returns the latest snapshot and holds it until it gets closed.
+     * @return The latest snapshot or null, if nothing has been published yet.
+     */
+    public StateSnapshot acquire() {
+        while(true) {
+            StateSnapshot snapshot = latest;
+            if(snapshot == null) {
+                return null;
+            }
+            snapshot.hold();
+            // The publisher may have picked it as back buffer before the hold, so it must still be the latest one
+            if(latest == snapshot) {
+                return snapshot;
+            }
+            snapshot.close();
+        }
+    }
+    
+    /**
+     * Returns the number of the tick of the latest snapshot without holding it.
+     * @return The tick or -1, if nothing has been published yet.
+     */
+    public long getLatestTick() {
+        StateSnapshot snapshot = latest;
+        return snapshot == null ? -1 : snapshot.getTick();
+    }
+    
+    /**
+     * Returns the number of buffers, which is more than three only if readers held many snapshots at once.
+     * @return The number of buffers.
+     */
+    public int getBufferCount() {
+        return buffers.length;
+    }
+    
+    private void publish(SystemManager manager, long tick) {
+        StateSnapshot back = freeBuffer();
+        back.copy(manager, tick);
+        latest = back;
+    }
+    
+    /**
+     * Returns a buffer, which is neither the latest snapshot nor held by a reader.
+     * A reader, which holds the back buffer after this check, sees that it isn't the latest one and lets it go.
+     */
+    private StateSnapshot freeBuffer() {
+        StateSnapshot current = latest;
+        for(StateSnapshot buffer : buffers) {
+            if(buffer != current && !buffer.isHeld()) {
+                return buffer;
+            }
+        }
+        
+        int n = buffers.length;
+        buffers = Arrays.copyOf(buffers, n + 1);
+        buffers[n] = new StateSnapshot();
+        return buffers[n];
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The consistent state of all objects of a SystemManager after one tick, in flat primitive arrays.
+ * Snapshots are handed out by a SnapshotPublisher and reused by it once no reader holds them anymore,
+ * so an acquired snapshot has to be closed, e.g. with try-with-resources. It never changes while it is held.
+ * 
+ * In a BodyStore the index of a body is its dense id, otherwise its index in the object list of the manager.
+ * @author Sleepersword
+ */
+public final class StateSnapshot implements AutoCloseable
+{
+    private final AtomicInteger holders = new AtomicInteger();
+    
+    private long tick;
+    private double time;
+    private int size;
+    private String[] names = new String[0];
+    private double[] posX = new double[0], posY = new double[0], posZ = new double[0];
+    private double[] veloX = new double[0], veloY = new double[0], veloZ = new double[0];
+    private double[] mass = new double[0];
+    
+    StateSnapshot() {
+    }
+    
+    /// Methods
+    
+    /**
+     * Returns the tick this snapshot was taken after.
+     * @return The number of the completed tick.
+     */
+    public long getTick() {
+        return tick;
+    }
+    
+    /**
+     * Returns the simulated time of this snapshot.
+     * @return The simulated time in seconds.
+     */
+    public double getTime() {
+        return time;
+    }
+    
+    /**
+     * Returns the number of objects.
+     * @return The number of objects.
+     */
+    public int size() {
+        return size;
+    }
+    
+    public String getName(int i) { return names[i]; }
+    public double getPositionX(int i) { return posX[i]; }
+    public double getPositionY(int i) { return posY[i]; }
+    public double getPositionZ(int i) { return posZ[i]; }
+    public double getVelocityX(int i) { return veloX[i]; }
+    public double getVelocityY(int i) { return veloY[i]; }
+    public double getVelocityZ(int i) { return veloZ[i]; }
+    public double getMass(int i) { return mass[i]; }
+    
+    /**
+     * Copies the positions of all objects into the given arrays, e.g. for rendering.
+     * @param x The X coordinates, at least size() long.
+     * @param y The Y coordinates, at least size() long.
+     * @param z The Z coordinates, at least size() long.
+     */
+    public void copyPositions(double[] x, double[] y, double[] z) {
+        System.arraycopy(posX, 0, x, 0, size);
+        System.arraycopy(posY, 0, y, 0, size);
+        System.arraycopy(posZ, 0, z, 0, size);
+    }
+    
+    /**
+     * Releases this snapshot, so the publisher may overwrite it. It must not be read afterwards.
+     */
+    @Override
+    public void close() {
+        holders.decrementAndGet();
+    }
+    
+    /// Publisher
+    
+    void hold() {
+        holders.incrementAndGet();
+    }
+    
+    boolean isHeld() {
+        return holders.get() != 0;
+    }
+    
+    /**
+     * Copies the state of all objects of the manager. Only called on the simulation thread.
+     * @param manager The manager.
+     * @param tick The number of the completed tick.
+     */
+    void copy(SystemManager manager, long tick) {
+        this.tick = tick;
+        this.time = tick * manager.getTimeStep();
+        BodyStore store = manager.getBodyStore();
+        int previous = size;
+        
+        if(store != null) {
+            ensureCapacity(store.size);
+            System.arraycopy(store.posX, 0, posX, 0, size);
+            System.arraycopy(store.posY, 0, posY, 0, size);
+            System.arraycopy(store.posZ, 0, posZ, 0, size);
+            System.arraycopy(store.veloX, 0, veloX, 0, size);
+            System.arraycopy(store.veloY, 0, veloY, 0, size);
+            System.arraycopy(store.veloZ, 0, veloZ, 0, size);
+            System.arraycopy(store.mass, 0, mass, 0, size);
+            for(int i = 0; i < size; i++) {
+                names[i] = store.bodies[i].name;
+            }
+        } else {
+            PhysicObject[] objects = manager.objectArray();
+            ensureCapacity(objects.length);
+            for(int i = 0; i < size; i++) {
+                Vector position = objects[i].getPosition(), velocity = objects[i].getVelocity();
+                names[i] = objects[i].name;
+                posX[i] = position.x;
+                posY[i] = position.y;
+                posZ[i] = position.z;
+                veloX[i] = velocity.x;
+                veloY[i] = velocity.y;
+                veloZ[i] = velocity.z;
+                mass[i] = objects[i].getMass();
+            }
+        }
+        
+        // Don't keep the names of removed objects alive
+        for(int i = size; i < previous; i++) {
+            names[i] = null;
+        }
+    }
+    
+    private void ensureCapacity(int n) {
+        size = n;
+        if(posX.length < n) {
+            names = Arrays.copyOf(names, n);
+            posX = new double[n];
+            posY = new double[n];
+            posZ = new double[n];
+            veloX = new double[n];
+            veloY = new double[n];
+            veloZ = new double[n];
+            mass = new double[n];
+        }
+    }
+}
@@ -17,28 +17,173 @@
  */
 package com.physikk.base;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Static class that handles all PhysicObjects and Effects of a closed System.
+ * While the simulation runs, adding and removing objects and effects can be done from any thread:
+ * the changes are queued without locking and applied together at the start of the next tick.
  * @author Sleepersword
  */
 public class SystemManager
 {
+    /**
+     * Describes what the real time loop does, if it can't keep up with the wall clock.
+     */
+    public enum OverloadPolicy 
+    {
+        /**
+         * Ticks that are still missing after a frame are dropped, the simulation continues in real time from now on.
+         */
+        SKIP,
+        /**
+         * Missing ticks are kept, but at most maxTicksPerFrame of them. The simulation runs slower than real time
+         * while overloaded and catches up the kept ticks when the load drops.
+         */
+        SLOW_DOWN
+    }
+    
+    /**
+     * If the next tick is closer than this, the real time loop yields instead of parking,
+     * because parking can overshoot by about this much.
+     */
+    private static final long SPIN_NANOS = 100_000;
+    
     protected HashMap<String, PhysicObject> objects;
     protected HashMap<String, Effect> effects;
+    protected BodyStore store;
+    
+    private final AtomicBoolean isRunning;
+    private volatile Thread runner;
+    private int ticks;
+    private long tickCount;
     
-    private boolean isRunning;
+    private TickPlan plan;
+    private boolean planValid;
+    private TickEngine engine;
+    
+    // The active objects that aren't sleeping (hot set), which the per object phases iterate
+    private PhysicObject[] hot = new PhysicObject[0];
+    private int hotCount;
+    private volatile boolean hotSetValid;
+    // The store ids of the hot set, which an integrator moves, if some objects are frozen
+    private int[] hotIds = new int[0];
+    // Objects to wake up at the next tick, filled by any thread
+    private final MpscQueue<PhysicObject> wakeQueue = new MpscQueue<>();
+    // Changes of the objects and effects to apply at the next tick, filled by any thread
+    private final MpscQueue<Runnable> commands = new MpscQueue<>();
+    // Guards the changes of idle callers, checkpoints and the start and end of a run, while owned the commands are only queued
+    final Object stateLock = new Object();
+    private volatile boolean owned;
+    
+    // Sleeping is disabled, if sleepTicks is 0
+    private double sleepVelocity2;
+    private double sleepForce2;
+    private int sleepTicks;
+    
+    // The per object phases of a tick, created once so a tick doesn't allocate
+    private final TickEngine.RangeTask tickPhase = (from, to) -> {
+        for(int i = from; i < to; i++) hot[i].tick();
+    };
+    private final TickEngine.RangeTask storeIntegrationPhase = (from, to) -> {
+        for(int i = from; i < to; i++) {
+            store.gatherForce(i);
+            store.integrate(i, this.timeStep);
+        }
+    };
+    private final TickEngine.RangeTask hotIntegrationPhase = (from, to) -> {
+        for(int i = from; i < to; i++) {
+            int id = hot[i].storeId;
+            store.gatherForce(id);
+            store.integrate(id, this.timeStep);
+        }
+    };
+    private final TickEngine.RangeTask updatePhase = (from, to) -> {
+        for(int i = from; i < to; i++) hot[i].update(this.timeStep);
+    };
+    
+    // Copied on write, so iterating it every tick doesn't allocate
+    private volatile TickListener[] tickListeners = new TickListener[0];
+    
+    private Integrator integrator;
+    private double timeStep = Utils.SECONDS_PER_TICK;
+    private final ForceEvaluator forceEvaluator = new ForceEvaluator() {
+        @Override
+        public void computeForces() {
+            updateEffects();
+            store.gatherForces();
+        }
+        
+        @Override
+        public void gatherForces() {
+            store.gatherForces();
+        }
+        
+        @Override
+        public void computeForces(int[] active, int count) {
+            TickMetrics m = metrics;
+            if(m != null) m.begin(TickMetrics.Phase.EFFECTS);
+            for(Effect fx : plan().effects) {
+                if(!fx.active) continue;
+                if(m != null) m.beginEffect(fx);
+                fx.updateActive(store, active, count);
+                if(m != null) m.endEffect(fx);
+            }
+            if(m != null) m.end(TickMetrics.Phase.EFFECTS);
+            for(int i = 0; i < count; i++) {
+                store.gatherForce(active[i]);
+            }
+        }
+    };
+    
+    private volatile TickMetrics metrics;
+    
+    private boolean secondUpdates = true;
+    private int maxTicksPerFrame = 5;
+    private OverloadPolicy overloadPolicy = OverloadPolicy.SKIP;
+    private long skippedTicks;
     
     public SystemManager() {
+        this(false);
+    }
+    
+    /**
+     * Creates a new SystemManager.
+     * @param useBodyStore If true, the state of all objects is kept in a BodyStore and
+     * the objects become views onto it.
+     */
+    public SystemManager(boolean useBodyStore) {
         objects = new HashMap<>();
         effects = new HashMap<>();
-        isRunning = false;       
+        store = useBodyStore ? new BodyStore() : null;
+        isRunning = new AtomicBoolean(false);
     }
     
+    /**
+     * Adds a new object or replaces the object with the same name.
+     * While running, the object is added at the start of the next tick.
+     * @param obj The new object.
+     */
     public void addObject(PhysicObject obj) {
-        objects.put(obj.name, obj);
+        mutate(() -> { addObjectNow(obj); });
+    }
+    
+    private void addObjectNow(PhysicObject obj) {
+        obj.sleeping = false;
+        obj.quietTicks = 0;
+        PhysicObject old = objects.put(obj.name, obj);
+        if(store != null) {
+            if(old != null && old != obj) store.remove(old);
+            if(obj.store != store) store.add(obj);
+        }
         obj.setSystemManager(this);
+        planValid = false;
+        effects.values().forEach( (fx) -> { fx.managerObjectsChanged(); } );
+        if(integrator != null) integrator.reset();
     }
     
     public void addObjects(PhysicObject... objs) {
@@ -47,10 +192,262 @@ public class SystemManager
         }
     }
     
+    /**
+     * Removes the given object, if it exists.
+     * While running, the object is removed at the start of the next tick.
+     * @param obj The object to be removed.
+     */
+    public void removeObject(PhysicObject obj) {
+        mutate(() -> { removeObjectNow(obj); });
+    }
+    
+    private void removeObjectNow(PhysicObject obj) {
+        if(objects.get(obj.name) != obj) {
+            return;
+        }
+        objects.remove(obj.name);
+        if(store != null) store.remove(obj);
+        planValid = false;
+        effects.values().forEach( (fx) -> { fx.managerObjectsChanged(); } );
+        if(integrator != null) integrator.reset();
+    }
+    
+    /**
+     * Returns the BodyStore of this manager.
+     * @return The store or null, if the objects store their state by themselves.
+     */
+    public BodyStore getBodyStore() {
+        return store;
+    }
+    
+    /**
+     * Moves the state of all objects into a BodyStore, if it isn't there already.
+     * The objects become views onto the store.
+     */
+    public void enableBodyStore() {
+        if(store != null) {
+            return;
+        }
+        store = new BodyStore(objects.size());
+        objects.values().forEach( (obj) -> { store.add(obj); } );
+        effects.values().forEach( (fx) -> { fx.managerObjectsChanged(); } );
+    }
+    
+    /**
+     * Returns the integrator advancing the objects.
+     * @return The integrator or null, if the built-in semi-implicit euler method is used.
+     */
+    public Integrator getIntegrator() {
+        return integrator;
+    }
+    
+    /**
+     * Sets the integrator advancing the objects. Integrators work on a BodyStore, so it gets enabled.
+     * @param integrator The integrator or null for the built-in semi-implicit euler method.
+     */
+    public void setIntegrator(Integrator integrator) {
+        if(integrator != null) {
+            enableBodyStore();
+            integrator.reset();
+        }
+        this.integrator = integrator;
+    }
+    
+    /**
+     * Returns the simulated time of one tick.
+     * @return The timestep in seconds.
+     */
+    public double getTimeStep() {
+        return timeStep;
+    }
+    
+    /**
+     * Sets the simulated time of one tick. Higher order integrators allow much larger steps.
+     * The real time loop still runs TICKS_PER_SECOND ticks per second.
+     * @param timeStep The timestep in seconds, Utils.SECONDS_PER_TICK by default.
+     */
+    public void setTimeStep(double timeStep) {
+        if(!(timeStep > 0)) {
+            throw new IllegalArgumentException("timeStep must be positive: " + timeStep);
+        }
+        this.timeStep = timeStep;
+    }
+    
+    /**
+     * Returns the number of threads a tick is distributed over.
+     * @return The number of threads, 1 if the ticks run on the calling thread only.
+     */
+    public int getThreadCount() {
+        return engine == null ? 1 : engine.getThreads();
+    }
+    
+    /**
+     * Sets the number of threads a tick is distributed over. The per object phases 
+     * (tick(), summing the forces, integration) are split into one slice of objects per thread,
+     * with a barrier between the phases, so the results are identical to a single thread.
+     * Effects are still updated one after another, per second updates run on the calling thread, 
+     * to keep their output in order. With more than one thread, PhysicObject.tick() must only touch its own object.
+     * @param threads The number of threads, 1 to stop all worker threads.
+     */
+    public void setThreadCount(int threads) {
+        if(threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        if(threads == getThreadCount()) {
+            return;
+        }
+        if(engine != null) {
+            engine.shutdown();
+        }
+        engine = threads > 1 ? new TickEngine(threads) : null;
+    }
+    
+    /**
+     * Starts collecting timing histograms of the phases of every tick and of every effect.
+     * @return The metrics.
+     */
+    public TickMetrics enableMetrics() {
+        TickMetrics m = metrics;
+        if(m == null) {
+            m = new TickMetrics();
+            metrics = m;
+        }
+        return m;
+    }
+    
+    /**
+     * Stops collecting metrics. The collected metrics stay readable, but are no longer updated.
+     */
+    public void disableMetrics() {
+        metrics = null;
+    }
+    
+    /**
+     * Returns the metrics of this manager.
+     * @return The metrics or null, if they are not enabled.
+     */
+    public TickMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Enables or disables the per second updates of all effects and objects and the console output.
+     * Disable them for batch runs, e.g. in an Ensemble, where thousands of managers would print concurrently.
+     * @param enabled If true (the default), updateSecond() is called every TICKS_PER_SECOND ticks.
+     */
+    public void setSecondUpdates(boolean enabled) {
+        this.secondUpdates = enabled;
+    }
+    
+    /**
+     * Lets objects fall asleep, whose speed and total force stayed below the thresholds for the given number of ticks
+     * in a row. Sleeping objects are taken out of the per object phases, so they cost nothing per tick, 
+     * and their velocity is set to zero. They still act on others through the effects and wake up as soon as
+     * a force above the threshold is set on them, a force is removed from them or PhysicObject.wake() is called.
+     * Only the built-in integration puts objects to sleep. An integrator doesn't put objects to sleep, 
+     * but like the built-in integration it only moves the active objects that aren't sleeping.
+     * @param velocityThreshold The maximal speed of a quiet object in meters per second.
+     * @param forceThreshold The maximal total force on a quiet object in newtons.
+     * @param ticks The number of quiet ticks until an object falls asleep.
+     */
+    public void enableSleeping(double velocityThreshold, double forceThreshold, int ticks) {
+        if(ticks < 1) {
+            throw new IllegalArgumentException("ticks must be positive: " + ticks);
+        }
+        this.sleepVelocity2 = velocityThreshold * velocityThreshold;
+        this.sleepForce2 = forceThreshold * forceThreshold;
+        this.sleepTicks = ticks;
+    }
+    
+    /**
+     * Stops putting objects to sleep and wakes up all sleeping objects.
+     */
+    public void disableSleeping() {
+        sleepTicks = 0;
+        for(PhysicObject obj : objects.values()) {
+            obj.quietTicks = 0;
+            obj.wake();
+        }
+    }
+    
+    /**
+     * Returns the number of objects, which were moved by the last tick: the active objects that aren't sleeping.
+     * @return The number of awake objects.
+     */
+    public int getAwakeCount() {
+        return hotCount;
+    }
+    
+    /**
+     * Adds a pipeline stage, which gets called after every tick.
+     * @param listener The listener.
+     */
+    public synchronized void addTickListener(TickListener listener) {
+        TickListener[] listeners = Arrays.copyOf(tickListeners, tickListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        tickListeners = listeners;
+    }
+    
+    /**
+     * Removes the given pipeline stage, if it exists.
+     * @param listener The listener to be removed.
+     */
+    public synchronized void removeTickListener(TickListener listener) {
+        TickListener[] listeners = tickListeners;
+        for(int i = 0; i < listeners.length; i++) {
+            if(listeners[i] == listener) {
+                TickListener[] rest = new TickListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, rest, 0, i);
+                System.arraycopy(listeners, i + 1, rest, i, rest.length - i);
+                tickListeners = rest;
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Adds a new effect or replaces the effect with the same name.
+     * While running, the effect is added at the start of the next tick.
+     * @param fx The new effect.
+     * @param useManagerObjects If true, the effect acts on all objects of this manager.
+     */
     public void addEffect(Effect fx, boolean useManagerObjects) {
+        mutate(() -> { addEffectNow(fx, useManagerObjects); });
+    }
+    
+    private void addEffectNow(Effect fx, boolean useManagerObjects) {
         effects.put(fx.name, fx);
         fx.setSystemManager(this);
         if(useManagerObjects) fx.setObjectsFromSystemManager(objects);
+        else fx.setObjectsFromSystemManager(null);
+        planValid = false;
+        if(integrator != null) integrator.reset();
+    }
+    
+    /**
+     * Removes the given effect, if it exists. The forces it has set stay on the objects.
+     * While running, the effect is removed at the start of the next tick.
+     * @param fx The effect to be removed.
+     */
+    public void removeEffect(Effect fx) {
+        mutate(() -> { removeEffectNow(fx); });
+    }
+    
+    private void removeEffectNow(Effect fx) {
+        if(effects.get(fx.name) != fx) {
+            return;
+        }
+        effects.remove(fx.name);
+        planValid = false;
+        if(integrator != null) integrator.reset();
+    }
+    
+    /**
+     * Returns all effects of this manager, in no particular order.
+     * @return A copy of the effects.
+     */
+    public Effect[] getEffects() {
+        return effects.values().toArray(new Effect[0]);
     }
     
     public void addEffects(boolean useManagerObjects, Effect... fxs) {
@@ -59,51 +456,517 @@ public class SystemManager
         }
     }
     
+    /**
+     * Runs the simulation in real time on the calling thread, until stop() gets called.
+     */
     public void start() {
-        if(isRunning) {
+        if(!acquire()) {
             return;
         }
-        isRunning = true;
-        run();
+        runner = Thread.currentThread();
+        try {
+            run();
+        } finally {
+            runner = null;
+            release();
+        }
+    }
+    
+    /**
+     * Runs the simulation in real time on a new thread, until stop() gets called.
+     * @return The thread running the simulation, or null if this manager is already running.
+     */
+    public Thread startAsync() {
+        if(!acquire()) {
+            return null;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                run();
+            } finally {
+                runner = null;
+                release();
+            }
+        }, "Physikk-SystemManager");
+        runner = thread;
+        thread.start();
+        return thread;
     }
     
+    /**
+     * Stops the simulation after the current tick. Can be called from any thread.
+     */
     public void stop() {
-        if(!isRunning) {
+        if(!isRunning.get()) {
             return;
         }
-        isRunning = false;
+        isRunning.set(false);
+        Thread thread = runner;
+        if(thread != null) LockSupport.unpark(thread);
+    }
+    
+    /**
+     * Waits until a simulation started by startAsync() has stopped.
+     * @param timeout The maximum time to wait.
+     * @param unit The unit of the timeout.
+     * @return True if the simulation has stopped.
+     * @throws InterruptedException If the calling thread was interrupted.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        Thread thread = runner;
+        if(thread != null && thread != Thread.currentThread()) {
+            thread.join(Math.max(1, unit.toMillis(timeout)));
+        }
+        return !isRunning.get();
+    }
+    
+    /**
+     * Returns true if the simulation is running.
+     * @return Whether is running.
+     */
+    public boolean isRunning() {
+        return isRunning.get();
+    }
+    
+    /**
+     * Sets how many ticks the real time loop may simulate in a row to catch up with the wall clock.
+     * @param maxTicksPerFrame The maximum number of ticks per frame, at least 1.
+     */
+    public void setMaxTicksPerFrame(int maxTicksPerFrame) {
+        if(maxTicksPerFrame < 1) {
+            throw new IllegalArgumentException("maxTicksPerFrame must be positive: " + maxTicksPerFrame);
+        }
+        this.maxTicksPerFrame = maxTicksPerFrame;
+    }
+    
+    /**
+     * Sets what the real time loop does, if it can't keep up with the wall clock.
+     * @param overloadPolicy The policy.
+     */
+    public void setOverloadPolicy(OverloadPolicy overloadPolicy) {
+        this.overloadPolicy = overloadPolicy;
+    }
+    
+    /**
+     * Returns the number of ticks the real time loop has dropped or postponed, because it couldn't keep up.
+     * @return The number of skipped ticks.
+     */
+    public long getSkippedTicks() {
+        return skippedTicks;
+    }
+    
+    /**
+     * Replaces the empty object map by restored objects, which already live in the BodyStore.
+     * Gets called by Checkpoint.read().
+     */
+    @SuppressWarnings("unchecked")
+    final void restoreObjects(HashMap<String, PhysicObject> restored, long restoredTickCount, double restoredTimeStep) {
+        objects = restored;
+        objects.values().forEach( (obj) -> { obj.setSystemManager(this); } );
+        for(Effect fx : effects.values()) {
+            if(fx.usesManagerObjects()) fx.setObjectsFromSystemManager(objects);
+        }
+        planValid = false;
+        if(integrator != null) integrator.reset();
+        
+        tickCount = restoredTickCount;
+        ticks = (int)(restoredTickCount % Utils.TICKS_PER_SECOND);
+        timeStep = restoredTimeStep;
+    }
+    
+    /**
+     * Returns the number of ticks simulated by this manager so far.
+     * @return The number of ticks.
+     */
+    public long getTickCount() {
+        return tickCount;
+    }
+    
+    /**
+     * Simulates the given number of ticks as fast as possible, without waiting for the wall clock.
+     * Every tick is the same as in real time mode.
+     * @param n The number of ticks.
+     * @return The throughput of this run.
+     */
+    public RunStatistics runTicks(long n) {
+        if(!acquire()) {
+            throw new IllegalStateException("The SystemManager is already running.");
+        }
+        
+        long bodyUpdates = 0;
+        long startTime = System.nanoTime();
+        try {
+            for(long i = 0; i < n; i++) {
+                tick();
+                bodyUpdates += hotCount;
+            }
+        } finally {
+            release();
+        }
+        
+        return new RunStatistics(n, n * timeStep, bodyUpdates, System.nanoTime() - startTime);
+    }
+    
+    /**
+     * Simulates the given time as fast as possible, without waiting for the wall clock.
+     * @param simulatedSeconds The simulated time in seconds, rounded to whole ticks.
+     * @return The throughput of this run.
+     */
+    public RunStatistics runFor(double simulatedSeconds) {
+        return runTicks(Math.round(simulatedSeconds / timeStep));
+    }
+        
+    /**
+     * Runs a per object phase on the TickEngine or on the calling thread.
+     * Listeners may use it between ticks, too.
+     */
+    void forEachObject(int n, TickEngine.RangeTask task) {
+        if(engine != null) {
+            engine.parallelFor(n, task);
+        } else {
+            task.run(0, n);
+        }
+    }
+    
+    /**
+     * Returns the compiled plan of the current effects and objects, which is only recompiled
+     * if objects or effects were added or removed.
+     */
+    private TickPlan plan() {
+        if(!planValid) {
+            plan = new TickPlan(effects.values(), objects.values());
+            planValid = true;
+            hotSetValid = false;
+        }
+        return plan;
+    }
+    
+    /**
+     * Returns all objects as an array, grouped by their class.
+     */
+    PhysicObject[] objectArray() {
+        return plan().objects;
+    }
+    
+    /**
+     * Returns all effects as an array, in the order they are updated.
+     */
+    Effect[] effectArray() {
+        return plan().effects;
+    }
+    
+    /// Commands
+    
+    /**
+     * Applies a change of the objects or effects now, or queues it for the start of the next tick, if a run owns them.
+     * Idle callers apply their changes one at a time under the state lock, so they never race each other or the start
+     * of a run. While running, changes are only queued without locking and the simulation thread applies them.
+     * Commands that are still queued when the simulation stops are applied by the next change or start.
+     * @param command The change.
+     */
+    final void mutate(Runnable command) {
+        if(!owned) {
+            synchronized(stateLock) {
+                if(!owned) {
+                    applyCommands();
+                    command.run();
+                    return;
+                }
+            }
+        }
+        commands.offer(command);
+    }
+    
+    /**
+     * Makes sure that no run owns the objects and effects and applies the queued changes, so the caller sees the current state.
+     * Call it while holding the state lock, then no run or change can start until the lock is released.
+     * @throws IllegalStateException If the manager is running or still finishing a run.
+     */
+    final void checkIdle() {
+        if(owned || isRunning.get()) {
+            throw new IllegalStateException("The SystemManager is running.");
+        }
+        applyCommands();
+    }
+    
+    /**
+     * Takes over the objects and effects for a run: applies the queued changes and compiles the plan.
+     * From now on the changes of other threads are queued.
+     * @return False, if the manager is already running or still finishing a run.
+     */
+    private boolean acquire() {
+        synchronized(stateLock) {
+            // A stopped run may still be finishing its last tick
+            if(owned || !isRunning.compareAndSet(false, true)) {
+                return false;
+            }
+            owned = true;
+            applyCommands();
+            plan();
+            return true;
+        }
+    }
+    
+    /**
+     * Hands the objects and effects back to the callers at the end of a run.
+     * The state lock orders the last tick before the changes of the next idle caller.
+     */
+    private void release() {
+        synchronized(stateLock) {
+            owned = false;
+            isRunning.set(false);
+        }
+    }
+    
+    /**
+     * Applies all queued changes in the order they were queued. 
+     * Only called by the thread owning the run or by an idle caller holding the state lock.
+     */
+    private void applyCommands() {
+        Runnable command;
+        while((command = commands.poll()) != null) {
+            command.run();
+        }
+    }
+    
+    /// Hot set
+    
+    /**
+     * Queues a sleeping object to be woken up at the next tick. Gets called by PhysicObject.wake().
+     */
+    final void wake(PhysicObject obj) {
+        wakeQueue.offer(obj);
+    }
+    
+    /**
+     * Lets the hot set be rebuilt at the next tick. Gets called if an object was activated or deactivated.
+     */
+    final void invalidateHotSet() {
+        hotSetValid = false;
     }
+    
+    /**
+     * Returns true if the given total force would wake a sleeping object up.
+     */
+    final boolean exceedsSleepForce(double x, double y, double z) {
+        return x * x + y * y + z * z >= sleepForce2;
+    }
+    
+    /**
+     * Brings the hot set up to date before the per object phases: wakes the queued objects
+     * and rebuilds the set, if objects were added, removed, activated or deactivated.
+     */
+    private void prepareHotSet() {
+        PhysicObject[] all = objectArray();
         
+        PhysicObject woken;
+        while((woken = wakeQueue.poll()) != null) {
+            if(!woken.sleeping) continue;
+            woken.sleeping = false;
+            woken.quietTicks = 0;
+            if(hotSetValid && woken.active && objects.get(woken.name) == woken) hot[hotCount++] = woken;
+        }
+        
+        if(!hotSetValid) {
+            hotSetValid = true;
+            if(hot.length < all.length) {
+                hot = new PhysicObject[all.length];
+            }
+            Arrays.fill(hot, null);
+            hotCount = 0;
+            for(PhysicObject obj : all) {
+                if(obj.active && !obj.sleeping) hot[hotCount++] = obj;
+            }
+        }
+    }
+    
+    /**
+     * Returns the store ids of the hot set in ascending order.
+     */
+    private int[] hotIds() {
+        if(hotIds.length < hotCount) {
+            hotIds = new int[hot.length];
+        }
+        for(int k = 0; k < hotCount; k++) {
+            hotIds[k] = hot[k].storeId;
+        }
+        Arrays.sort(hotIds, 0, hotCount);
+        return hotIds;
+    }
+    
+    /**
+     * Counts the quiet ticks of the objects in the hot set and puts the objects to sleep, which were quiet long enough.
+     */
+    private void updateSleep() {
+        if(sleepTicks == 0) {
+            return;
+        }
+        for(int k = 0; k < hotCount; k++) {
+            PhysicObject obj = hot[k];
+            double vx, vy, vz;
+            if(obj.store != null) {
+                int id = obj.storeId;
+                vx = obj.store.veloX[id];
+                vy = obj.store.veloY[id];
+                vz = obj.store.veloZ[id];
+            } else {
+                vx = obj.velocity.x;
+                vy = obj.velocity.y;
+                vz = obj.velocity.z;
+            }
+            
+            if(vx * vx + vy * vy + vz * vz >= sleepVelocity2 || exceedsSleepForce(obj.totalX, obj.totalY, obj.totalZ)) {
+                obj.quietTicks = 0;
+                continue;
+            }
+            if(++obj.quietTicks < sleepTicks) {
+                continue;
+            }
+            
+            obj.sleeping = true;
+            if(obj.store != null) {
+                int id = obj.storeId;
+                obj.store.veloX[id] = 0;
+                obj.store.veloY[id] = 0;
+                obj.store.veloZ[id] = 0;
+            } else {
+                obj.velocity.set(0, 0, 0);
+            }
+            hot[k--] = hot[--hotCount];
+            hot[hotCount] = null;
+        }
+    }
+    
+    /**
+     * The real time loop. Parks the thread between ticks and catches up at most
+     * maxTicksPerFrame ticks in a row, if it fell behind.
+     */
     protected void run() {
-        long initialTime = System.currentTimeMillis();
-        long currentTime;
-        double delta = 0.0;
-        int ticks = 0;
+        final long period = (long)Utils.NANOSECONDS_PER_TICK;
+        long nextTick = System.nanoTime() + period;
         
-        while(isRunning) {
-            currentTime = System.currentTimeMillis();
-            delta += (currentTime - initialTime) / (Utils.SECONDS_PER_TICK * 1000);
-            initialTime = currentTime;
-                     
-            if(delta >= 1) {
-                //Update here  
-                effects.values().forEach( (fx) -> { fx.update(); } );
-                objects.values().forEach( (obj) -> { obj.update(); } );
-                //
-                delta--;
-                ticks++;
-            }
-                  
-            if(ticks == Utils.TICKS_PER_SECOND) {
-                //Update here  
-                effects.values().forEach( (fx) -> { fx.updateSecond(); } );
-                objects.values().forEach( (obj) -> { obj.updateSecond(); } );
-                //
-                ticks = 0;
-                System.out.println("-----------------------------------------------------------------");
+        while(isRunning.get()) {
+            long now = System.nanoTime();
+            long remaining = nextTick - now;
+            
+            if(remaining > 0) {
+                if(remaining > SPIN_NANOS) {
+                    LockSupport.parkNanos(this, remaining - SPIN_NANOS);
+                } else {
+                    Thread.yield();
+                }
+                continue;
             }
             
+            int frameTicks = 0;
+            while(now - nextTick >= 0 && frameTicks < maxTicksPerFrame && isRunning.get()) {
+                tick();
+                nextTick += period;
+                frameTicks++;
+            }
+            
+            long behind = (System.nanoTime() - nextTick) / period;
+            if(behind > 0) {
+                if(overloadPolicy == OverloadPolicy.SKIP) {
+                    skippedTicks += behind;
+                    nextTick += behind * period;
+                } else if(behind > maxTicksPerFrame) {
+                    skippedTicks += behind - maxTicksPerFrame;
+                    nextTick += (behind - maxTicksPerFrame) * period;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Simulates one tick: Updates all active effects, then all objects of the hot set and calls the 
+     * per second updates every TICKS_PER_SECOND ticks.
+     * With an integrator, the integrator decides when the effects are updated.
+     */
+    protected void tick() {
+        if(!commands.isEmpty()) {
+            applyCommands();
+        }
+        TickMetrics m = metrics;
+        if(m != null) m.beginTick(tickCount + 1);
+        
+        //Update here  
+        if(integrator != null) {
+            if(m != null) m.begin(TickMetrics.Phase.OBJECTS);
+            prepareHotSet();
+            forEachObject(hotCount, tickPhase);
+            store.setMovingIds(hotCount == store.size() ? null : hotIds(), hotCount);
+            integrator.step(store, forceEvaluator, timeStep);
+            store.setMovingIds(null, 0);
+            if(m != null) m.end(TickMetrics.Phase.OBJECTS);
+        } else if(store != null) {
+            updateEffects();
+            if(m != null) m.begin(TickMetrics.Phase.OBJECTS);
+            prepareHotSet();
+            forEachObject(hotCount, tickPhase);
+            // Without frozen objects the store is integrated in id order
+            forEachObject(hotCount, hotCount == store.size() ? storeIntegrationPhase : hotIntegrationPhase);
+            updateSleep();
+            if(m != null) m.end(TickMetrics.Phase.OBJECTS);
+        } else {
+            updateEffects();
+            if(m != null) m.begin(TickMetrics.Phase.OBJECTS);
+            prepareHotSet();
+            forEachObject(hotCount, updatePhase);
+            updateSleep();
+            if(m != null) m.end(TickMetrics.Phase.OBJECTS);
+        }
+        //
+        ticks++;
+        tickCount++;
+        
+        if(m != null) m.begin(TickMetrics.Phase.LISTENERS);
+        for(TickListener listener : tickListeners) {
+            listener.tickCompleted(this, tickCount);
+        }
+        if(m != null) m.end(TickMetrics.Phase.LISTENERS);
+        
+        if(ticks == Utils.TICKS_PER_SECOND && secondUpdates) {
+            if(m != null) m.begin(TickMetrics.Phase.SECOND_UPDATE);
+            //Update here  
+            TickPlan p = plan();
+            for(Effect fx : p.effects) {
+                if(fx.active) fx.updateSecond();
+            }
+            for(PhysicObject obj : p.objects) {
+                if(obj.active) obj.updateSecond();
+            }
+            //
+            ticks = 0;
+            System.out.println("-----------------------------------------------------------------");
+            if(m != null) m.end(TickMetrics.Phase.SECOND_UPDATE);
+        } else if(ticks == Utils.TICKS_PER_SECOND) {
+            ticks = 0;
+        }
+        
+        if(m != null) m.endTick();
+    }
+    
+    /**
+     * Updates all active effects, timing each of them if metrics are enabled.
+     */
+    private void updateEffects() {
+        TickMetrics m = metrics;
+        Effect[] fxs = plan().effects;
+        if(m == null) {
+            for(Effect fx : fxs) {
+                if(fx.active) fx.update();
+            }
+            return;
+        }
+        m.begin(TickMetrics.Phase.EFFECTS);
+        for(Effect fx : fxs) {
+            if(!fx.active) continue;
+            m.beginEffect(fx);
+            fx.update();
+            m.endEffect(fx);
         }
+        m.end(TickMetrics.Phase.EFFECTS);
     }
     
 }
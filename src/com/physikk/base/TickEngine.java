@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the phases of a tick on a fixed number of threads, with a barrier at the end of every phase.
+ * The calling thread always takes part as the first worker. Ranges are split statically into
+ * one contiguous slice per thread, so every element is always handled by the same code in the same way
+ * and the results are identical to a serial loop.
+ * @author Sleepersword
+ */
+public final class TickEngine 
+{
+    /**
+     * Describes the work of a phase on the elements [from, to).
+     */
+    public interface RangeTask 
+    {
+        void run(int from, int to);
+    }
+    
+    private final int threads;
+    private final Phaser phaser;
+    private final Thread[] workers;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    
+    private volatile RangeTask task;
+    private volatile int size;
+    private volatile boolean shutdown;
+    
+    /**
+     * Creates a new engine and starts threads - 1 worker threads.
+     * @param threads The number of threads, including the calling one.
+     */
+    public TickEngine(int threads) {
+        if(threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.threads = threads;
+        this.phaser = new Phaser(threads);
+        this.workers = new Thread[threads - 1];
+        
+        for(int w = 1; w < threads; w++) {
+            int index = w;
+            Thread worker = new Thread(() -> { work(index); }, "Physikk-TickEngine-" + w);
+            worker.setDaemon(true);
+            workers[w - 1] = worker;
+            worker.start();
+        }
+    }
+    
+    /**
+     * Returns the number of threads, including the calling one.
+     * @return The number of threads.
+     */
+    public int getThreads() {
+        return threads;
+    }
+    
+    /**
+     * Runs the task on all threads and returns, when all of them are done.
+     * Must only be called by one thread at a time.
+     * @param n The number of elements.
+     * @param task The task for a range of elements.
+     */
+    public void parallelFor(int n, RangeTask task) {
+        if(threads == 1 || n < threads) {
+            task.run(0, n);
+            return;
+        }
+        if(shutdown) {
+            throw new IllegalStateException("The TickEngine has been shut down.");
+        }
+        
+        this.task = task;
+        this.size = n;
+        phaser.arriveAndAwaitAdvance();     // start
+        try {
+            runSlice(0);
+        } catch(Throwable t) {
+            failure.compareAndSet(null, t);
+        }
+        phaser.arriveAndAwaitAdvance();     // barrier
+        this.task = null;
+        
+        Throwable t = failure.getAndSet(null);
+        if(t != null) {
+            throw new IllegalStateException("A phase of the tick failed.", t);
+        }
+    }
+    
+    /**
+     * Stops all worker threads.
+     */
+    public void shutdown() {
+        if(shutdown) {
+            return;
+        }
+        shutdown = true;
+        if(threads > 1) {
+            phaser.arriveAndAwaitAdvance();
+        }
+    }
+    
+    private void work(int index) {
+        while(true) {
+            phaser.arriveAndAwaitAdvance();
+            if(shutdown) {
+                phaser.arriveAndDeregister();
+                return;
+            }
+            try {
+                runSlice(index);
+            } catch(Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+            phaser.arriveAndAwaitAdvance();
+        }
+    }
+    
+    private void runSlice(int index) {
+        int n = size;
+        int from = (int)((long)n * index / threads);
+        int to = (int)((long)n * (index + 1) / threads);
+        if(from < to) {
+            task.run(from, to);
+        }
+    }
+}
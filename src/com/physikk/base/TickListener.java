@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+/**
+ * Describes a pipeline stage that gets called by a SystemManager after every tick.
+ * @author Sleepersword
+ */
+public interface TickListener 
+{
+    /**
+     * Gets called on the simulation thread after a tick has been completed.
+     * The state of all objects is consistent until this method returns.
+     * @param manager The manager.
+     * @param tick The number of the completed tick, starting at 1.
+     */
+    void tickCompleted(SystemManager manager, long tick);
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Collects timing histograms of the phases of every tick and of every effect update of a SystemManager,
+ * counts ticks that exceed the tick budget of Utils.NANOSECONDS_PER_TICK and samples the bytes 
+ * the simulation thread allocates per tick. 
+ * The metrics can be read through this class, through JMX after registerMBean(), 
+ * and every phase is emitted as a "com.physikk.TickPhase" event if a JFR recording is running.
+ * The JFR events are compiled from src-jfr/ on Java 11+, without them the metrics are only available through JMX.
+ * Recording doesn't allocate, unless JFR records the phase events.
+ * @author Sleepersword
+ */
+public final class TickMetrics implements TickMetricsMXBean
+{
+    /**
+     * The measured phases of a tick. With an integrator, OBJECTS contains the integrator step
+     * and therefore the effect updates, which are measured in EFFECTS as well.
+     */
+    public enum Phase 
+    {
+        TICK, EFFECTS, OBJECTS, LISTENERS, SECOND_UPDATE
+    }
+    
+    private static final Phase[] PHASES = Phase.values();
+    private static final String JFR_EVENTS = "com.physikk.base.JfrPhaseEvents";
+    private static final PhaseEvents JFR = loadPhaseEvents();
+    
+    private final EnumMap<Phase, TimingHistogram> phases = new EnumMap<>(Phase.class);
+    private final ConcurrentHashMap<String, TimingHistogram> effects = new ConcurrentHashMap<>();
+    private final TimingHistogram allocations = new TimingHistogram();
+    private final long[] phaseStart = new long[PHASES.length];
+    private final Object[] phaseEvents = new Object[PHASES.length];
+    
+    private volatile long overruns;
+    private volatile double allocationRate;
+    private long tick;
+    private long effectStart;
+    private Object effectEvent;
+    private long tickAllocation;
+    private long windowStart;
+    private long windowAllocation;
+    private ObjectName objectName;
+    
+    TickMetrics() {
+        for(Phase phase : PHASES) {
+            phases.put(phase, new TimingHistogram());
+        }
+        windowStart = System.nanoTime();
+        windowAllocation = Allocations.currentThread();
+    }
+    
+    /// Recording, called by the SystemManager on the simulation thread
+    
+    void beginTick(long tick) {
+        this.tick = tick;
+        tickAllocation = Allocations.currentThread();
+        begin(Phase.TICK);
+    }
+    
+    void endTick() {
+        long duration = end(Phase.TICK);
+        if(duration > Utils.NANOSECONDS_PER_TICK) {
+            overruns++;
+        }
+        
+        if(Allocations.SUPPORTED) {
+            long allocated = Allocations.currentThread();
+            allocations.record(allocated - tickAllocation);
+            
+            long now = System.nanoTime();
+            if(now - windowStart >= 1_000_000_000L) {
+                allocationRate = (allocated - windowAllocation) * 1e9 / (now - windowStart);
+                windowStart = now;
+                windowAllocation = allocated;
+            }
+        }
+    }
+    
+    void begin(Phase phase) {
+        if(JFR != null) {
+            phaseEvents[phase.ordinal()] = JFR.begin(phase.name(), null, tick);
+        }
+        phaseStart[phase.ordinal()] = System.nanoTime();
+    }
+    
+    long end(Phase phase) {
+        long duration = System.nanoTime() - phaseStart[phase.ordinal()];
+        phases.get(phase).record(duration);
+        if(JFR != null) {
+            commit(phaseEvents, phase.ordinal());
+        }
+        return duration;
+    }
+    
+    void beginEffect(Effect<?> fx) {
+        if(JFR != null) {
+            effectEvent = JFR.begin("EFFECT", fx.name, tick);
+        }
+        effectStart = System.nanoTime();
+    }
+    
+    void endEffect(Effect<?> fx) {
+        long duration = System.nanoTime() - effectStart;
+        TimingHistogram h = effects.get(fx.name);
+        if(h == null) {
+            h = effects.computeIfAbsent(fx.name, (name) -> new TimingHistogram());
+        }
+        h.record(duration);
+        if(JFR != null && effectEvent != null) {
+            JFR.commit(effectEvent);
+            effectEvent = null;
+        }
+    }
+    
+    private static void commit(Object[] events, int i) {
+        if(events[i] != null) {
+            JFR.commit(events[i]);
+            events[i] = null;
+        }
+    }
+    
+    /// Metrics API
+    
+    /**
+     * Returns the histogram of the durations of the given phase in nanoseconds. 
+     * The histogram is live, use copy() for a consistent snapshot.
+     * @param phase The phase.
+     * @return The histogram.
+     */
+    public TimingHistogram getPhaseTimes(Phase phase) {
+        return phases.get(phase);
+    }
+    
+    /**
+     * Returns copies of the histograms of the update durations of every effect by name, in nanoseconds.
+     * @return The histograms.
+     */
+    public Map<String, TimingHistogram> getEffectHistograms() {
+        HashMap<String, TimingHistogram> copies = new HashMap<>();
+        effects.forEach( (name, h) -> { copies.put(name, h.copy()); } );
+        return copies;
+    }
+    
+    /**
+     * Returns the histogram of the bytes allocated by the simulation thread per tick.
+     * Allocations of the worker threads of a multi-threaded tick aren't included.
+     * @return The histogram, empty if allocation tracking isn't supported by the JVM.
+     */
+    public TimingHistogram getAllocationHistogram() {
+        return allocations;
+    }
+    
+    @Override
+    public long getTicks() {
+        return phases.get(Phase.TICK).getCount();
+    }
+    
+    /**
+     * Returns the number of ticks that took longer than Utils.NANOSECONDS_PER_TICK.
+     * @return The number of overruns.
+     */
+    @Override
+    public long getOverruns() {
+        return overruns;
+    }
+    
+    @Override
+    public TimingHistogram.Summary getTickTime() {
+        return phases.get(Phase.TICK).summarize();
+    }
+    
+    @Override
+    public TimingHistogram.Summary getEffectsTime() {
+        return phases.get(Phase.EFFECTS).summarize();
+    }
+    
+    @Override
+    public TimingHistogram.Summary getObjectsTime() {
+        return phases.get(Phase.OBJECTS).summarize();
+    }
+    
+    @Override
+    public TimingHistogram.Summary getListenersTime() {
+        return phases.get(Phase.LISTENERS).summarize();
+    }
+    
+    @Override
+    public TimingHistogram.Summary getSecondUpdateTime() {
+        return phases.get(Phase.SECOND_UPDATE).summarize();
+    }
+    
+    @Override
+    public Map<String, TimingHistogram.Summary> getEffectTimes() {
+        HashMap<String, TimingHistogram.Summary> summaries = new HashMap<>();
+        effects.forEach( (name, h) -> { summaries.put(name, h.summarize()); } );
+        return summaries;
+    }
+    
+    @Override
+    public boolean isAllocationTrackingSupported() {
+        return Allocations.SUPPORTED;
+    }
+    
+    /**
+     * Returns the allocation rate of the simulation thread in bytes per second, measured over the last second of ticks.
+     * @return The rate, 0 before the first second or if allocation tracking isn't supported.
+     */
+    @Override
+    public double getAllocationRate() {
+        return allocationRate;
+    }
+    
+    @Override
+    public TimingHistogram.Summary getAllocatedBytesPerTick() {
+        return allocations.summarize();
+    }
+    
+    /**
+     * Removes all recorded values. Values recorded concurrently may get lost.
+     */
+    @Override
+    public void reset() {
+        phases.values().forEach( (h) -> { h.reset(); } );
+        effects.values().forEach( (h) -> { h.reset(); } );
+        allocations.reset();
+        overruns = 0;
+    }
+    
+    /// JMX
+    
+    /**
+     * Registers the metrics at the platform MBean server as "com.physikk:type=TickMetrics,name=&lt;name&gt;".
+     * @param name The name of the simulation.
+     * @return The object name.
+     * @throws JMException If the registration fails, e.g. because the name is taken.
+     */
+    public synchronized ObjectName registerMBean(String name) throws JMException {
+        unregisterMBean();
+        ObjectName on = new ObjectName("com.physikk:type=TickMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+        objectName = on;
+        return on;
+    }
+    
+    /**
+     * Unregisters the metrics from the platform MBean server, if they are registered.
+     * @throws JMException If the unregistration fails.
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if(objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if(server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            objectName = null;
+        }
+    }
+    
+    /// Helpers
+    
+    /**
+     * Loads the JFR events, which are compiled separately for Java 11+ (see build.xml).
+     * Returns null if the class, the module or the Java version is missing.
+     */
+    private static PhaseEvents loadPhaseEvents() {
+        try {
+            return (PhaseEvents)Class.forName(JFR_EVENTS).getDeclaredConstructor().newInstance();
+        } catch(ReflectiveOperationException | LinkageError | RuntimeException ex) {
+            return null;
+        }
+    }
+    
+    /**
+     * Reads the allocated bytes of the current thread through the HotSpot specific ThreadMXBean.
+     */
+    private static final class Allocations
+    {
+        static final com.sun.management.ThreadMXBean BEAN = bean();
+        static final boolean SUPPORTED = BEAN != null;
+        
+        static long currentThread() {
+            return SUPPORTED ? BEAN.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+        }
+        
+        private static com.sun.management.ThreadMXBean bean() {
+            try {
+                java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+                if(bean instanceof com.sun.management.ThreadMXBean) {
+                    com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean)bean;
+                    if(hotspot.isThreadAllocatedMemorySupported()) {
+                        hotspot.setThreadAllocatedMemoryEnabled(true);
+                        return hotspot;
+                    }
+                }
+            } catch(LinkageError | UnsupportedOperationException | SecurityException ex) {
+                // Not a HotSpot JVM
+            }
+            return null;
+        }
+    }
+}
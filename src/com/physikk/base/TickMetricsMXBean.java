@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+import java.util.Map;
+
+/**
+ * The JMX view of the TickMetrics of a SystemManager. Times are in nanoseconds.
+ * @author Sleepersword
+ */
+public interface TickMetricsMXBean 
+{
+    long getTicks();
+    long getOverruns();
+    
+    TimingHistogram.Summary getTickTime();
+    TimingHistogram.Summary getEffectsTime();
+    TimingHistogram.Summary getObjectsTime();
+    TimingHistogram.Summary getListenersTime();
+    TimingHistogram.Summary getSecondUpdateTime();
+    Map<String, TimingHistogram.Summary> getEffectTimes();
+    
+    boolean isAllocationTrackingSupported();
+    double getAllocationRate();
+    TimingHistogram.Summary getAllocatedBytesPerTick();
+    
+    void reset();
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * The effects and objects of a SystemManager frozen into dense arrays, so a tick doesn't iterate the maps.
+ * The objects are grouped by their concrete class. The virtual calls of the per object phases (tick(), update()) 
+ * then hit the same target for long runs, which keeps the type profiles and branch predictions of the call sites hot,
+ * instead of jumping between classes in hash order.
+ * A plan is compiled when the manager starts and again only after objects or effects were added or removed.
+ * @author Sleepersword
+ */
+final class TickPlan 
+{
+    final Effect[] effects;
+    final PhysicObject[] objects;
+    
+    /**
+     * Compiles a plan.
+     * @param effects The effects in the order they are updated.
+     * @param objects The objects.
+     */
+    TickPlan(Collection<Effect> effects, Collection<PhysicObject> objects) {
+        this.effects = effects.toArray(new Effect[effects.size()]);
+        this.objects = objects.toArray(new PhysicObject[objects.size()]);
+        
+        // Group by class, the classes in the order of their first object
+        HashMap<Class<?>, Integer> ranks = new HashMap<>();
+        for(PhysicObject obj : this.objects) {
+            ranks.putIfAbsent(obj.getClass(), ranks.size());
+        }
+        if(ranks.size() > 1) {
+            Arrays.sort(this.objects, (a, b) -> Integer.compare(ranks.get(a.getClass()), ranks.get(b.getClass())));
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+import java.util.Arrays;
+
+/**
+ * A log-linear histogram of non-negative long values (e.g. nanoseconds or bytes), like a HdrHistogram
+ * with 2 significant digits: values below 64 are counted exactly, larger values in 32 buckets per power of two,
+ * so the relative error of a percentile is at most about 3%. The buckets have a fixed size, recording doesn't allocate.
+ * Values are recorded by one thread and can be read by any thread.
+ * @author Sleepersword
+ */
+public final class TimingHistogram 
+{
+    /**
+     * An immutable summary of a histogram, exposed as composite data through JMX.
+     */
+    public static final class Summary
+    {
+        private final long count, min, max, p50, p90, p99, p999;
+        private final double mean;
+        
+        Summary(TimingHistogram h) {
+            synchronized(h) {
+                count = h.count;
+                mean = h.getMean();
+                min = h.getMin();
+                max = h.max;
+                p50 = h.getValueAtPercentile(50);
+                p90 = h.getValueAtPercentile(90);
+                p99 = h.getValueAtPercentile(99);
+                p999 = h.getValueAtPercentile(99.9);
+            }
+        }
+        
+        public long getCount() { return count; }
+        public double getMean() { return mean; }
+        public long getMin() { return min; }
+        public long getMax() { return max; }
+        public long getP50() { return p50; }
+        public long getP90() { return p90; }
+        public long getP99() { return p99; }
+        public long getP999() { return p999; }
+        
+        @Override
+        public String toString() {
+            return "n=" + count + " mean=" + (long)mean + " min=" + min + " p50=" + p50 + " p90=" + p90 
+                    + " p99=" + p99 + " p99.9=" + p999 + " max=" + max;
+        }
+    }
+    
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int LINEAR = 2 * SUB_COUNT;
+    private static final int BUCKETS = (62 - SUB_BITS) * SUB_COUNT + LINEAR;
+    
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    
+    /// Methods
+    
+    /**
+     * Records a value, negative values are recorded as 0.
+     * @param value The value.
+     */
+    public synchronized void record(long value) {
+        if(value < 0) {
+            value = 0;
+        }
+        counts[index(value)]++;
+        count++;
+        sum += value;
+        if(value < min) min = value;
+        if(value > max) max = value;
+    }
+    
+    public synchronized long getCount() {
+        return count;
+    }
+    
+    public synchronized double getMean() {
+        return count == 0 ? 0 : (double)sum / count;
+    }
+    
+    public synchronized long getMin() {
+        return count == 0 ? 0 : min;
+    }
+    
+    public synchronized long getMax() {
+        return max;
+    }
+    
+    /**
+     * Returns the value below or at which the given percentage of all recorded values lies.
+     * The result is the upper bound of the bucket, but never more than the maximum.
+     * @param percentile The percentile in [0, 100].
+     * @return The value, 0 if nothing has been recorded.
+     */
+    public synchronized long getValueAtPercentile(double percentile) {
+        if(count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(Math.min(100, Math.max(0, percentile)) / 100.0 * count));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if(seen >= rank) {
+                return Math.min(max, upperBound(i));
+            }
+        }
+        return max;
+    }
+    
+    /**
+     * Returns an immutable summary of the current state.
+     * @return The summary.
+     */
+    public Summary summarize() {
+        return new Summary(this);
+    }
+    
+    /**
+     * Returns a copy of the current state.
+     * @return The copy.
+     */
+    public synchronized TimingHistogram copy() {
+        TimingHistogram h = new TimingHistogram();
+        System.arraycopy(counts, 0, h.counts, 0, BUCKETS);
+        h.count = count;
+        h.sum = sum;
+        h.min = min;
+        h.max = max;
+        return h;
+    }
+    
+    /**
+     * Removes all recorded values.
+     */
+    public synchronized void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+    
+    @Override
+    public String toString() {
+        return summarize().toString();
+    }
+    
+    /// Buckets
+    
+    private static int index(long value) {
+        if(value < LINEAR) {
+            return (int)value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int)(value >>> (exponent - SUB_BITS));
+        return (exponent - SUB_BITS) * SUB_COUNT + sub;
+    }
+    
+    private static long upperBound(int index) {
+        if(index < LINEAR) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long sub = index % SUB_COUNT + SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+import static com.physikk.base.TrajectoryRecorder.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the frames of a file written by a TrajectoryRecorder, from the oldest to the newest frame.
+ * The file is mapped read only, so the frames are decoded directly from the page cache.
+ * The reader sees the frames that were recorded when it was opened.
+ * @author Sleepersword
+ */
+public final class TrajectoryReader implements Closeable
+{
+    /**
+     * The state of all bodies at one recorded tick. The arrays are reused by the next call of next().
+     * The ids are the ids of the objects (PhysicObject.getId()), so a body can be followed across frames 
+     * even if the order of the records changes.
+     */
+    public static final class Frame
+    {
+        private long tick;
+        private int size;
+        private boolean topologyChanged;
+        private int[] ids = new int[0];
+        private double[] posX = new double[0], posY = new double[0], posZ = new double[0];
+        private double[] veloX = new double[0], veloY = new double[0], veloZ = new double[0];
+        
+        public long getTick() { return tick; }
+        public int size() { return size; }
+        public int[] getIds() { return ids; }
+        
+        /**
+         * Returns whether the bodies of this frame may differ from the previous frame in number or order.
+         * This is always true for the first frame that is read.
+         * @return True, if an index of this frame may refer to another body than in the previous frame.
+         */
+        public boolean isTopologyChanged() { return topologyChanged; }
+        
+        public double[] getPositionX() { return posX; }
+        public double[] getPositionY() { return posY; }
+        public double[] getPositionZ() { return posZ; }
+        public double[] getVelocityX() { return veloX; }
+        public double[] getVelocityY() { return veloY; }
+        public double[] getVelocityZ() { return veloZ; }
+        
+        /**
+         * Returns the position of the body at the given index of this frame.
+         * @param i The index in [0, size()).
+         * @return A new vector.
+         */
+        public Vector getPosition(int i) {
+            return new Vector(posX[i], posY[i], posZ[i]);
+        }
+        
+        /**
+         * Returns the velocity of the body at the given index of this frame.
+         * @param i The index in [0, size()).
+         * @return A new vector.
+         */
+        public Vector getVelocity(int i) {
+            return new Vector(veloX[i], veloY[i], veloZ[i]);
+        }
+        
+        private void ensureCapacity(int n) {
+            size = n;
+            if(ids.length < n) {
+                ids = new int[n];
+                posX = new double[n];
+                posY = new double[n];
+                posZ = new double[n];
+                veloX = new double[n];
+                veloY = new double[n];
+                veloZ = new double[n];
+            }
+        }
+    }
+    
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long capacity;
+    private final long writePosition;
+    private final long frameCount;
+    private final long totalFrames;
+    private long position;
+    private long framesRead;
+    
+    /**
+     * Opens a trajectory file.
+     * @param file The file.
+     * @throws IOException If the file can't be read or isn't a trajectory.
+     */
+    public TrajectoryReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if(channel.size() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION 
+                    || buffer.getInt(8) != RECORD_SIZE || buffer.getInt(12) != FRAME_HEADER_SIZE) {
+                throw new IOException("Not a Physikk trajectory: " + file);
+            }
+            capacity = buffer.getLong(16);
+            writePosition = buffer.getLong(WRITE_POSITION);
+            position = buffer.getLong(OLDEST_POSITION);
+            frameCount = buffer.getLong(FRAME_COUNT);
+            totalFrames = buffer.getLong(TOTAL_FRAMES);
+        } catch(IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+    
+    /// Methods
+    
+    /**
+     * Returns the number of frames in the file.
+     * @return The number of frames.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+    
+    /**
+     * Returns the number of frames that have been recorded, including the ones overwritten in the ring.
+     * @return The number of frames.
+     */
+    public long getRecordedFrames() {
+        return totalFrames;
+    }
+    
+    /**
+     * Returns whether there is another frame.
+     * @return True, if next() will return a frame.
+     */
+    public boolean hasNext() {
+        return framesRead < frameCount;
+    }
+    
+    /**
+     * Reads the next frame.
+     * @param frame The frame to be filled, or null to create a new one.
+     * @return The filled frame, or null if there are no more frames.
+     */
+    public Frame next(Frame frame) {
+        if(!hasNext()) {
+            return null;
+        }
+        
+        long offset = position % capacity;
+        long remaining = capacity - offset;
+        if(remaining < FRAME_HEADER_SIZE || buffer.getLong(HEADER_SIZE + (int)offset) == WRAP_MARKER) {
+            position += remaining;
+            offset = 0;
+        }
+        if(position >= writePosition) {
+            throw new IllegalStateException("The trajectory file is corrupt.");
+        }
+        
+        if(frame == null) {
+            frame = new Frame();
+        }
+        int p = HEADER_SIZE + (int)offset;
+        frame.tick = buffer.getLong(p);
+        frame.ensureCapacity(buffer.getInt(p + 8));
+        frame.topologyChanged = framesRead == 0 || (buffer.getInt(p + 12) & FLAG_TOPOLOGY_CHANGED) != 0;
+        p += FRAME_HEADER_SIZE;
+        for(int i = 0; i < frame.size; i++, p += RECORD_SIZE) {
+            frame.ids[i] = buffer.getInt(p);
+            frame.posX[i] = buffer.getDouble(p + 8);
+            frame.posY[i] = buffer.getDouble(p + 16);
+            frame.posZ[i] = buffer.getDouble(p + 24);
+            frame.veloX[i] = buffer.getDouble(p + 32);
+            frame.veloY[i] = buffer.getDouble(p + 40);
+            frame.veloZ[i] = buffer.getDouble(p + 48);
+        }
+        
+        position += FRAME_HEADER_SIZE + (long)RECORD_SIZE * frame.size;
+        framesRead++;
+        return frame;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
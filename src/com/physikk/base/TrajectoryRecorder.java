@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the positions and velocities of all objects of a SystemManager every n ticks 
+ * into a memory mapped ring file, which can be read with a TrajectoryReader.
+ * 
+ * The simulation thread only copies the state into a staging frame; encoding the records 
+ * and flushing the file to disk happens on a background thread. If the background thread
+ * falls behind by more than a few frames, the simulation thread waits for it, so no frame is lost.
+ * When the ring is full, the oldest frames are overwritten.
+ * 
+ * Layout (little endian):
+ * header (64 bytes): magic, version, record size, frame header size, capacity of the ring, 
+ * write position, position of the oldest frame, number of frames in the ring, number of recorded frames,
+ * ring: frames of a header (tick, body count, flags) followed by one fixed size record per body 
+ * (id, reserved, position x/y/z, velocity x/y/z). Positions are logical byte offsets, 
+ * the offset in the ring is the position modulo the capacity. A frame never wraps around the end of the ring,
+ * the rest of the ring gets skipped instead (marked by a frame with tick -1, if there is room for it).
+ * 
+ * The id of a record is the id of the object (PhysicObject.getId()), which stays the same for the lifetime 
+ * of the object. The order of the records can change whenever objects are added or removed, 
+ * so a frame whose bodies differ from the previous frame in number or order has the flag FLAG_TOPOLOGY_CHANGED set.
+ * The first frame that is written is always marked.
+ * @author Sleepersword
+ */
+public final class TrajectoryRecorder implements TickListener, Closeable
+{
+    static final int MAGIC = 0x50485954;    // "PHYT"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 64;
+    static final int FRAME_HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 56;
+    static final long WRAP_MARKER = -1;
+    static final int FLAG_TOPOLOGY_CHANGED = 1;
+    
+    static final int WRITE_POSITION = 24;
+    static final int OLDEST_POSITION = 32;
+    static final int FRAME_COUNT = 40;
+    static final int TOTAL_FRAMES = 48;
+    
+    private static final int STAGED_FRAMES = 3;
+    
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long capacity;
+    private final int interval;
+    private final long flushNanos;
+    
+    private final ArrayBlockingQueue<Frame> free = new ArrayBlockingQueue<>(STAGED_FRAMES);
+    private final ArrayBlockingQueue<Frame> pending = new ArrayBlockingQueue<>(STAGED_FRAMES + 1);
+    private final Thread writer;
+    private volatile Throwable failure;
+    private boolean closed;
+    
+    private long writePosition;
+    private long oldestPosition;
+    private long frameCount;
+    private long totalFrames;
+    
+    // The ids of the last written frame, only used by the background thread
+    private int[] lastIds = new int[0];
+    private int lastSize = -1;
+    
+    /**
+     * Creates a recorder, which flushes the file to disk every second.
+     * @param file The file, it gets replaced.
+     * @param capacity The size of the ring in bytes.
+     * @param interval A frame gets recorded every interval ticks.
+     * @throws IOException If the file can't be created.
+     */
+    public TrajectoryRecorder(Path file, long capacity, int interval) throws IOException {
+        this(file, capacity, interval, 1000);
+    }
+    
+    /**
+     * Creates a recorder.
+     * @param file The file, it gets replaced.
+     * @param capacity The size of the ring in bytes, at most 2 GiB minus the header.
+     * @param interval A frame gets recorded every interval ticks.
+     * @param flushMillis The interval in milliseconds in which the file is flushed to disk.
+     * @throws IOException If the file can't be created.
+     */
+    public TrajectoryRecorder(Path file, long capacity, int interval, long flushMillis) throws IOException {
+        if(capacity < FRAME_HEADER_SIZE + RECORD_SIZE || capacity > Integer.MAX_VALUE - HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        if(interval < 1) {
+            throw new IllegalArgumentException("The interval has to be at least 1.");
+        }
+        this.capacity = capacity;
+        this.interval = interval;
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushMillis));
+        
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, 
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, RECORD_SIZE).putInt(12, FRAME_HEADER_SIZE);
+        buffer.putLong(16, capacity);
+        writeHeader();
+        
+        for(int i = 0; i < STAGED_FRAMES; i++) {
+            free.add(new Frame());
+        }
+        writer = new Thread(this::writeLoop, "Physikk trajectory writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    /// Methods
+    
+    /**
+     * Records a frame every interval ticks. 
+     */
+    @Override
+    public void tickCompleted(SystemManager manager, long tick) {
+        if(tick % interval != 0) {
+            return;
+        }
+        checkFailure();
+        if(closed) {
+            throw new IllegalStateException("The recorder is closed.");
+        }
+        
+        Frame frame;
+        try {
+            frame = free.take();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        frame.copy(manager, tick);
+        pending.add(frame);
+    }
+    
+    /**
+     * Returns the number of frames that have been written to the file so far.
+     * @return The number of frames.
+     */
+    public synchronized long getRecordedFrames() {
+        return totalFrames;
+    }
+    
+    /**
+     * Writes all staged frames, flushes the file and stops the background thread.
+     * @throws IOException If writing the file failed.
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        pending.add(Frame.END);
+        try {
+            writer.join();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing the trajectory recorder.");
+        } finally {
+            channel.close();
+        }
+        
+        if(failure != null) {
+            throw new IOException("Writing the trajectory failed.", failure);
+        }
+    }
+    
+    /// Background thread
+    
+    private void writeLoop() {
+        try {
+            long lastFlush = System.nanoTime();
+            boolean dirty = false;
+            while(true) {
+                long wait = dirty ? flushNanos - (System.nanoTime() - lastFlush) : Long.MAX_VALUE;
+                Frame frame = wait > 0 ? pending.poll(wait, TimeUnit.NANOSECONDS) : pending.poll();
+                
+                if(frame == Frame.END) {
+                    break;
+                }
+                if(frame != null) {
+                    write(frame);
+                    free.add(frame);
+                    dirty = true;
+                }
+                if(dirty && System.nanoTime() - lastFlush >= flushNanos) {
+                    buffer.force();
+                    lastFlush = System.nanoTime();
+                    dirty = false;
+                }
+            }
+            buffer.force();
+        } catch(Throwable t) {
+            failure = t;
+            // Unblock the simulation thread
+            free.clear();
+            for(int i = 0; i < STAGED_FRAMES; i++) {
+                free.offer(new Frame());
+            }
+        }
+    }
+    
+    private synchronized void write(Frame frame) {
+        long size = FRAME_HEADER_SIZE + (long)RECORD_SIZE * frame.size;
+        if(size > capacity) {
+            throw new IllegalStateException("A frame of " + frame.size + " bodies exceeds the capacity of the ring.");
+        }
+        
+        // Frames never wrap around, skip the rest of the ring if necessary
+        long offset = writePosition % capacity;
+        long remaining = capacity - offset;
+        if(size > remaining) {
+            makeRoom(remaining);
+            if(remaining >= FRAME_HEADER_SIZE) {
+                buffer.putLong(HEADER_SIZE + (int)offset, WRAP_MARKER);
+            }
+            writePosition += remaining;
+            offset = 0;
+        }
+        makeRoom(size);
+        
+        int p = HEADER_SIZE + (int)offset;
+        int flags = updateTopology(frame) ? FLAG_TOPOLOGY_CHANGED : 0;
+        buffer.putLong(p, frame.tick).putInt(p + 8, frame.size).putInt(p + 12, flags);
+        p += FRAME_HEADER_SIZE;
+        for(int i = 0; i < frame.size; i++, p += RECORD_SIZE) {
+            buffer.putInt(p, frame.ids[i]).putInt(p + 4, 0);
+            buffer.putDouble(p + 8, frame.posX[i]).putDouble(p + 16, frame.posY[i]).putDouble(p + 24, frame.posZ[i]);
+            buffer.putDouble(p + 32, frame.veloX[i]).putDouble(p + 40, frame.veloY[i]).putDouble(p + 48, frame.veloZ[i]);
+        }
+        
+        writePosition += size;
+        frameCount++;
+        totalFrames++;
+        writeHeader();
+    }
+    
+    /**
+     * Remembers the ids of the frame.
+     * @return True, if the bodies differ from the last written frame in number or order.
+     */
+    private boolean updateTopology(Frame frame) {
+        boolean changed = frame.size != lastSize;
+        if(lastIds.length < frame.size) {
+            lastIds = new int[frame.size];
+        }
+        for(int i = 0; i < frame.size; i++) {
+            if(lastIds[i] != frame.ids[i]) {
+                lastIds[i] = frame.ids[i];
+                changed = true;
+            }
+        }
+        lastSize = frame.size;
+        return changed;
+    }
+    
+    /**
+     * Drops the oldest frames until the given number of bytes fits into the ring.
+     */
+    private void makeRoom(long size) {
+        while(writePosition + size - oldestPosition > capacity) {
+            long offset = oldestPosition % capacity;
+            long remaining = capacity - offset;
+            if(remaining < FRAME_HEADER_SIZE || buffer.getLong(HEADER_SIZE + (int)offset) == WRAP_MARKER) {
+                oldestPosition += remaining;
+            } else {
+                oldestPosition += FRAME_HEADER_SIZE + (long)RECORD_SIZE * buffer.getInt(HEADER_SIZE + (int)offset + 8);
+                frameCount--;
+            }
+        }
+    }
+    
+    private void writeHeader() {
+        buffer.putLong(WRITE_POSITION, writePosition).putLong(OLDEST_POSITION, oldestPosition);
+        buffer.putLong(FRAME_COUNT, frameCount).putLong(TOTAL_FRAMES, totalFrames);
+    }
+    
+    private void checkFailure() {
+        if(failure != null) {
+            throw new IllegalStateException("Writing the trajectory failed.", failure);
+        }
+    }
+    
+    /// Staging
+    
+    private static final class Frame
+    {
+        static final Frame END = new Frame();
+        
+        long tick;
+        int size;
+        int[] ids = new int[0];
+        double[] posX = new double[0], posY = new double[0], posZ = new double[0];
+        double[] veloX = new double[0], veloY = new double[0], veloZ = new double[0];
+        
+        void copy(SystemManager manager, long tick) {
+            this.tick = tick;
+            BodyStore store = manager.getBodyStore();
+            
+            if(store != null) {
+                ensureCapacity(store.size);
+                for(int i = 0; i < size; i++) {
+                    ids[i] = store.bodies[i].getId();
+                }
+                System.arraycopy(store.posX, 0, posX, 0, size);
+                System.arraycopy(store.posY, 0, posY, 0, size);
+                System.arraycopy(store.posZ, 0, posZ, 0, size);
+                System.arraycopy(store.veloX, 0, veloX, 0, size);
+                System.arraycopy(store.veloY, 0, veloY, 0, size);
+                System.arraycopy(store.veloZ, 0, veloZ, 0, size);
+            } else {
+                PhysicObject[] objects = manager.objectArray();
+                ensureCapacity(objects.length);
+                for(int i = 0; i < size; i++) {
+                    Vector position = objects[i].getPosition(), velocity = objects[i].getVelocity();
+                    ids[i] = objects[i].getId();
+                    posX[i] = position.x;
+                    posY[i] = position.y;
+                    posZ[i] = position.z;
+                    veloX[i] = velocity.x;
+                    veloY[i] = velocity.y;
+                    veloZ[i] = velocity.z;
+                }
+            }
+        }
+        
+        private void ensureCapacity(int n) {
+            size = n;
+            if(posX.length < n) {
+                ids = new int[n];
+                posX = new double[n];
+                posY = new double[n];
+                posZ = new double[n];
+                veloX = new double[n];
+                veloY = new double[n];
+                veloZ = new double[n];
+            }
+        }
+    }
+}
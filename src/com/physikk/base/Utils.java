@@ -19,6 +19,7 @@
 package com.physikk.base;
 
 import java.math.BigDecimal;
+import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
@@ -45,7 +46,7 @@ public final class Utils
     /**
      * Defines how many nanoseconds elapse between two tick() method calls.
      */
-    public static final double NANOSECONDS_PER_TICK = 10e9 / (double)TICKS_PER_SECOND;
+    public static final double NANOSECONDS_PER_TICK = 1e9 / (double)TICKS_PER_SECOND;
     
     /**
      * Defines when a double is equal to another one.
@@ -85,6 +86,58 @@ public final class Utils
         return new Vector(x);
     }
     
+    /**
+     * Creates a random vector from the given generator, so seeded runs are reproducible.
+     * @param random The generator.
+     * @param min The minimum of every coordinate.
+     * @param max The maximum of every coordinate (exclusive).
+     * @return The vector.
+     */
+    public static Vector randomVector3D(Random random, double min, double max) {
+        double x = nextDouble(random, min, max);
+        double y = nextDouble(random, min, max);
+        double z = nextDouble(random, min, max);
+        
+        return new Vector(x,y,z);
+    }
+    
+    /**
+     * Creates a random vector in the XY plane from the given generator, so seeded runs are reproducible.
+     * @param random The generator.
+     * @param min The minimum of every coordinate.
+     * @param max The maximum of every coordinate (exclusive).
+     * @return The vector.
+     */
+    public static Vector randomVector2D(Random random, double min, double max) {
+        double x = nextDouble(random, min, max);
+        double y = nextDouble(random, min, max);
+        
+        return new Vector(x,y,0);
+    }
+    
+    /**
+     * Creates a random vector on the X axis from the given generator, so seeded runs are reproducible.
+     * @param random The generator.
+     * @param min The minimum of the coordinate.
+     * @param max The maximum of the coordinate (exclusive).
+     * @return The vector.
+     */
+    public static Vector randomVector1D(Random random, double min, double max) {
+        return new Vector(nextDouble(random, min, max));
+    }
+    
+    /**
+     * Returns a random double in [min, max) from the given generator.
+     * @param random The generator.
+     * @param min The minimum.
+     * @param max The maximum (exclusive).
+     * @return The random double.
+     */
+    public static double nextDouble(Random random, double min, double max) {
+        double r = min + random.nextDouble() * (max - min);
+        return r < max ? r : Math.nextDown(max);
+    }
+    
     public static double round(double value, int numberOfDigits) {
         BigDecimal bd = new BigDecimal(value);
         bd = bd.setScale(numberOfDigits,BigDecimal.ROUND_HALF_UP);
@@ -96,6 +96,14 @@ public class Vector
         this(x, 0, 0);
     }
     
+    /**
+     * Initializes the vector as a copy of the given vector.
+     * @param v The vector to copy.
+     */
+    public Vector(Vector v) {
+        this(v.x, v.y, v.z);
+    }
+    
     // Methods
     
     /**
@@ -113,11 +121,19 @@ public class Vector
      * @return Returns the normalized vector of this vector. If this is the null vector, returns the null vector.
      */
     public Vector getNormalizedVector() {        
-        if( this.equals(Vector.NULLVECTOR()) ) return Vector.NULLVECTOR();
+        if( isZero() ) return Vector.NULLVECTOR();
         
         return this.scale(1/getNorm() );
     }
     
+    /**
+     * Checks if this is the null vector, without allocating.
+     * @return True if all coordinates are 0.
+     */
+    public boolean isZero() {
+        return Utils.equalDoubles(x, 0) && Utils.equalDoubles(y, 0) && Utils.equalDoubles(z, 0);
+    }
+    
     // Overrides
     
     /**
@@ -239,4 +255,79 @@ public class Vector
     public double distance(Vector v) {
         return this.subtract(v).getNorm();
     }    
+    
+    /// In-place operations
+    
+    /**
+     * Sets the coordinates of this vector.
+     * @param x The X coordinate.
+     * @param y The Y coordinate.
+     * @param z The Z coordinate.
+     * @return This vector.
+     */
+    public Vector set(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+    
+    /**
+     * Sets the coordinates of this vector to the ones of the given vector.
+     * @param v The vector to copy.
+     * @return This vector.
+     */
+    public Vector set(Vector v) {
+        return set(v.x, v.y, v.z);
+    }
+    
+    /**
+     * Adds the given vector to this vector without allocating.
+     * @param v The right vector.
+     * @return This vector, now this + v.
+     */
+    public Vector addInPlace(Vector v) {
+        return set(this.x + v.x, this.y + v.y, this.z + v.z);
+    }
+    
+    /**
+     * Subtracts the given vector from this vector without allocating.
+     * @param v The right vector.
+     * @return This vector, now this - v.
+     */
+    public Vector subtractInPlace(Vector v) {
+        return set(this.x - v.x, this.y - v.y, this.z - v.z);
+    }
+    
+    /**
+     * Scales this vector by the given factor without allocating.
+     * @param s The scale factor.
+     * @return This vector, now s * this.
+     */
+    public Vector scaleInPlace(double s) {
+        return set(s*this.x, s*this.y, s*this.z);
+    }
+    
+    /**
+     * Adds the given vector scaled by the given factor to this vector without allocating.
+     * @param v The vector to add.
+     * @param s The scale factor of v.
+     * @return This vector, now this + s * v.
+     */
+    public Vector addScaled(Vector v, double s) {
+        return set(this.x + s*v.x, this.y + s*v.y, this.z + s*v.z);
+    }
+    
+    /**
+     * Calculates the vector product of two vectors and stores it in this vector.
+     * @param v The right vector.
+     * @return This vector, now this x v.
+     */
+    public Vector vectorMultiplyInPlace(Vector v) {
+        double x = this.y*v.z - this.z*v.y;
+        double y = this.z*v.x - this.x*v.z;
+        double z = this.x*v.y - this.y*v.x;
+        
+        return set(x, y, z);
+    }
 }
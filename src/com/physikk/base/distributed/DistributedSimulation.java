@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base.distributed;
+
+import com.physikk.base.BodyStore;
+import com.physikk.base.Effect;
+import com.physikk.base.RunStatistics;
+import com.physikk.base.SystemManager;
+import com.physikk.mechanic.effects.GravitationEffect;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Simulates the gravitating bodies of a SystemManager on several worker processes, which each own a slab of space.
+ * The space is split along the X axis into slabs with the same number of bodies. Every tick each worker receives
+ * the bodies of the other workers closer than the halo width to its slab exactly (ghosts), and the far bodies 
+ * summed up into the monopoles of a grid of cells. Bodies that leave their slab migrate to the new owner.
+ * 
+ * The workers are connected to this coordinator over TCP (star topology), which routes all messages. 
+ * They are either started as local JVMs with the classpath of this JVM, or as threads for testing.
+ * Only the state (mass, position, velocity) of the bodies and the gravitation between them is simulated,
+ * like a GravitationEffect with a SoftenedGravitySolver and the semi-implicit euler integration of a BodyStore.
+ * Other effects, integrators and the tick() of the objects are not distributed, so managers using them are rejected.
+ * @author Sleepersword
+ */
+public final class DistributedSimulation 
+{
+    /**
+     * Describes how the workers are started.
+     */
+    public enum Launch 
+    {
+        /**
+         * Every worker runs in its own JVM on this machine.
+         */
+        PROCESSES,
+        /**
+         * Every worker runs in a thread of this JVM, still connected over TCP.
+         */
+        THREADS
+    }
+    
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int CONNECT_TIMEOUT_MILLIS = 60_000;
+    
+    private final int workers;
+    private Launch launch = Launch.PROCESSES;
+    private double halo;
+    private double softening;
+    private int cells = 4;
+    private List<String> jvmArgs = new ArrayList<>();
+    
+    /**
+     * Creates a distributed simulation.
+     * @param workers The number of workers.
+     * @param halo Bodies closer than this to the slab of a worker are sent to it exactly.
+     */
+    public DistributedSimulation(int workers, double halo) {
+        if(workers < 1) {
+            throw new IllegalArgumentException("workers must be positive: " + workers);
+        }
+        this.workers = workers;
+        this.halo = halo;
+    }
+    
+    /// Configuration
+    
+    public DistributedSimulation setLaunch(Launch launch) {
+        this.launch = launch;
+        return this;
+    }
+    
+    /**
+     * Sets the softening length of the gravitation, 0 by default.
+     * @param softening The softening length in meters.
+     * @return This simulation.
+     */
+    public DistributedSimulation setSoftening(double softening) {
+        this.softening = softening;
+        return this;
+    }
+    
+    /**
+     * Sets the resolution of the summaries of the far bodies, 4 cells per axis by default.
+     * @param cells The number of cells per axis.
+     * @return This simulation.
+     */
+    public DistributedSimulation setCellsPerAxis(int cells) {
+        if(cells < 1) {
+            throw new IllegalArgumentException("cells must be positive: " + cells);
+        }
+        this.cells = cells;
+        return this;
+    }
+    
+    /**
+     * Sets additional arguments for the worker JVMs, e.g. -Xmx8g.
+     * @param args The JVM arguments.
+     * @return This simulation.
+     */
+    public DistributedSimulation setJvmArgs(String... args) {
+        this.jvmArgs = new ArrayList<>(Arrays.asList(args));
+        return this;
+    }
+    
+    /// Methods
+    
+    /**
+     * Distributes the bodies of the manager to the workers, simulates the given number of ticks with the timestep
+     * of the manager and writes the resulting positions and velocities back into the manager.
+     * The manager switches to a BodyStore. The gravitation is calculated with the softening of this simulation,
+     * whatever solver the GravitationEffects of the manager use.
+     * @param manager The manager.
+     * @param ticks The number of ticks.
+     * @return The statistics of the run.
+     * @throws IllegalArgumentException If the manager has other effects than gravitation or an integrator.
+     * @throws IllegalStateException If the manager is running.
+     * @throws IOException If a worker can't be started or the connection to it fails.
+     */
+    public RunStatistics run(SystemManager manager, long ticks) throws IOException {
+        if(manager.isRunning()) {
+            throw new IllegalStateException("The SystemManager is running.");
+        }
+        if(manager.getIntegrator() != null) {
+            throw new IllegalArgumentException("Integrators are not distributed: " + manager.getIntegrator().getClass().getSimpleName());
+        }
+        for(Effect fx : manager.getEffects()) {
+            if(!(fx instanceof GravitationEffect)) {
+                throw new IllegalArgumentException("Only gravitation is distributed, not " + fx.getClass().getSimpleName());
+            }
+        }
+        manager.enableBodyStore();
+        BodyStore store = manager.getBodyStore();
+        int n = store.size();
+        long start = System.nanoTime();
+        
+        double[] bounds = partition(store);
+        ArrayList<Process> processes = new ArrayList<>();
+        ArrayList<Thread> threads = new ArrayList<>();
+        Socket[] sockets = new Socket[workers];
+        
+        try(ServerSocket server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+            launchWorkers(server.getLocalPort(), processes, threads);
+            
+            DataInputStream[] in = new DataInputStream[workers];
+            DataOutputStream[] out = new DataOutputStream[workers];
+            for(int w = 0; w < workers; w++) {
+                try {
+                    sockets[w] = server.accept();
+                } catch(SocketTimeoutException ex) {
+                    throw new IOException("Only " + w + " of " + workers + " workers connected.", ex);
+                }
+                sockets[w].setTcpNoDelay(true);
+                in[w] = new DataInputStream(new BufferedInputStream(sockets[w].getInputStream(), BUFFER_SIZE));
+                out[w] = new DataOutputStream(new BufferedOutputStream(sockets[w].getOutputStream(), BUFFER_SIZE));
+                if(in[w].readInt() != Protocol.MAGIC) {
+                    throw new IOException("A foreign process connected to the coordinator.");
+                }
+            }
+            
+            sendSetup(store, bounds, manager.getTimeStep(), out);
+            Protocol.Sources[] inbox = new Protocol.Sources[workers];
+            Protocol.Bodies[] migrants = new Protocol.Bodies[workers];
+            for(int w = 0; w < workers; w++) {
+                inbox[w] = new Protocol.Sources();
+                migrants[w] = new Protocol.Bodies();
+            }
+            Protocol.Bodies leaving = new Protocol.Bodies();
+            for(long t = 0; t < ticks; t++) {
+                exchange(bounds, in, out, inbox, migrants, leaving);
+            }
+            collect(store, in, out);
+        } finally {
+            for(Socket socket : sockets) {
+                if(socket != null) socket.close();
+            }
+            for(Process process : processes) {
+                process.destroy();
+            }
+        }
+        
+        return new RunStatistics(ticks, ticks * manager.getTimeStep(), ticks * n, System.nanoTime() - start);
+    }
+    
+    /**
+     * Splits the X axis into slabs with about the same number of bodies.
+     * @return The boundaries, slab i is [bounds[i], bounds[i + 1]).
+     */
+    private double[] partition(BodyStore store) {
+        int n = store.size();
+        double[] sorted = Arrays.copyOf(store.getPositionX(), n);
+        Arrays.sort(sorted);
+        
+        double[] bounds = new double[workers + 1];
+        bounds[0] = Double.NEGATIVE_INFINITY;
+        bounds[workers] = Double.POSITIVE_INFINITY;
+        for(int w = 1; w < workers; w++) {
+            int split = (int)((long)n * w / workers);
+            bounds[w] = n == 0 ? w : split == 0 ? sorted[0] : 0.5 * (sorted[split - 1] + sorted[Math.min(split, n - 1)]);
+        }
+        return bounds;
+    }
+    
+    private void launchWorkers(int port, List<Process> processes, List<Thread> threads) throws IOException {
+        String host = InetAddress.getLoopbackAddress().getHostAddress();
+        for(int w = 0; w < workers; w++) {
+            if(launch == Launch.THREADS) {
+                Thread t = new Thread(new Worker(host, port), "Physikk worker " + w);
+                t.setDaemon(true);
+                t.start();
+                threads.add(t);
+                continue;
+            }
+            
+            ArrayList<String> command = new ArrayList<>();
+            command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+            command.addAll(jvmArgs);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(Worker.class.getName());
+            command.add(host);
+            command.add(Integer.toString(port));
+            processes.add(new ProcessBuilder(command).inheritIO().start());
+        }
+    }
+    
+    private void sendSetup(BodyStore store, double[] bounds, double dt, DataOutputStream[] out) throws IOException {
+        Protocol.Bodies[] initial = new Protocol.Bodies[workers];
+        for(int w = 0; w < workers; w++) {
+            initial[w] = new Protocol.Bodies();
+        }
+        double[] x = store.getPositionX(), y = store.getPositionY(), z = store.getPositionZ();
+        double[] vx = store.getVelocityX(), vy = store.getVelocityY(), vz = store.getVelocityZ(), m = store.getMass();
+        for(int i = 0; i < store.size(); i++) {
+            initial[Protocol.slabOf(bounds, x[i])].add(i, m[i], x[i], y[i], z[i], vx[i], vy[i], vz[i]);
+        }
+        
+        for(int w = 0; w < workers; w++) {
+            out[w].writeInt(w);
+            out[w].writeInt(workers);
+            for(double b : bounds) {
+                out[w].writeDouble(b);
+            }
+            out[w].writeDouble(dt);
+            out[w].writeDouble(halo);
+            out[w].writeDouble(softening);
+            out[w].writeInt(cells);
+            initial[w].write(out[w]);
+            out[w].flush();
+        }
+    }
+    
+    /**
+     * Routes the ghosts and summaries of one tick, then the migrating bodies.
+     * The lists of every worker are reused from tick to tick.
+     */
+    private void exchange(double[] bounds, DataInputStream[] in, DataOutputStream[] out, 
+            Protocol.Sources[] inbox, Protocol.Bodies[] migrants, Protocol.Bodies leaving) throws IOException {
+        for(int w = 0; w < workers; w++) {
+            out[w].writeInt(Protocol.TICK);
+            out[w].flush();
+        }
+        
+        for(int w = 0; w < workers; w++) {
+            inbox[w].clear();
+        }
+        for(int s = 0; s < workers; s++) {
+            for(int d = 0; d < workers; d++) {
+                if(d != s) inbox[d].read(in[s]);
+            }
+        }
+        for(int w = 0; w < workers; w++) {
+            inbox[w].write(out[w]);
+            out[w].flush();
+        }
+        
+        for(int w = 0; w < workers; w++) {
+            migrants[w].clear();
+        }
+        for(int s = 0; s < workers; s++) {
+            leaving.clear();
+            leaving.read(in[s]);
+            for(int i = 0; i < leaving.size; i++) {
+                migrants[Protocol.slabOf(bounds, leaving.x[i])].addFrom(leaving, i);
+            }
+        }
+        for(int w = 0; w < workers; w++) {
+            migrants[w].write(out[w]);
+            out[w].flush();
+        }
+    }
+    
+    /**
+     * Finishes the workers and writes the final state of every body back into the store.
+     */
+    private void collect(BodyStore store, DataInputStream[] in, DataOutputStream[] out) throws IOException {
+        for(int w = 0; w < workers; w++) {
+            out[w].writeInt(Protocol.FINISH);
+            out[w].flush();
+        }
+        
+        double[] x = store.getPositionX(), y = store.getPositionY(), z = store.getPositionZ();
+        double[] vx = store.getVelocityX(), vy = store.getVelocityY(), vz = store.getVelocityZ();
+        Protocol.Bodies result = new Protocol.Bodies();
+        for(int w = 0; w < workers; w++) {
+            result.size = 0;
+            result.read(in[w]);
+            for(int k = 0; k < result.size; k++) {
+                int i = (int)result.id[k];
+                x[i] = result.x[k];
+                y[i] = result.y[k];
+                z[i] = result.z[k];
+                vx[i] = result.vx[k];
+                vy[i] = result.vy[k];
+                vz[i] = result.vz[k];
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base.distributed;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The wire format between the coordinator of a DistributedSimulation and its workers.
+ * 
+ * Handshake: worker sends MAGIC, coordinator sends the index and count of the workers, the slab boundaries, 
+ * timestep, halo width, softening, cells per axis and the initial bodies of the worker.
+ * Every tick: coordinator sends TICK, the worker sends one list of pseudo bodies (ghosts and cell summaries) 
+ * for every other worker, the coordinator sends every worker the lists addressed to it.
+ * After integrating, the worker sends the bodies that left its slab, the coordinator routes them to their new owners.
+ * At the end the coordinator sends FINISH and every worker sends all its bodies.
+ * @author Sleepersword
+ */
+final class Protocol 
+{
+    static final int MAGIC = 0x50485944;    // "PHYD"
+    static final int TICK = 1;
+    static final int FINISH = 2;
+    
+    // Override default constructor
+    private Protocol() {}
+    
+    /**
+     * A growable set of bodies in primitive arrays.
+     */
+    static final class Bodies
+    {
+        long[] id = new long[16];
+        double[] m = new double[16];
+        double[] x = new double[16], y = new double[16], z = new double[16];
+        double[] vx = new double[16], vy = new double[16], vz = new double[16];
+        int size;
+        
+        void add(long id, double m, double x, double y, double z, double vx, double vy, double vz) {
+            if(size == this.id.length) {
+                grow(2 * size);
+            }
+            int i = size++;
+            this.id[i] = id;
+            this.m[i] = m;
+            this.x[i] = x;
+            this.y[i] = y;
+            this.z[i] = z;
+            this.vx[i] = vx;
+            this.vy[i] = vy;
+            this.vz[i] = vz;
+        }
+        
+        void addFrom(Bodies b, int i) {
+            add(b.id[i], b.m[i], b.x[i], b.y[i], b.z[i], b.vx[i], b.vy[i], b.vz[i]);
+        }
+        
+        void clear() {
+            size = 0;
+        }
+        
+        /**
+         * Removes the body at the given index by moving the last body into its slot.
+         */
+        void remove(int i) {
+            int last = --size;
+            id[i] = id[last];
+            m[i] = m[last];
+            x[i] = x[last];
+            y[i] = y[last];
+            z[i] = z[last];
+            vx[i] = vx[last];
+            vy[i] = vy[last];
+            vz[i] = vz[last];
+        }
+        
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(size);
+            for(int i = 0; i < size; i++) {
+                out.writeLong(id[i]);
+                out.writeDouble(m[i]);
+                out.writeDouble(x[i]);
+                out.writeDouble(y[i]);
+                out.writeDouble(z[i]);
+                out.writeDouble(vx[i]);
+                out.writeDouble(vy[i]);
+                out.writeDouble(vz[i]);
+            }
+        }
+        
+        /**
+         * Appends the bodies written by write().
+         */
+        void read(DataInputStream in) throws IOException {
+            int count = in.readInt();
+            for(int k = 0; k < count; k++) {
+                add(in.readLong(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), 
+                        in.readDouble(), in.readDouble(), in.readDouble());
+            }
+        }
+        
+        private void grow(int capacity) {
+            id = Arrays.copyOf(id, capacity);
+            m = Arrays.copyOf(m, capacity);
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            z = Arrays.copyOf(z, capacity);
+            vx = Arrays.copyOf(vx, capacity);
+            vy = Arrays.copyOf(vy, capacity);
+            vz = Arrays.copyOf(vz, capacity);
+        }
+    }
+    
+    /**
+     * A growable list of point masses, which only act as gravity sources: ghosts and cell summaries.
+     */
+    static final class Sources
+    {
+        double[] data = new double[64];    // m, x, y, z per source
+        int size;
+        
+        void add(double m, double x, double y, double z) {
+            if(4 * size == data.length) {
+                data = Arrays.copyOf(data, 2 * data.length);
+            }
+            int a = 4 * size++;
+            data[a] = m;
+            data[a + 1] = x;
+            data[a + 2] = y;
+            data[a + 3] = z;
+        }
+        
+        void clear() {
+            size = 0;
+        }
+        
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(size);
+            for(int a = 0; a < 4 * size; a++) {
+                out.writeDouble(data[a]);
+            }
+        }
+        
+        /**
+         * Appends the sources written by write().
+         */
+        void read(DataInputStream in) throws IOException {
+            int count = in.readInt();
+            for(int k = 0; k < count; k++) {
+                add(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+            }
+        }
+    }
+    
+    /**
+     * Returns the index of the slab containing the given X coordinate.
+     * @param bounds The boundaries of the slabs, slab i is [bounds[i], bounds[i + 1]).
+     */
+    static int slabOf(double[] bounds, double x) {
+        int slab = Arrays.binarySearch(bounds, x);
+        if(slab < 0) {
+            slab = -slab - 2;
+        }
+        return Math.max(0, Math.min(bounds.length - 2, slab));
+    }
+}
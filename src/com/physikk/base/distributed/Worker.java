@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base.distributed;
+
+import com.physikk.mechanic.effects.GravitySolver;
+import com.physikk.mechanic.effects.SoftenedGravitySolver;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ * A worker process of a DistributedSimulation. It owns the bodies inside one slab of space [lo, hi) along the X axis.
+ * Every tick it calculates the gravitation on its bodies from its own bodies, the ghost bodies near its slab 
+ * and the cell summaries of the far bodies of the other workers, integrates them with the semi-implicit
+ * euler method like a BodyStore and hands the bodies that left its slab to the coordinator.
+ * 
+ * Started as its own JVM with the arguments host and port of the coordinator.
+ * @author Sleepersword
+ */
+public final class Worker implements Runnable
+{
+    private static final int BUFFER_SIZE = 1 << 16;
+    
+    private final String host;
+    private final int port;
+    
+    private int index;
+    private double[] bounds;
+    private double dt;
+    private double halo;
+    private int cells;
+    private GravitySolver solver;
+    
+    private final Protocol.Bodies bodies = new Protocol.Bodies();
+    private final Protocol.Sources exports = new Protocol.Sources();
+    private final Protocol.Sources imports = new Protocol.Sources();
+    private final Protocol.Bodies leaving = new Protocol.Bodies();
+    
+    // Combined sources of a force evaluation: own bodies first, then the imports
+    private double[] sx = new double[0], sy = new double[0], sz = new double[0], sm = new double[0];
+    private double[] fx = new double[0], fy = new double[0], fz = new double[0];
+    private int[] targets = new int[0];
+    
+    // Cell summaries
+    private double[] cellMass = new double[0], cellX = new double[0], cellY = new double[0], cellZ = new double[0];
+    
+    /**
+     * Creates a worker, which connects to the coordinator when it runs.
+     * @param host The host of the coordinator.
+     * @param port The port of the coordinator.
+     */
+    public Worker(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+    
+    public static void main(String[] args) throws IOException {
+        if(args.length != 2) {
+            System.err.println("Usage: Worker <host> <port>");
+            System.exit(2);
+        }
+        new Worker(args[0], Integer.parseInt(args[1])).serve();
+    }
+    
+    @Override
+    public void run() {
+        try {
+            serve();
+        } catch(IOException ex) {
+            throw new IllegalStateException("Worker failed.", ex);
+        }
+    }
+    
+    /**
+     * Connects to the coordinator and simulates until it sends FINISH.
+     * @throws IOException If the connection fails.
+     */
+    public void serve() throws IOException {
+        try(Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+            
+            out.writeInt(Protocol.MAGIC);
+            out.flush();
+            readSetup(in);
+            
+            while(true) {
+                int command = in.readInt();
+                if(command == Protocol.FINISH) {
+                    bodies.write(out);
+                    out.flush();
+                    return;
+                }
+                if(command != Protocol.TICK) {
+                    throw new IOException("Unknown command: " + command);
+                }
+                tick(in, out);
+            }
+        }
+    }
+    
+    private void readSetup(DataInputStream in) throws IOException {
+        index = in.readInt();
+        int workers = in.readInt();
+        bounds = new double[workers + 1];
+        for(int i = 0; i <= workers; i++) {
+            bounds[i] = in.readDouble();
+        }
+        dt = in.readDouble();
+        halo = in.readDouble();
+        solver = new SoftenedGravitySolver(in.readDouble());
+        cells = in.readInt();
+        bodies.read(in);
+    }
+    
+    /// Tick
+    
+    private void tick(DataInputStream in, DataOutputStream out) throws IOException {
+        // Exchange ghosts and summaries
+        int workers = bounds.length - 1;
+        for(int d = 0; d < workers; d++) {
+            if(d != index) {
+                exportTo(d);
+                exports.write(out);
+            }
+        }
+        out.flush();
+        imports.clear();
+        imports.read(in);
+        
+        computeForces();
+        integrate();
+        
+        // Migrate the bodies that left the slab
+        leaving.clear();
+        for(int i = bodies.size - 1; i >= 0; i--) {
+            if(Protocol.slabOf(bounds, bodies.x[i]) != index) {
+                leaving.addFrom(bodies, i);
+                bodies.remove(i);
+            }
+        }
+        leaving.write(out);
+        out.flush();
+        bodies.read(in);
+    }
+    
+    /**
+     * Collects the pseudo bodies for the given worker: the own bodies closer than the halo width to its slab exactly,
+     * all others summed up into the monopoles (mass and center of mass) of a grid of cells over the own bodies.
+     */
+    private void exportTo(int d) {
+        exports.clear();
+        int n = bodies.size;
+        if(n == 0) {
+            return;
+        }
+        double lo = bounds[d], hi = bounds[d + 1];
+        
+        double minX = Double.POSITIVE_INFINITY, minY = minX, minZ = minX;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = maxX, maxZ = maxX;
+        for(int i = 0; i < n; i++) {
+            minX = Math.min(minX, bodies.x[i]); maxX = Math.max(maxX, bodies.x[i]);
+            minY = Math.min(minY, bodies.y[i]); maxY = Math.max(maxY, bodies.y[i]);
+            minZ = Math.min(minZ, bodies.z[i]); maxZ = Math.max(maxZ, bodies.z[i]);
+        }
+        double scaleX = cells / Math.max(maxX - minX, Double.MIN_NORMAL);
+        double scaleY = cells / Math.max(maxY - minY, Double.MIN_NORMAL);
+        double scaleZ = cells / Math.max(maxZ - minZ, Double.MIN_NORMAL);
+        
+        int cellCount = cells * cells * cells;
+        if(cellMass.length < cellCount) {
+            cellMass = new double[cellCount];
+            cellX = new double[cellCount];
+            cellY = new double[cellCount];
+            cellZ = new double[cellCount];
+        }
+        Arrays.fill(cellMass, 0, cellCount, 0);
+        Arrays.fill(cellX, 0, cellCount, 0);
+        Arrays.fill(cellY, 0, cellCount, 0);
+        Arrays.fill(cellZ, 0, cellCount, 0);
+        
+        for(int i = 0; i < n; i++) {
+            double x = bodies.x[i], y = bodies.y[i], z = bodies.z[i], m = bodies.m[i];
+            double distance = Math.max(0, Math.max(lo - x, x - hi));
+            if(distance < halo) {
+                exports.add(m, x, y, z);
+                continue;
+            }
+            int c = (cell(x - minX, scaleX) * cells + cell(y - minY, scaleY)) * cells + cell(z - minZ, scaleZ);
+            cellMass[c] += m;
+            cellX[c] += m * x;
+            cellY[c] += m * y;
+            cellZ[c] += m * z;
+        }
+        
+        for(int c = 0; c < cellCount; c++) {
+            if(cellMass[c] != 0) {
+                exports.add(cellMass[c], cellX[c] / cellMass[c], cellY[c] / cellMass[c], cellZ[c] / cellMass[c]);
+            }
+        }
+    }
+    
+    private int cell(double offset, double scale) {
+        return Math.min(cells - 1, (int)(offset * scale));
+    }
+    
+    private void computeForces() {
+        int n = bodies.size;
+        int total = n + imports.size;
+        if(sx.length < total) {
+            int capacity = Math.max(total, 2 * sx.length);
+            sx = new double[capacity];
+            sy = new double[capacity];
+            sz = new double[capacity];
+            sm = new double[capacity];
+            fx = new double[capacity];
+            fy = new double[capacity];
+            fz = new double[capacity];
+        }
+        if(targets.length < n) {
+            targets = new int[Math.max(n, 2 * targets.length)];
+            for(int i = 0; i < targets.length; i++) {
+                targets[i] = i;
+            }
+        }
+        
+        System.arraycopy(bodies.x, 0, sx, 0, n);
+        System.arraycopy(bodies.y, 0, sy, 0, n);
+        System.arraycopy(bodies.z, 0, sz, 0, n);
+        System.arraycopy(bodies.m, 0, sm, 0, n);
+        for(int k = 0; k < imports.size; k++) {
+            int a = 4 * k;
+            sm[n + k] = imports.data[a];
+            sx[n + k] = imports.data[a + 1];
+            sy[n + k] = imports.data[a + 2];
+            sz[n + k] = imports.data[a + 3];
+        }
+        solver.computeForces(total, sx, sy, sz, sm, targets, n, fx, fy, fz);
+    }
+    
+    private void integrate() {
+        for(int i = 0; i < bodies.size; i++) {
+            double inverseMass = 1.0 / bodies.m[i];
+            bodies.vx[i] = bodies.vx[i] + dt * (inverseMass * fx[i]);
+            bodies.vy[i] = bodies.vy[i] + dt * (inverseMass * fy[i]);
+            bodies.vz[i] = bodies.vz[i] + dt * (inverseMass * fz[i]);
+            bodies.x[i] = bodies.x[i] + dt * bodies.vx[i];
+            bodies.y[i] = bodies.y[i] + dt * bodies.vy[i];
+            bodies.z[i] = bodies.z[i] + dt * bodies.vz[i];
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base.integrators;
+
+import com.physikk.base.BodyStore;
+import com.physikk.base.ForceEvaluator;
+import com.physikk.base.Integrator;
+import java.util.Arrays;
+
+/**
+ * A kick-drift-kick leapfrog with individual, hierarchical block timesteps.
+ * Every body gets a level k and the timestep dt / 2^k, chosen from its acceleration and velocity:
+ * dt_i = eta * min( sqrt(lengthScale / |a|), |v| / |a| ).
+ * The step of the SystemManager is divided by a grid of dt / 2^maxLevel, but the integrator jumps from one 
+ * end of a body step to the next: all bodies are drifted over the whole interval at once, 
+ * and only the bodies at the end of their own step get new forces and are kicked.
+ * Effects, which implement Effect.updateActive(), only calculate forces for these bodies.
+ * If all bodies are on level 0, a step is a single kick-drift-kick.
+ * The bodies are kept sorted by level, so the bodies ending their step are found without scanning all of them.
+ * A body may only move to a larger step, if the larger step starts at the current substep,
+ * so all bodies are synchronized again at the end of every step.
+ * @author Sleepersword
+ */
+public class BlockTimestepIntegrator implements Integrator
+{
+    public static final double DEFAULT_ETA = 0.02;
+    public static final int DEFAULT_MAX_LEVEL = 8;
+    
+    private final double eta;
+    private final double lengthScale;
+    private final int maxLevel;
+    
+    private int[] level = new int[0];
+    private int[] active = new int[0];
+    // The ids sorted by level, the bodies of level k are order[levelStart[k], levelStart[k + 1])
+    private int[] order = new int[0];
+    private final int[] levelStart;
+    private final int[] cursor;
+    private boolean forcesValid;
+    private long forceEvaluations;
+    
+    /**
+     * Creates a new block timestep integrator with the default parameters and a length scale of 1 m.
+     */
+    public BlockTimestepIntegrator() {
+        this(DEFAULT_ETA, 1.0, DEFAULT_MAX_LEVEL);
+    }
+    
+    /**
+     * Creates a new block timestep integrator.
+     * @param eta The accuracy parameter, smaller values give smaller steps.
+     * @param lengthScale The length in meters for the acceleration criterion, 0 to only use the velocity criterion.
+     * @param maxLevel The deepest level, the smallest step is dt / 2^maxLevel.
+     */
+    public BlockTimestepIntegrator(double eta, double lengthScale, int maxLevel) {
+        if(!(eta > 0) || lengthScale < 0 || maxLevel < 0 || maxLevel > 30) {
+            throw new IllegalArgumentException("Invalid block timestep parameters.");
+        }
+        this.eta = eta;
+        this.lengthScale = lengthScale;
+        this.maxLevel = maxLevel;
+        this.levelStart = new int[maxLevel + 2];
+        this.cursor = new int[maxLevel + 2];
+    }
+    
+    @Override
+    public void step(BodyStore store, ForceEvaluator evaluator, double dt) {
+        int n = store.size();
+        ensureCapacity(n);
+        
+        if(forcesValid) {
+            evaluator.gatherForces();
+        } else {
+            evaluator.computeForces();
+            forceEvaluations += n;
+            for(int i = 0; i < n; i++) {
+                level[i] = chooseLevel(store, i, dt);
+            }
+            forcesValid = true;
+        }
+        
+        // Opening half kick for all moving bodies, they all start a step
+        int[] ids = store.getMovingIds();
+        int moving = store.getMovingCount();
+        for(int k = 0; k < moving; k++) {
+            int i = ids == null ? k : ids[k];
+            active[k] = i;
+            kick(store, i, 0.5 * dt / (1 << level[i]));
+        }
+        sortByLevel(0, moving, 0);
+        
+        // The time is counted in units of the smallest step dt / 2^maxLevel
+        long end = 1L << maxLevel;
+        double unit = dt / end;
+        long time = 0;
+        
+        while(time < end) {
+            // The steps of the deepest level end first, the steps of all other levels end at one of its boundaries
+            long span = end >> deepestLevel();
+            long next = (time / span + 1) * span;
+            Steps.drift(store, (next - time) * unit);
+            time = next;
+            
+            // The steps of level k end now if time is a multiple of 2^(maxLevel - k), these levels are a suffix of order
+            int first = time == end ? 0 : maxLevel - Long.numberOfTrailingZeros(time);
+            int from = levelStart[first];
+            int count = moving - from;
+            if(count == 0) continue;
+            System.arraycopy(order, from, active, 0, count);
+            
+            evaluator.computeForces(active, count);
+            forceEvaluations += count;
+            
+            for(int k = 0; k < count; k++) {
+                int i = active[k];
+                // Closing half kick
+                kick(store, i, 0.5 * dt / (1 << level[i]));
+                
+                int nextLevel = chooseLevel(store, i, dt);
+                // Larger steps must start at a boundary of that step
+                while(nextLevel < level[i] && (time & ((end >> nextLevel) - 1)) != 0) {
+                    nextLevel++;
+                }
+                level[i] = nextLevel;
+                
+                // Opening half kick of the next step, the next SystemManager step opens itself
+                if(time < end) {
+                    kick(store, i, 0.5 * dt / (1 << nextLevel));
+                }
+            }
+            // The new levels are at least first, so only this suffix changes
+            sortByLevel(from, count, first);
+        }
+    }
+    
+    @Override
+    public void reset() {
+        forcesValid = false;
+    }
+    
+    /**
+     * Returns the current level of a body, its timestep is dt / 2^level.
+     * @param id The id of the body in the BodyStore.
+     * @return The level.
+     */
+    public int getLevel(int id) {
+        return level[id];
+    }
+    
+    /**
+     * Returns how many single body force evaluations were done so far.
+     * @return The number of force evaluations.
+     */
+    public long getForceEvaluations() {
+        return forceEvaluations;
+    }
+    
+    private int chooseLevel(BodyStore store, int i, double dt) {
+        double m = store.getMass()[i];
+        double fx = store.getForceX()[i], fy = store.getForceY()[i], fz = store.getForceZ()[i];
+        double vx = store.getVelocityX()[i], vy = store.getVelocityY()[i], vz = store.getVelocityZ()[i];
+        double a = Math.sqrt(fx*fx + fy*fy + fz*fz) / m;
+        double v = Math.sqrt(vx*vx + vy*vy + vz*vz);
+        
+        if(!(a > 0)) return 0;
+        
+        double dtBody = Double.POSITIVE_INFINITY;
+        if(lengthScale > 0) dtBody = eta * Math.sqrt(lengthScale / a);
+        if(v > 0) dtBody = Math.min(dtBody, eta * v / a);
+        if(dtBody >= dt) return 0;
+        
+        int k = (int)Math.ceil(Math.log(dt / dtBody) / Math.log(2));
+        return Math.min(maxLevel, Math.max(0, k));
+    }
+    
+    /**
+     * Sorts the ids active[0, count) by level into order[from, from + count) with a counting sort.
+     * All of them are on levels of at least first, the levels above keep their bodies.
+     */
+    private void sortByLevel(int from, int count, int first) {
+        Arrays.fill(cursor, first, maxLevel + 2, 0);
+        for(int k = 0; k < count; k++) {
+            cursor[level[active[k]] + 1]++;
+        }
+        cursor[first] = from;
+        for(int l = first; l <= maxLevel; l++) {
+            cursor[l + 1] += cursor[l];
+        }
+        System.arraycopy(cursor, first, levelStart, first, maxLevel + 2 - first);
+        for(int k = 0; k < count; k++) {
+            int i = active[k];
+            order[cursor[level[i]]++] = i;
+        }
+    }
+    
+    private int deepestLevel() {
+        for(int l = maxLevel; l > 0; l--) {
+            if(levelStart[l] < levelStart[l + 1]) return l;
+        }
+        return 0;
+    }
+    
+    private static void kick(BodyStore store, int i, double h) {
+        double s = h / store.getMass()[i];
+        store.getVelocityX()[i] += s * store.getForceX()[i];
+        store.getVelocityY()[i] += s * store.getForceY()[i];
+        store.getVelocityZ()[i] += s * store.getForceZ()[i];
+    }
+    
+    private void ensureCapacity(int n) {
+        if(level.length < n) {
+            level = new int[n];
+            active = new int[n];
+            order = new int[n];
+            forcesValid = false;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base.integrators;
+
+import com.physikk.base.BodyStore;
+import com.physikk.base.ForceEvaluator;
+import com.physikk.base.Integrator;
+import java.util.Arrays;
+
+/**
+ * The classical Runge-Kutta method, 4th order but not symplectic. Four force evaluations per step.
+ * Forces may depend on positions and velocities.
+ * @author Sleepersword
+ */
+public class RungeKutta4Integrator implements Integrator
+{
+    // State at the start of the step
+    private double[] x0 = new double[0], y0 = new double[0], z0 = new double[0];
+    private double[] vx0 = new double[0], vy0 = new double[0], vz0 = new double[0];
+    // Weighted sums of the stage derivatives
+    private double[] sumX = new double[0], sumY = new double[0], sumZ = new double[0];
+    private double[] sumVx = new double[0], sumVy = new double[0], sumVz = new double[0];
+    
+    @Override
+    public void step(BodyStore store, ForceEvaluator evaluator, double dt) {
+        int n = store.size();
+        ensureCapacity(n);
+        
+        double[] x = store.getPositionX(), y = store.getPositionY(), z = store.getPositionZ();
+        double[] vx = store.getVelocityX(), vy = store.getVelocityY(), vz = store.getVelocityZ();
+        
+        System.arraycopy(x, 0, x0, 0, n);
+        System.arraycopy(y, 0, y0, 0, n);
+        System.arraycopy(z, 0, z0, 0, n);
+        System.arraycopy(vx, 0, vx0, 0, n);
+        System.arraycopy(vy, 0, vy0, 0, n);
+        System.arraycopy(vz, 0, vz0, 0, n);
+        clearSums(n);
+        
+        // k1 at the start, k2 and k3 at the midpoint, k4 at the end
+        stage(store, evaluator, 1.0, 0.5 * dt);
+        stage(store, evaluator, 2.0, 0.5 * dt);
+        stage(store, evaluator, 2.0, dt);
+        stage(store, evaluator, 1.0, 0.0);
+        
+        int[] ids = store.getMovingIds();
+        double s = dt / 6.0;
+        for(int k = 0; k < store.getMovingCount(); k++) {
+            int i = ids == null ? k : ids[k];
+            x[i] = x0[i] + s * sumX[i];
+            y[i] = y0[i] + s * sumY[i];
+            z[i] = z0[i] + s * sumZ[i];
+            vx[i] = vx0[i] + s * sumVx[i];
+            vy[i] = vy0[i] + s * sumVy[i];
+            vz[i] = vz0[i] + s * sumVz[i];
+        }
+    }
+    
+    @Override
+    public boolean evaluatesForcesFirst() {
+        return true;
+    }
+    
+    /**
+     * Evaluates the derivatives at the current state, adds them with the given weight 
+     * and moves the state to start + h * derivatives for the next stage.
+     */
+    private void stage(BodyStore store, ForceEvaluator evaluator, double weight, double h) {
+        evaluator.computeForces();
+        
+        int[] ids = store.getMovingIds();
+        int n = store.getMovingCount();
+        double[] x = store.getPositionX(), y = store.getPositionY(), z = store.getPositionZ();
+        double[] vx = store.getVelocityX(), vy = store.getVelocityY(), vz = store.getVelocityZ();
+        double[] fx = store.getForceX(), fy = store.getForceY(), fz = store.getForceZ();
+        double[] m = store.getMass();
+        
+        for(int k = 0; k < n; k++) {
+            int i = ids == null ? k : ids[k];
+            double inverseMass = 1.0 / m[i];
+            double ax = inverseMass * fx[i], ay = inverseMass * fy[i], az = inverseMass * fz[i];
+            double kx = vx[i], ky = vy[i], kz = vz[i];
+            
+            sumX[i] += weight * kx;
+            sumY[i] += weight * ky;
+            sumZ[i] += weight * kz;
+            sumVx[i] += weight * ax;
+            sumVy[i] += weight * ay;
+            sumVz[i] += weight * az;
+            
+            x[i] = x0[i] + h * kx;
+            y[i] = y0[i] + h * ky;
+            z[i] = z0[i] + h * kz;
+            vx[i] = vx0[i] + h * ax;
+            vy[i] = vy0[i] + h * ay;
+            vz[i] = vz0[i] + h * az;
+        }
+    }
+    
+    private void clearSums(int n) {
+        Arrays.fill(sumX, 0, n, 0.0);
+        Arrays.fill(sumY, 0, n, 0.0);
+        Arrays.fill(sumZ, 0, n, 0.0);
+        Arrays.fill(sumVx, 0, n, 0.0);
+        Arrays.fill(sumVy, 0, n, 0.0);
+        Arrays.fill(sumVz, 0, n, 0.0);
+    }
+    
+    private void ensureCapacity(int n) {
+        if(x0.length >= n) return;
+        
+        x0 = new double[n]; y0 = new double[n]; z0 = new double[n];
+        vx0 = new double[n]; vy0 = new double[n]; vz0 = new double[n];
+        sumX = new double[n]; sumY = new double[n]; sumZ = new double[n];
+        sumVx = new double[n]; sumVy = new double[n]; sumVz = new double[n];
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base.integrators;
+
+import com.physikk.base.BodyStore;
+import com.physikk.base.ForceEvaluator;
+import com.physikk.base.Integrator;
+
+/**
+ * The semi-implicit (symplectic) euler method, first order. One force evaluation per step.
+ * This is the same method the SystemManager uses without an integrator.
+ * @author Sleepersword
+ */
+public class SemiImplicitEulerIntegrator implements Integrator
+{
+    @Override
+    public void step(BodyStore store, ForceEvaluator evaluator, double dt) {
+        evaluator.computeForces();
+        
+        int[] ids = store.getMovingIds();
+        int n = store.getMovingCount();
+        double[] x = store.getPositionX(), y = store.getPositionY(), z = store.getPositionZ();
+        double[] vx = store.getVelocityX(), vy = store.getVelocityY(), vz = store.getVelocityZ();
+        double[] fx = store.getForceX(), fy = store.getForceY(), fz = store.getForceZ();
+        double[] m = store.getMass();
+        
+        for(int k = 0; k < n; k++) {
+            int i = ids == null ? k : ids[k];
+            double inverseMass = 1.0 / m[i];
+            
+            vx[i] = vx[i] + dt * (inverseMass * fx[i]);
+            vy[i] = vy[i] + dt * (inverseMass * fy[i]);
+            vz[i] = vz[i] + dt * (inverseMass * fz[i]);
+            
+            x[i] = x[i] + dt * vx[i];
+            y[i] = y[i] + dt * vy[i];
+            z[i] = z[i] + dt * vz[i];
+        }
+    }
+    
+    @Override
+    public boolean evaluatesForcesFirst() {
+        return true;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base.integrators;
+
+import com.physikk.base.BodyStore;
+
+/**
+ * Helper methods shared by the integrators, all of them work on the flat arrays of a BodyStore.
+ * @author Sleepersword
+ */
+final class Steps 
+{
+    // Override default constructor
+    private Steps() {}
+    
+    /**
+     * v += dt * F / m for all moving bodies.
+     */
+    static void kick(BodyStore store, double dt) {
+        int[] ids = store.getMovingIds();
+        int n = store.getMovingCount();
+        double[] vx = store.getVelocityX(), vy = store.getVelocityY(), vz = store.getVelocityZ();
+        double[] fx = store.getForceX(), fy = store.getForceY(), fz = store.getForceZ();
+        double[] m = store.getMass();
+        
+        for(int k = 0; k < n; k++) {
+            int i = ids == null ? k : ids[k];
+            double s = dt / m[i];
+            vx[i] += s * fx[i];
+            vy[i] += s * fy[i];
+            vz[i] += s * fz[i];
+        }
+    }
+    
+    /**
+     * x += dt * v for all moving bodies.
+     */
+    static void drift(BodyStore store, double dt) {
+        int[] ids = store.getMovingIds();
+        int n = store.getMovingCount();
+        double[] x = store.getPositionX(), y = store.getPositionY(), z = store.getPositionZ();
+        double[] vx = store.getVelocityX(), vy = store.getVelocityY(), vz = store.getVelocityZ();
+        
+        for(int k = 0; k < n; k++) {
+            int i = ids == null ? k : ids[k];
+            x[i] += dt * vx[i];
+            y[i] += dt * vy[i];
+            z[i] += dt * vz[i];
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base.integrators;
+
+import com.physikk.base.BodyStore;
+import com.physikk.base.ForceEvaluator;
+import com.physikk.base.Integrator;
+
+/**
+ * The velocity verlet method (kick-drift-kick leapfrog), symplectic and second order.
+ * The forces at the end of a step are reused at the start of the next one, 
+ * so it needs only one force evaluation per step.
+ * @author Sleepersword
+ */
+public class VelocityVerletIntegrator implements Integrator
+{
+    private boolean forcesValid;
+    
+    @Override
+    public void step(BodyStore store, ForceEvaluator evaluator, double dt) {
+        if(forcesValid) {
+            evaluator.gatherForces();
+        } else {
+            evaluator.computeForces();
+        }
+        
+        Steps.kick(store, 0.5 * dt);
+        Steps.drift(store, dt);
+        evaluator.computeForces();
+        Steps.kick(store, 0.5 * dt);
+        
+        forcesValid = true;
+    }
+    
+    @Override
+    public void reset() {
+        forcesValid = false;
+    }
+}
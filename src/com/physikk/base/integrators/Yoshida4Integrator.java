@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base.integrators;
+
+import com.physikk.base.BodyStore;
+import com.physikk.base.ForceEvaluator;
+import com.physikk.base.Integrator;
+
+/**
+ * The 4th order symplectic method by Yoshida (1990), built from three drift-kick-drift leapfrog steps.
+ * Three force evaluations per step.
+ * @author Sleepersword
+ */
+public class Yoshida4Integrator implements Integrator
+{
+    private static final double CBRT2 = Math.cbrt(2.0);
+    private static final double W1 = 1.0 / (2.0 - CBRT2);
+    private static final double W0 = -CBRT2 / (2.0 - CBRT2);
+    
+    private static final double C1 = 0.5 * W1, C2 = 0.5 * (W0 + W1);
+    private static final double D1 = W1, D2 = W0;
+    
+    @Override
+    public void step(BodyStore store, ForceEvaluator evaluator, double dt) {
+        Steps.drift(store, C1 * dt);
+        evaluator.computeForces();
+        Steps.kick(store, D1 * dt);
+        
+        Steps.drift(store, C2 * dt);
+        evaluator.computeForces();
+        Steps.kick(store, D2 * dt);
+        
+        Steps.drift(store, C2 * dt);
+        evaluator.computeForces();
+        Steps.kick(store, D1 * dt);
+        
+        Steps.drift(store, C1 * dt);
+    }
+}
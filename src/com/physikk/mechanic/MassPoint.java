@@ -28,11 +28,11 @@ public class MassPoint extends PhysicObject
     public MassPoint(String name, double mass, Vector initialPos, Vector initialVelo, NamedVector... initialForces) {
         super(name, true);
         this.mass = mass;
-        this.position = initialPos;
-        this.velocity = initialVelo;
+        this.position = new Vector(initialPos);
+        this.velocity = new Vector(initialVelo);
         
         for(NamedVector f : initialForces) {
-            this.forces.put(f.name, f);
+            this.setForce(f);
         }
     }
     
@@ -42,7 +42,7 @@ public class MassPoint extends PhysicObject
 
     @Override
     protected void tickSecond() {
-        System.out.println("[" + this.name + "] Position= " + this.position + "\tVelocity= " + this.velocity + "\tTotal Force= " + this.getTotalForce() );
+        System.out.println("[" + this.name + "] Position= " + this.getPosition() + "\tVelocity= " + this.getVelocity() + "\tTotal Force= " + this.getTotalForce() );
     }
     
     @Override
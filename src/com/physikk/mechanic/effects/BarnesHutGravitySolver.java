@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.mechanic.effects;
+
+import com.physikk.base.Utils;
+import java.util.Arrays;
+
+/**
+ * Approximates the gravitation forces with the Barnes-Hut algorithm, O(n log n).
+ * An octree is built every call, distant nodes are replaced by their center of mass
+ * if size / distance is smaller than the opening angle theta. A theta of 0 gives the exact result.
+ * The tree lives in flat arrays, which are reused between calls.
+ * @author Sleepersword
+ */
+public class BarnesHutGravitySolver implements GravitySolver
+{
+    /**
+     * Bodies closer than the cell size at this depth share one leaf and are summed directly.
+     */
+    private static final int MAX_DEPTH = 48;
+    
+    private final double theta;
+    
+    // Nodes
+    private int nodeCount;
+    private double[] centerX = new double[0], centerY = new double[0], centerZ = new double[0];
+    private double[] halfSize = new double[0];
+    private double[] nodeMass = new double[0];
+    private double[] comX = new double[0], comY = new double[0], comZ = new double[0];
+    private int[] parent = new int[0];
+    private int[] children = new int[0];
+    private int[] firstBody = new int[0];
+    private boolean[] leaf = new boolean[0];
+    
+    // Bodies
+    private int[] nextBody = new int[0];
+    private final int[] stack = new int[8 * MAX_DEPTH + 8];
+    
+    /**
+     * Creates a new Barnes-Hut solver.
+     * @param theta The opening angle, usually between 0.3 and 1.0.
+     */
+    public BarnesHutGravitySolver(double theta) {
+        if(theta < 0) {
+            throw new IllegalArgumentException("theta must not be negative: " + theta);
+        }
+        this.theta = theta;
+    }
+    
+    /**
+     * Returns the opening angle.
+     * @return The opening angle theta.
+     */
+    public double getTheta() {
+        return theta;
+    }
+    
+    @Override
+    public void computeForces(int n, double[] x, double[] y, double[] z, double[] m, double[] fx, double[] fy, double[] fz) {
+        if(n == 0) return;
+        
+        buildTree(n, x, y, z, m);
+        
+        for(int i = 0; i < n; i++) {
+            computeForce(i, x, y, z, m, fx, fy, fz, null);
+        }
+    }
+    
+    @Override
+    public void computeForces(int n, double[] x, double[] y, double[] z, double[] m, int[] targets, int targetCount, 
+            double[] fx, double[] fy, double[] fz) {
+        if(n == 0) return;
+        
+        buildTree(n, x, y, z, m);
+        
+        for(int k = 0; k < targetCount; k++) {
+            computeForce(targets[k], x, y, z, m, fx, fy, fz, null);
+        }
+    }
+    
+    /**
+     * Calculates the forces and the potentials with the same tree walk, 
+     * distant nodes contribute the potential of their center of mass.
+     */
+    @Override
+    public void computeForcesAndPotentials(int n, double[] x, double[] y, double[] z, double[] m, 
+            double[] fx, double[] fy, double[] fz, double[] potential) {
+        if(n == 0) return;
+        
+        buildTree(n, x, y, z, m);
+        
+        for(int i = 0; i < n; i++) {
+            computeForce(i, x, y, z, m, fx, fy, fz, potential);
+        }
+    }
+    
+    /**
+     * Calculates the force on body i by walking the tree, and its potential if the array isn't null.
+     */
+    private void computeForce(int i, double[] x, double[] y, double[] z, double[] m, double[] fx, double[] fy, double[] fz, 
+            double[] potential) {
+        double xi = x[i], yi = y[i], zi = z[i];
+        double theta2 = theta * theta;
+        double rx = 0, ry = 0, rz = 0, phi = 0;
+        boolean withPotential = potential != null;
+        
+        int top = 0;
+        stack[top++] = 0;
+        while(top > 0) {
+            int node = stack[--top];
+            
+            if(leaf[node]) {
+                for(int j = firstBody[node]; j != -1; j = nextBody[j]) {
+                    if(j == i) continue;
+                    double lx = x[j] - xi;
+                    double ly = y[j] - yi;
+                    double lz = z[j] - zi;
+                    double norm = Math.sqrt(lx*lx + ly*ly + lz*lz);
+                    double s = m[j] / (norm * norm * norm);
+                    
+                    rx += s * lx;
+                    ry += s * ly;
+                    rz += s * lz;
+                    if(withPotential) phi += m[j] / norm;
+                }
+                continue;
+            }
+            
+            double lx = comX[node] - xi;
+            double ly = comY[node] - yi;
+            double lz = comZ[node] - zi;
+            double dist2 = lx*lx + ly*ly + lz*lz;
+            double size = 2 * halfSize[node];
+            
+            if(size * size < theta2 * dist2 && !contains(node, xi, yi, zi)) {
+                // Far away, use the center of mass
+                double norm = Math.sqrt(dist2);
+                double s = nodeMass[node] / (norm * norm * norm);
+                
+                rx += s * lx;
+                ry += s * ly;
+                rz += s * lz;
+                if(withPotential) phi += nodeMass[node] / norm;
+            } else {
+                int base = node * 8;
+                for(int c = 0; c < 8; c++) {
+                    int child = children[base + c];
+                    if(child != -1) stack[top++] = child;
+                }
+            }
+        }
+        
+        double mainFactor = Utils.GRAVITATIONAL_CONSTANT * m[i];
+        fx[i] = mainFactor * rx;
+        fy[i] = mainFactor * ry;
+        fz[i] = mainFactor * rz;
+        if(withPotential) {
+            potential[i] = -Utils.GRAVITATIONAL_CONSTANT * phi;
+        }
+    }
+    
+    private boolean contains(int node, double px, double py, double pz) {
+        double h = halfSize[node];
+        return Math.abs(px - centerX[node]) <= h && Math.abs(py - centerY[node]) <= h && Math.abs(pz - centerZ[node]) <= h;
+    }
+    
+    /// Tree construction
+    
+    private void buildTree(int n, double[] x, double[] y, double[] z, double[] m) {
+        if(nextBody.length < n) {
+            nextBody = new int[n];
+        }
+        
+        double minX = x[0], maxX = x[0];
+        double minY = y[0], maxY = y[0];
+        double minZ = z[0], maxZ = z[0];
+        for(int i = 1; i < n; i++) {
+            minX = Math.min(minX, x[i]); maxX = Math.max(maxX, x[i]);
+            minY = Math.min(minY, y[i]); maxY = Math.max(maxY, y[i]);
+            minZ = Math.min(minZ, z[i]); maxZ = Math.max(maxZ, z[i]);
+        }
+        double half = 0.5 * Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+        half = half * 1.0001 + Double.MIN_NORMAL;
+        
+        nodeCount = 0;
+        newNode(-1, 0.5 * (minX + maxX), 0.5 * (minY + maxY), 0.5 * (minZ + maxZ), half);
+        
+        for(int i = 0; i < n; i++) {
+            insert(i, x, y, z);
+        }
+        
+        computeMassDistribution(m, x, y, z);
+    }
+    
+    private void insert(int body, double[] x, double[] y, double[] z) {
+        int node = 0;
+        int depth = 0;
+        nextBody[body] = -1;
+        
+        while(true) {
+            if(leaf[node]) {
+                int existing = firstBody[node];
+                if(existing == -1) {
+                    firstBody[node] = body;
+                    return;
+                }
+                if(depth >= MAX_DEPTH) {
+                    nextBody[body] = existing;
+                    firstBody[node] = body;
+                    return;
+                }
+                // Split the leaf and move the existing body one level down
+                leaf[node] = false;
+                firstBody[node] = -1;
+                int child = newChild(node, octant(node, x[existing], y[existing], z[existing]));
+                firstBody[child] = existing;
+            }
+            
+            int octant = octant(node, x[body], y[body], z[body]);
+            int child = children[node * 8 + octant];
+            if(child == -1) {
+                child = newChild(node, octant);
+                firstBody[child] = body;
+                return;
+            }
+            node = child;
+            depth++;
+        }
+    }
+    
+    private int octant(int node, double px, double py, double pz) {
+        int octant = 0;
+        if(px >= centerX[node]) octant |= 1;
+        if(py >= centerY[node]) octant |= 2;
+        if(pz >= centerZ[node]) octant |= 4;
+        return octant;
+    }
+    
+    private int newChild(int node, int octant) {
+        double h = 0.5 * halfSize[node];
+        double cx = centerX[node] + ((octant & 1) != 0 ? h : -h);
+        double cy = centerY[node] + ((octant & 2) != 0 ? h : -h);
+        double cz = centerZ[node] + ((octant & 4) != 0 ? h : -h);
+        
+        int child = newNode(node, cx, cy, cz, h);
+        children[node * 8 + octant] = child;
+        return child;
+    }
+    
+    private int newNode(int parentNode, double cx, double cy, double cz, double half) {
+        if(nodeCount == leaf.length) {
+            growNodes(Math.max(64, nodeCount * 2));
+        }
+        
+        int node = nodeCount++;
+        centerX[node] = cx;
+        centerY[node] = cy;
+        centerZ[node] = cz;
+        halfSize[node] = half;
+        parent[node] = parentNode;
+        firstBody[node] = -1;
+        leaf[node] = true;
+        Arrays.fill(children, node * 8, node * 8 + 8, -1);
+        return node;
+    }
+    
+    /**
+     * Sums mass and center of mass bottom up. Children always have a higher index than their parent.
+     */
+    private void computeMassDistribution(double[] m, double[] x, double[] y, double[] z) {
+        for(int node = 0; node < nodeCount; node++) {
+            double mass = 0, mx = 0, my = 0, mz = 0;
+            if(leaf[node]) {
+                for(int j = firstBody[node]; j != -1; j = nextBody[j]) {
+                    mass += m[j];
+                    mx += m[j] * x[j];
+                    my += m[j] * y[j];
+                    mz += m[j] * z[j];
+                }
+            }
+            nodeMass[node] = mass;
+            comX[node] = mx;
+            comY[node] = my;
+            comZ[node] = mz;
+        }
+        
+        for(int node = nodeCount - 1; node >= 0; node--) {
+            int p = parent[node];
+            if(p != -1) {
+                nodeMass[p] += nodeMass[node];
+                comX[p] += comX[node];
+                comY[p] += comY[node];
+                comZ[p] += comZ[node];
+            }
+            if(nodeMass[node] != 0) {
+                comX[node] /= nodeMass[node];
+                comY[node] /= nodeMass[node];
+                comZ[node] /= nodeMass[node];
+            }
+        }
+    }
+    
+    private void growNodes(int capacity) {
+        centerX = Arrays.copyOf(centerX, capacity);
+        centerY = Arrays.copyOf(centerY, capacity);
+        centerZ = Arrays.copyOf(centerZ, capacity);
+        halfSize = Arrays.copyOf(halfSize, capacity);
+        nodeMass = Arrays.copyOf(nodeMass, capacity);
+        comX = Arrays.copyOf(comX, capacity);
+        comY = Arrays.copyOf(comY, capacity);
+        comZ = Arrays.copyOf(comZ, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        children = Arrays.copyOf(children, capacity * 8);
+        firstBody = Arrays.copyOf(firstBody, capacity);
+        leaf = Arrays.copyOf(leaf, capacity);
+    }
+}
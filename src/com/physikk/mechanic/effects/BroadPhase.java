@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.mechanic.effects;
+
+import java.util.Arrays;
+
+/**
+ * Describes an algorithm that finds the pairs of bodies closer than a given range without testing all n^2 pairs.
+ * All arrays are indexed by body, only the first n entries are used.
+ * Implementations may keep their index between calls and update it incrementally, so bodies should keep their
+ * index from call to call as far as possible.
+ * @author Sleepersword
+ */
+public interface BroadPhase
+{
+    /**
+     * Finds every pair of bodies closer than the range exactly once.
+     * @param n The number of bodies.
+     * @param x The X coordinates of the positions.
+     * @param y The Y coordinates of the positions.
+     * @param z The Z coordinates of the positions.
+     * @param range The maximal distance of a pair.
+     * @param pairs The list receiving the pairs, it gets cleared first.
+     */
+    void findPairs(int n, double[] x, double[] y, double[] z, double range, Pairs pairs);
+    
+    /**
+     * A growable list of index pairs, which is reused from call to call.
+     */
+    final class Pairs 
+    {
+        private int[] first = new int[16], second = new int[16];
+        private int size;
+        
+        public int size() {
+            return size;
+        }
+        
+        public int getFirst(int k) {
+            return first[k];
+        }
+        
+        public int getSecond(int k) {
+            return second[k];
+        }
+        
+        public void add(int i, int j) {
+            if(size == first.length) {
+                first = Arrays.copyOf(first, size * 2);
+                second = Arrays.copyOf(second, size * 2);
+            }
+            first[size] = i;
+            second[size] = j;
+            size++;
+        }
+        
+        public void clear() {
+            size = 0;
+        }
+    }
+}
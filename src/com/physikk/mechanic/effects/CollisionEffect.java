@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.mechanic.effects;
+
+import com.physikk.base.BodyStore;
+import com.physikk.base.Effect;
+import com.physikk.base.ForceChannel;
+import com.physikk.base.PhysicObject;
+import com.physikk.base.Vector;
+import java.util.ArrayList;
+
+/**
+ * Describes contacts between bodies, which are treated as spheres with the same radius.
+ * Overlapping bodies are pushed apart by a penalty force (a spring along the line between their centers,
+ * damped by their approaching speed). Only the pairs found by a BroadPhase are tested, so the cost scales
+ * with the number of close pairs instead of n^2.
+ * @author Sleepersword
+ */
+public class CollisionEffect extends Effect<PhysicObject>
+{
+    /**
+     * The name of the force set by this effect.
+     */
+    public static final String FORCE_NAME = "CollisionForce";
+    
+    private static final int CHANNEL = ForceChannel.register(FORCE_NAME);
+    
+    private final BroadPhase broadPhase;
+    private final BroadPhase.Pairs pairs = new BroadPhase.Pairs();
+    private double radius;
+    private double stiffness;
+    private double damping;
+    private int contacts;
+    
+    // Gathered state, if the objects don't live in a BodyStore
+    private double[] px = new double[0], py = new double[0], pz = new double[0];
+    private double[] vx = new double[0], vy = new double[0], vz = new double[0];
+    // Resulting forces
+    private double[] fx = new double[0], fy = new double[0], fz = new double[0];
+    
+    /**
+     * Creates a new collision effect using a SpatialHashBroadPhase.
+     * @param radius The radius of the bodies in meters.
+     * @param stiffness The force per meter of overlap in newtons per meter.
+     * @param damping The force per approaching speed in newton seconds per meter.
+     * @param initialObjects The attached objects.
+     */
+    public CollisionEffect(double radius, double stiffness, double damping, PhysicObject... initialObjects) {
+        this(new SpatialHashBroadPhase(), radius, stiffness, damping, initialObjects);
+    }
+    
+    /**
+     * Creates a new collision effect with the given broad phase.
+     * @param broadPhase The algorithm finding the close pairs, e.g. a SpatialHashBroadPhase or a SweepAndPruneBroadPhase.
+     * @param radius The radius of the bodies in meters.
+     * @param stiffness The force per meter of overlap in newtons per meter.
+     * @param damping The force per approaching speed in newton seconds per meter.
+     * @param initialObjects The attached objects.
+     */
+    public CollisionEffect(BroadPhase broadPhase, double radius, double stiffness, double damping, PhysicObject... initialObjects) {
+        super("Collision", true);
+        if(!(radius > 0)) {
+            throw new IllegalArgumentException("radius must be positive: " + radius);
+        }
+        this.broadPhase = broadPhase;
+        this.radius = radius;
+        this.stiffness = stiffness;
+        this.damping = damping;
+        
+        for(PhysicObject o : initialObjects) {
+            this.setObject(o);
+        }
+    }
+    
+    public double getRadius() {
+        return radius;
+    }
+    
+    public double getStiffness() {
+        return stiffness;
+    }
+    
+    public double getDamping() {
+        return damping;
+    }
+    
+    /**
+     * Returns the number of overlapping pairs found by the last update.
+     * @return The number of contacts.
+     */
+    public int getContactCount() {
+        return contacts;
+    }
+
+    @Override
+    public void update() {
+        BodyStore store = getBodyStore();
+        if(store != null) {
+            // Scan the flat arrays of the store directly
+            int n = store.size();
+            ensureCapacity(n, false);
+            computeForces(n, store.getPositionX(), store.getPositionY(), store.getPositionZ(), 
+                    store.getVelocityX(), store.getVelocityY(), store.getVelocityZ());
+            
+            for(int i = 0; i < n; i++) {
+                apply(store.get(i), i);
+            }
+            return;
+        }
+        
+        ArrayList<PhysicObject> objects = getObjects();
+        int n = objects.size();
+        ensureCapacity(n, true);
+        
+        for(int i = 0; i < n; i++) {
+            PhysicObject o = objects.get(i);
+            Vector pos = o.getPosition();
+            px[i] = pos.x;
+            py[i] = pos.y;
+            pz[i] = pos.z;
+            Vector velo = o.getVelocity();
+            vx[i] = velo.x;
+            vy[i] = velo.y;
+            vz[i] = velo.z;
+        }
+        
+        computeForces(n, px, py, pz, vx, vy, vz);
+        
+        for(int i = 0; i < n; i++) {
+            apply(objects.get(i), i);
+        }
+    }
+    
+    private void computeForces(int n, double[] x, double[] y, double[] z, double[] vx, double[] vy, double[] vz) {
+        for(int i = 0; i < n; i++) {
+            fx[i] = 0;
+            fy[i] = 0;
+            fz[i] = 0;
+        }
+        
+        double contact = 2 * radius;
+        broadPhase.findPairs(n, x, y, z, contact, pairs);
+        contacts = pairs.size();
+        
+        for(int k = 0; k < contacts; k++) {
+            int i = pairs.getFirst(k), j = pairs.getSecond(k);
+            double dx = x[i] - x[j], dy = y[i] - y[j], dz = z[i] - z[j];
+            double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            if(distance == 0) {
+                // No direction to push into
+                continue;
+            }
+            double nx = dx / distance, ny = dy / distance, nz = dz / distance;
+            
+            // Positive if the bodies move apart
+            double separation = (vx[i] - vx[j]) * nx + (vy[i] - vy[j]) * ny + (vz[i] - vz[j]) * nz;
+            double force = Math.max(0, stiffness * (contact - distance) - damping * separation);
+            
+            fx[i] += force * nx;
+            fy[i] += force * ny;
+            fz[i] += force * nz;
+            fx[j] -= force * nx;
+            fy[j] -= force * ny;
+            fz[j] -= force * nz;
+        }
+    }
+    
+    /**
+     * Sets the contact force of the object, or removes it if the object has no contact.
+     */
+    private void apply(PhysicObject o, int i) {
+        if(fx[i] != 0 || fy[i] != 0 || fz[i] != 0) {
+            o.setForce(CHANNEL, fx[i], fy[i], fz[i]);
+        } else if(o.hasForce(CHANNEL)) {
+            o.removeForce(CHANNEL);
+        }
+    }
+    
+    private void ensureCapacity(int n, boolean gather) {
+        if(fx.length < n) {
+            fx = new double[n];
+            fy = new double[n];
+            fz = new double[n];
+        }
+        if(gather && px.length < n) {
+            px = new double[n];
+            py = new double[n];
+            pz = new double[n];
+            vx = new double[n];
+            vy = new double[n];
+            vz = new double[n];
+        }
+    }
+    
+    @Override
+    protected void updateSecond() {
+        System.out.println("[FX:" + name + "] Effected Objects=" + attachedObjects.values().size() + " Contacts=" + contacts);
+    }
+    
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.mechanic.effects;
+
+import com.physikk.base.Utils;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * Calculates the exact gravitation forces by summing over all pairs, O(n^2).
+ * This is the reference for all approximating solvers.
+ * The target bodies are split into chunks, which can be calculated in parallel by an executor.
+ * Every target sums its sources in the same order in every mode, so the parallel result
+ * is bit-identical to the serial one.
+ * @author Sleepersword
+ */
+public class DirectGravitySolver implements GravitySolver
+{
+    /**
+     * The default number of target bodies per chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+    
+    /**
+     * The number of source bodies visited per pass over a chunk. 
+     * 4 arrays of 1024 doubles (32 KiB) stay in the L1/L2 cache while all targets of the chunk use them.
+     */
+    private static final int SOURCE_BLOCK = 1024;
+    
+    private final Executor executor;
+    private final int chunkSize;
+    private final double[] serialAccumulator;
+    
+    /**
+     * Creates a serial solver.
+     */
+    public DirectGravitySolver() {
+        this(null, DEFAULT_CHUNK_SIZE);
+    }
+    
+    /**
+     * Creates a solver which calculates the chunks on the given executor.
+     * @param executor The executor, e.g. ForkJoinPool.commonPool(). Null for serial calculation.
+     */
+    public DirectGravitySolver(Executor executor) {
+        this(executor, DEFAULT_CHUNK_SIZE);
+    }
+    
+    /**
+     * Creates a solver which calculates the chunks on the given executor.
+     * @param executor The executor, e.g. ForkJoinPool.commonPool(). Null for serial calculation.
+     * @param chunkSize The number of target bodies per chunk.
+     */
+    public DirectGravitySolver(Executor executor, int chunkSize) {
+        if(chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        this.serialAccumulator = new double[4 * chunkSize];
+    }
+    
+    @Override
+    public void computeForces(int n, double[] x, double[] y, double[] z, double[] m, double[] fx, double[] fy, double[] fz) {
+        compute(n, x, y, z, m, null, n, fx, fy, fz, null);
+    }
+    
+    @Override
+    public void computeForces(int n, double[] x, double[] y, double[] z, double[] m, int[] targets, int targetCount, 
+            double[] fx, double[] fy, double[] fz) {
+        compute(n, x, y, z, m, targets, targetCount, fx, fy, fz, null);
+    }
+    
+    @Override
+    public void computeForcesAndPotentials(int n, double[] x, double[] y, double[] z, double[] m, 
+            double[] fx, double[] fy, double[] fz, double[] potential) {
+        compute(n, x, y, z, m, null, n, fx, fy, fz, potential);
+    }
+    
+    /**
+     * Calculates the forces on the given targets, split into chunks.
+     * @param targets The target ids or null for the targets [0, targetCount).
+     * @param potential The potentials of the targets or null, if they aren't needed.
+     */
+    private void compute(int n, double[] x, double[] y, double[] z, double[] m, int[] targets, int targetCount, 
+            double[] fx, double[] fy, double[] fz, double[] potential) {
+        if(executor == null || targetCount <= chunkSize) {
+            for(int from = 0; from < targetCount; from += chunkSize) {
+                computeChunk(targets, from, Math.min(targetCount, from + chunkSize), n, x, y, z, m, fx, fy, fz, potential, 
+                        serialAccumulator);
+            }
+        } else {
+            int chunks = (targetCount + chunkSize - 1) / chunkSize;
+            ParallelLoop.run(executor, chunks, (c) -> {
+                int from = c * chunkSize;
+                int to = Math.min(targetCount, from + chunkSize);
+                computeChunk(targets, from, to, n, x, y, z, m, fx, fy, fz, potential, new double[4 * (to - from)]);
+            });
+        }
+    }
+    
+    /**
+     * Calculates the forces on the targets [from, to) from all n sources.
+     * The sources are visited in blocks, but every target still sums them in ascending order.
+     * The potentials are summed from the same distances, they follow the forces in the accumulator.
+     */
+    private void computeChunk(int[] targets, int from, int to, int n, double[] x, double[] y, double[] z, double[] m, 
+            double[] fx, double[] fy, double[] fz, double[] potential, double[] acc) {
+        int count = to - from;
+        boolean withPotential = potential != null;
+        Arrays.fill(acc, 0, 4 * count, 0.0);
+        
+        for(int block = 0; block < n; block += SOURCE_BLOCK) {
+            int blockEnd = Math.min(n, block + SOURCE_BLOCK);
+            
+            //Calculate force on each object separatly
+            for(int k = from; k < to; k++) {
+                int i = targets == null ? k : targets[k];
+                int a = 3 * (k - from);
+                double rx = acc[a], ry = acc[a + 1], rz = acc[a + 2];
+                double phi = acc[3 * count + k - from];
+                
+                //Iterate over all masses of this block
+                for(int j = block; j < blockEnd; j++) {
+                    if(j == i) continue;
+                    //Ri - R1
+                    double lx = x[j] - x[i];
+                    double ly = y[j] - y[i];
+                    double lz = z[j] - z[i];
+                    //|Ri - R1|
+                    double norm = Math.sqrt(lx*lx + ly*ly + lz*lz);
+                    // Mi * (Ri - R1/|Ri - R1|^3)
+                    double s = m[j] / Math.pow(norm, 3);
+                    
+                    rx += s * lx;
+                    ry += s * ly;
+                    rz += s * lz;
+                    if(withPotential) phi += m[j] / norm;
+                }
+                
+                acc[a] = rx;
+                acc[a + 1] = ry;
+                acc[a + 2] = rz;
+                acc[3 * count + k - from] = phi;
+            }
+        }
+        
+        for(int k = from; k < to; k++) {
+            int i = targets == null ? k : targets[k];
+            int a = 3 * (k - from);
+            //G * M1
+            double mainFactor = Utils.GRAVITATIONAL_CONSTANT * m[i];
+            fx[i] = mainFactor * acc[a];
+            fy[i] = mainFactor * acc[a + 1];
+            fz[i] = mainFactor * acc[a + 2];
+            if(withPotential) {
+                potential[i] = -Utils.GRAVITATIONAL_CONSTANT * acc[3 * count + k - from];
+            }
+        }
+    }
+    
+    /**
+     * Calculates the exact potentials of all bodies by summing over all pairs once, O(n^2).
+     * @param n The number of bodies.
+     * @param x The X coordinates of the positions.
+     * @param y The Y coordinates of the positions.
+     * @param z The Z coordinates of the positions.
+     * @param m The masses.
+     * @param potential The resulting potentials in J/kg.
+     */
+    static void sumPotentials(int n, double[] x, double[] y, double[] z, double[] m, double[] potential) {
+        Arrays.fill(potential, 0, n, 0.0);
+        for(int i = 0; i < n; i++) {
+            double sum = 0;
+            for(int j = i + 1; j < n; j++) {
+                double lx = x[j] - x[i];
+                double ly = y[j] - y[i];
+                double lz = z[j] - z[i];
+                double inverse = 1.0 / Math.sqrt(lx*lx + ly*ly + lz*lz);
+                sum += m[j] * inverse;
+                potential[j] += m[i] * inverse;
+            }
+            potential[i] += sum;
+        }
+        for(int i = 0; i < n; i++) {
+            potential[i] *= -Utils.GRAVITATIONAL_CONSTANT;
+        }
+    }
+}
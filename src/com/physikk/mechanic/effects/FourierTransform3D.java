@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.mechanic.effects;
+
+import java.util.concurrent.Executor;
+import java.util.function.IntConsumer;
+
+/**
+ * A complex fast fourier transform (iterative radix 2) of a cubic grid with a power of two edge length.
+ * The grid is stored in two flat arrays (real and imaginary part), index (ix * n + iy) * n + iz.
+ * The 1D transforms along each axis are independent, so they are distributed over an executor plane by plane.
+ * @author Sleepersword
+ */
+final class FourierTransform3D 
+{
+    private final int n;
+    private final int bits;
+    private final Executor executor;
+    private final double[] cos, sin;
+    private final int[] reversed;
+    
+    /**
+     * Creates a transform of an n^3 grid.
+     * @param n The edge length, a power of two.
+     * @param executor The executor or null for serial calculation.
+     */
+    FourierTransform3D(int n, Executor executor) {
+        if(n < 2 || Integer.bitCount(n) != 1) {
+            throw new IllegalArgumentException("The grid size must be a power of two: " + n);
+        }
+        this.n = n;
+        this.bits = Integer.numberOfTrailingZeros(n);
+        this.executor = executor;
+        
+        cos = new double[n / 2];
+        sin = new double[n / 2];
+        for(int k = 0; k < n / 2; k++) {
+            double angle = -2 * Math.PI * k / n;
+            cos[k] = Math.cos(angle);
+            sin[k] = Math.sin(angle);
+        }
+        reversed = new int[n];
+        for(int i = 0; i < n; i++) {
+            reversed[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+    }
+    
+    /**
+     * Transforms the grid in place, without normalization.
+     */
+    void forward(double[] re, double[] im) {
+        transform(re, im, false);
+    }
+    
+    /**
+     * Transforms the grid back in place and divides by n^3, so inverse(forward(a)) is a again.
+     */
+    void inverse(double[] re, double[] im) {
+        transform(re, im, true);
+        double scale = 1.0 / ((double)n * n * n);
+        forEachPlane((ix) -> {
+            int from = ix * n * n, to = from + n * n;
+            for(int i = from; i < to; i++) {
+                re[i] *= scale;
+                im[i] *= scale;
+            }
+        });
+    }
+    
+    /**
+     * Runs the task for every plane index [0, n) on the executor or serially.
+     */
+    void forEachPlane(IntConsumer task) {
+        if(executor == null) {
+            for(int i = 0; i < n; i++) task.accept(i);
+        } else {
+            ParallelLoop.run(executor, n, task);
+        }
+    }
+    
+    private void transform(double[] re, double[] im, boolean inverse) {
+        int plane = n * n;
+        
+        // Along Z (contiguous) and Y: both lie in the plane of a fixed X
+        forEachPlane((ix) -> {
+            double[] lineRe = new double[n], lineIm = new double[n];
+            for(int iy = 0; iy < n; iy++) {
+                transformLine(re, im, ix * plane + iy * n, 1, lineRe, lineIm, inverse);
+            }
+            for(int iz = 0; iz < n; iz++) {
+                transformLine(re, im, ix * plane + iz, n, lineRe, lineIm, inverse);
+            }
+        });
+        // Along X: the lines of a fixed Y
+        forEachPlane((iy) -> {
+            double[] lineRe = new double[n], lineIm = new double[n];
+            for(int iz = 0; iz < n; iz++) {
+                transformLine(re, im, iy * n + iz, plane, lineRe, lineIm, inverse);
+            }
+        });
+    }
+    
+    /**
+     * Transforms the line of n values starting at offset with the given stride, using the line buffers.
+     */
+    private void transformLine(double[] re, double[] im, int offset, int stride, double[] lineRe, double[] lineIm, boolean inverse) {
+        for(int i = 0; i < n; i++) {
+            int j = reversed[i];
+            lineRe[j] = re[offset + i * stride];
+            lineIm[j] = im[offset + i * stride];
+        }
+        
+        double sign = inverse ? -1 : 1;
+        for(int size = 2; size <= n; size <<= 1) {
+            int half = size >>> 1;
+            int step = n / size;
+            for(int start = 0; start < n; start += size) {
+                for(int k = 0; k < half; k++) {
+                    double wr = cos[k * step], wi = sign * sin[k * step];
+                    int a = start + k, b = a + half;
+                    double tr = wr * lineRe[b] - wi * lineIm[b];
+                    double ti = wr * lineIm[b] + wi * lineRe[b];
+                    lineRe[b] = lineRe[a] - tr;
+                    lineIm[b] = lineIm[a] - ti;
+                    lineRe[a] += tr;
+                    lineIm[a] += ti;
+                }
+            }
+        }
+        
+        for(int i = 0; i < n; i++) {
+            re[offset + i * stride] = lineRe[i];
+            im[offset + i * stride] = lineIm[i];
+        }
+    }
+}
@@ -17,52 +17,211 @@
  */
 package com.physikk.mechanic.effects;
 
+import com.physikk.base.BodyStore;
 import com.physikk.base.Effect;
-import com.physikk.base.NamedVector;
+import com.physikk.base.ForceChannel;
 import com.physikk.base.PhysicObject;
-import com.physikk.base.Utils;
+import com.physikk.base.PotentialEnergySource;
 import com.physikk.base.Vector;
+import java.util.ArrayList;
 
 /**
  * Describes the gravitation by Newton's law of universal gravitation.
+ * The potential energy is calculated by the solver along with the forces, if it has been requested.
  * @author Sleepersword
  */
-public class GravitationEffect extends Effect<PhysicObject>
+public class GravitationEffect extends Effect<PhysicObject> implements PotentialEnergySource
 {
+    /**
+     * The name of the force set by this effect.
+     */
+    public static final String FORCE_NAME = "GravitationForce";
+    
+    private final int channel;
+    private GravitySolver solver;
+    
+    // Gathered state, if the objects don't live in a BodyStore
+    private double[] px = new double[0], py = new double[0], pz = new double[0], m = new double[0];
+    // Resulting forces
+    private double[] fx = new double[0], fy = new double[0], fz = new double[0];
+    // Potentials of the objects, only calculated on request
+    private double[] potential = new double[0];
+    private boolean potentialRequested;
+    private double potentialEnergy = Double.NaN;
+    
     public GravitationEffect(PhysicObject... initialObjects) {
-        super("Gravitation", true);
+        this(new DirectGravitySolver(), initialObjects);
+    }
+    
+    /**
+     * Creates a new gravitation effect with the given solver.
+     * @param solver The solver calculating the forces, e.g. a DirectGravitySolver or a BarnesHutGravitySolver.
+     * @param initialObjects The attached objects.
+     */
+    public GravitationEffect(GravitySolver solver, PhysicObject... initialObjects) {
+        this("Gravitation", FORCE_NAME, solver, initialObjects);
+    }
+    
+    /**
+     * Creates a gravitation effect with its own name and force, so it can be added to a SystemManager 
+     * next to another gravitation effect.
+     * @param name The name of the effect.
+     * @param forceName The name of the force set by the effect.
+     * @param solver The solver calculating the forces.
+     * @param initialObjects The attached objects.
+     */
+    protected GravitationEffect(String name, String forceName, GravitySolver solver, PhysicObject... initialObjects) {
+        super(name, true);
+        this.channel = ForceChannel.register(forceName);
+        this.solver = solver;
         
         for(PhysicObject o : initialObjects) {
-            this.attachedObjects.put(o.getName(), o);
+            this.setObject(o);
         }
     }
+    
+    /**
+     * Returns the solver calculating the forces.
+     * @return The solver.
+     */
+    public GravitySolver getSolver() {
+        return solver;
+    }
+    
+    /**
+     * Replaces the solver calculating the forces.
+     * @param solver The new solver.
+     */
+    public void setSolver(GravitySolver solver) {
+        this.solver = solver;
+    }
 
     @Override
     public void update() {
-        //Calculate force on each object separatly
-        for( PhysicObject mainObject : this.attachedObjects.values() ) {
-            Vector result = Vector.NULLVECTOR();
+        BodyStore store = getBodyStore();
+        if(store != null) {
+            // Scan the flat arrays of the store directly
+            int n = store.size();
+            ensureCapacity(n, false);
+            compute(n, store.getPositionX(), store.getPositionY(), store.getPositionZ(), store.getMass());
             
-            //Iterate over all masses
-            for( PhysicObject currentObject : this.attachedObjects.values() ) {
-                if(currentObject == mainObject) continue;
-                //Ri - R1
-                Vector line = currentObject.getPosition().subtract(mainObject.getPosition());
-                //|Ri - R1|
-                double norm = line.getNorm();
-                // Mi * (Ri - R1/|Ri - R1|^3)
-                line = line.scale( currentObject.getMass() / Math.pow(norm, 3) );
-                
-                result = result.sum( line );
+            for(int i = 0; i < n; i++) {
+                store.get(i).setForce(channel, fx[i], fy[i], fz[i]);
             }
-            
-            //G * M1
-            double mainFactor = Utils.GRAVITATIONAL_CONSTANT * mainObject.getMass();
-            mainObject.setForce( new NamedVector("GravitationForce", result.scale(mainFactor) ) );
+            return;
         }
         
+        ArrayList<PhysicObject> objects = getObjects();
+        int n = gather(objects);
+        compute(n, px, py, pz, m);
+        
+        for(int i = 0; i < n; i++) {
+            objects.get(i).setForce(channel, fx[i], fy[i], fz[i]);
+        }
     }
-
+    
+    @Override
+    protected void updateActive(BodyStore store, int[] active, int count) {
+        if(getBodyStore() != store) {
+            update();
+            return;
+        }
+        
+        int n = store.size();
+        ensureCapacity(n, false);
+        solver.computeForces(n, store.getPositionX(), store.getPositionY(), store.getPositionZ(), store.getMass(), 
+                active, count, fx, fy, fz);
+        
+        for(int k = 0; k < count; k++) {
+            int i = active[k];
+            store.get(i).setForce(channel, fx[i], fy[i], fz[i]);
+        }
+    }
+    
+    @Override
+    public void requestPotentialEnergy() {
+        potentialRequested = true;
+        potentialEnergy = Double.NaN;
+    }
+    
+    @Override
+    public double getPotentialEnergy() {
+        return potentialEnergy;
+    }
+    
+    @Override
+    public double computePotentialEnergy() {
+        BodyStore store = getBodyStore();
+        if(store != null) {
+            int n = store.size();
+            ensureCapacity(n, false);
+            return potentialEnergy(n, store.getPositionX(), store.getPositionY(), store.getPositionZ(), store.getMass());
+        }
+        int n = gather(getObjects());
+        return potentialEnergy(n, px, py, pz, m);
+    }
+    
+    /**
+     * Calculates the forces into the force arrays, and the potential energy if it has been requested.
+     */
+    private void compute(int n, double[] x, double[] y, double[] z, double[] mass) {
+        if(potentialRequested) {
+            potentialEnergy = potentialEnergy(n, x, y, z, mass);
+            potentialRequested = false;
+        } else {
+            solver.computeForces(n, x, y, z, mass, fx, fy, fz);
+        }
+    }
+    
+    /**
+     * Calculates the forces into the force arrays and returns the potential energy 1/2 * sum of m_i * phi_i.
+     */
+    private double potentialEnergy(int n, double[] x, double[] y, double[] z, double[] mass) {
+        if(potential.length < n) {
+            potential = new double[n];
+        }
+        solver.computeForcesAndPotentials(n, x, y, z, mass, fx, fy, fz, potential);
+        
+        double energy = 0;
+        for(int i = 0; i < n; i++) {
+            energy += mass[i] * potential[i];
+        }
+        return 0.5 * energy;
+    }
+    
+    /**
+     * Copies the positions and masses of the objects into the gather arrays.
+     * @return The number of objects.
+     */
+    private int gather(ArrayList<PhysicObject> objects) {
+        int n = objects.size();
+        ensureCapacity(n, true);
+        
+        for(int i = 0; i < n; i++) {
+            PhysicObject o = objects.get(i);
+            Vector pos = o.getPosition();
+            px[i] = pos.x;
+            py[i] = pos.y;
+            pz[i] = pos.z;
+            m[i] = o.getMass();
+        }
+        return n;
+    }
+    
+    private void ensureCapacity(int n, boolean gather) {
+        if(fx.length < n) {
+            fx = new double[n];
+            fy = new double[n];
+            fz = new double[n];
+        }
+        if(gather && px.length < n) {
+            px = new double[n];
+            py = new double[n];
+            pz = new double[n];
+            m = new double[n];
+        }
+    }
+    
     @Override
     protected void updateSecond() {
         System.out.println("[FX:" + name + "] Effected Objects=" + attachedObjects.values().size() );
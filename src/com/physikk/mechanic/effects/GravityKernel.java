@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.mechanic.effects;
+
+/**
+ * The inner loop of the SoftenedGravitySolver: sums the softened accelerations of a range of sources on one target.
+ * @author Sleepersword
+ */
+interface GravityKernel 
+{
+    /**
+     * Adds sum over j in [from, to) of m[j] * (r_j - r_i) / (|r_j - r_i|^2 + eps2)^(3/2) to acc[a], acc[a + 1], acc[a + 2].
+     * Sources at zero softened distance contribute nothing, so the target may be in the range.
+     * @param xi The X coordinate of the target.
+     * @param yi The Y coordinate of the target.
+     * @param zi The Z coordinate of the target.
+     * @param from The first source.
+     * @param to The end of the sources (exclusive).
+     * @param x The X coordinates of all bodies.
+     * @param y The Y coordinates of all bodies.
+     * @param z The Z coordinates of all bodies.
+     * @param m The masses of all bodies.
+     * @param eps2 The squared softening length.
+     * @param acc The accumulator.
+     * @param a The index of the X component of the target in the accumulator.
+     */
+    void accumulate(double xi, double yi, double zi, int from, int to, double[] x, double[] y, double[] z, double[] m, 
+            double eps2, double[] acc, int a);
+    
+    /**
+     * Works like accumulate() and also adds sum over j in [from, to) of m[j] / (|r_j - r_i|^2 + eps2)^(1/2) to acc[p].
+     * With a softening length the target itself contributes m_i / eps to the potential, it's up to the caller to remove it.
+     * The default implementation is scalar and sums in the same order as the ScalarGravityKernel.
+     * @param xi The X coordinate of the target.
+     * @param yi The Y coordinate of the target.
+     * @param zi The Z coordinate of the target.
+     * @param from The first source.
+     * @param to The end of the sources (exclusive).
+     * @param x The X coordinates of all bodies.
+     * @param y The Y coordinates of all bodies.
+     * @param z The Z coordinates of all bodies.
+     * @param m The masses of all bodies.
+     * @param eps2 The squared softening length.
+     * @param acc The accumulator.
+     * @param a The index of the X component of the target in the accumulator.
+     * @param p The index of the potential of the target in the accumulator.
+     */
+    default void accumulateWithPotential(double xi, double yi, double zi, int from, int to, double[] x, double[] y, double[] z, 
+            double[] m, double eps2, double[] acc, int a, int p) {
+        double rx = 0, ry = 0, rz = 0, phi = 0;
+        
+        for(int j = from; j < to; j++) {
+            double lx = x[j] - xi;
+            double ly = y[j] - yi;
+            double lz = z[j] - zi;
+            double r2 = lx*lx + ly*ly + lz*lz + eps2;
+            if(r2 == 0) continue;
+            
+            double inverse = 1.0 / Math.sqrt(r2);
+            double s = m[j] * inverse * inverse * inverse;
+            rx += s * lx;
+            ry += s * ly;
+            rz += s * lz;
+            phi += m[j] * inverse;
+        }
+        
+        acc[a] += rx;
+        acc[a + 1] += ry;
+        acc[a + 2] += rz;
+        acc[p] += phi;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.mechanic.effects;
+
+/**
+ * Describes an algorithm that calculates the gravitation forces between n bodies.
+ * All arrays are indexed by body, only the first n entries are used.
+ * @author Sleepersword
+ */
+public interface GravitySolver
+{
+    /**
+     * Calculates the gravitation force on every body.
+     * @param n The number of bodies.
+     * @param x The X coordinates of the positions.
+     * @param y The Y coordinates of the positions.
+     * @param z The Z coordinates of the positions.
+     * @param m The masses.
+     * @param fx The X coordinates of the resulting forces.
+     * @param fy The Y coordinates of the resulting forces.
+     * @param fz The Z coordinates of the resulting forces.
+     */
+    void computeForces(int n, double[] x, double[] y, double[] z, double[] m, double[] fx, double[] fy, double[] fz);
+    
+    /**
+     * Calculates the gravitation force only on the given target bodies, all bodies are sources.
+     * The default implementation calculates the forces on all bodies.
+     * @param n The number of bodies.
+     * @param x The X coordinates of the positions.
+     * @param y The Y coordinates of the positions.
+     * @param z The Z coordinates of the positions.
+     * @param m The masses.
+     * @param targets The ids of the target bodies.
+     * @param targetCount The number of target bodies.
+     * @param fx The X coordinates of the resulting forces, only the entries of the targets are defined.
+     * @param fy The Y coordinates of the resulting forces, only the entries of the targets are defined.
+     * @param fz The Z coordinates of the resulting forces, only the entries of the targets are defined.
+     */
+    default void computeForces(int n, double[] x, double[] y, double[] z, double[] m, int[] targets, int targetCount, 
+            double[] fx, double[] fy, double[] fz) {
+        computeForces(n, x, y, z, m, fx, fy, fz);
+    }
+    
+    /**
+     * Calculates the gravitation force on every body like computeForces() and the gravitational potential 
+     * of every body in the same pass, phi_i = -G * sum over j != i of m_j / |r_j - r_i| for exact solvers.
+     * The potential energy of the system is 1/2 * sum over i of m_i * phi_i.
+     * The default implementation calculates the forces and then the exact potentials by a separate direct sum, O(n^2).
+     * @param n The number of bodies.
+     * @param x The X coordinates of the positions.
+     * @param y The Y coordinates of the positions.
+     * @param z The Z coordinates of the positions.
+     * @param m The masses.
+     * @param fx The X coordinates of the resulting forces.
+     * @param fy The Y coordinates of the resulting forces.
+     * @param fz The Z coordinates of the resulting forces.
+     * @param potential The resulting potentials in J/kg.
+     */
+    default void computeForcesAndPotentials(int n, double[] x, double[] y, double[] z, double[] m, 
+            double[] fx, double[] fy, double[] fz, double[] potential) {
+        computeForces(n, x, y, z, m, fx, fy, fz);
+        DirectGravitySolver.sumPotentials(n, x, y, z, m, potential);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.mechanic.effects;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs a number of independent tasks on an executor and waits until all of them are done.
+ * @author Sleepersword
+ */
+final class ParallelLoop 
+{
+    // Override default constructor
+    private ParallelLoop() {}
+    
+    /**
+     * Calls task.accept(i) for every i in [0, count) and returns when all calls are done.
+     * @param executor The executor. A ForkJoinPool is used with fork/join, any other executor gets one task per index.
+     * @param count The number of tasks.
+     * @param task The task.
+     */
+    static void run(Executor executor, int count, IntConsumer task) {
+        if(count == 1) {
+            task.accept(0);
+        } else if(executor instanceof ForkJoinPool) {
+            ((ForkJoinPool)executor).invoke(new SplitTask(0, count, task));
+        } else {
+            runWithLatch(executor, count, task);
+        }
+    }
+    
+    private static void runWithLatch(Executor executor, int count, IntConsumer task) {
+        CountDownLatch latch = new CountDownLatch(count);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        
+        for(int i = 0; i < count; i++) {
+            int index = i;
+            executor.execute(() -> {
+                try {
+                    task.accept(index);
+                } catch(Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        
+        try {
+            latch.await();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for parallel tasks.", e);
+        }
+        if(failure.get() != null) {
+            throw new IllegalStateException("A parallel task failed.", failure.get());
+        }
+    }
+    
+    /**
+     * Splits the index range in halves until a single index is left.
+     */
+    private static final class SplitTask extends RecursiveAction
+    {
+        private final int from, to;
+        private final IntConsumer task;
+        
+        SplitTask(int from, int to, IntConsumer task) {
+            this.from = from;
+            this.to = to;
+            this.task = task;
+        }
+        
+        @Override
+        protected void compute() {
+            if(to - from == 1) {
+                task.accept(from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new SplitTask(from, mid, task), new SplitTask(mid, to, task));
+        }
+    }
+}
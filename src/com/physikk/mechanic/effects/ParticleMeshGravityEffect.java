@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.mechanic.effects;
+
+import com.physikk.base.PhysicObject;
+
+/**
+ * Describes the gravitation calculated on a grid by a ParticleMeshGravitySolver.
+ * It sets its own force, so it can replace a GravitationEffect or run next to one, 
+ * e.g. for the long range forces of one group of bodies.
+ * @author Sleepersword
+ */
+public class ParticleMeshGravityEffect extends GravitationEffect
+{
+    /**
+     * The name of the force set by this effect.
+     */
+    public static final String FORCE_NAME = "ParticleMeshGravitationForce";
+    
+    /**
+     * Creates a new particle mesh gravitation effect.
+     * @param solver The solver calculating the forces on the grid.
+     * @param initialObjects The attached objects.
+     */
+    public ParticleMeshGravityEffect(ParticleMeshGravitySolver solver, PhysicObject... initialObjects) {
+        super("ParticleMeshGravitation", FORCE_NAME, solver, initialObjects);
+    }
+    
+    /**
+     * Returns the solver calculating the forces on the grid.
+     * @return The solver.
+     */
+    @Override
+    public ParticleMeshGravitySolver getSolver() {
+        return (ParticleMeshGravitySolver)super.getSolver();
+    }
+    
+    /**
+     * Replaces the solver calculating the forces.
+     * @param solver The new solver, must be a ParticleMeshGravitySolver.
+     */
+    @Override
+    public void setSolver(GravitySolver solver) {
+        if(!(solver instanceof ParticleMeshGravitySolver)) {
+            throw new IllegalArgumentException("A ParticleMeshGravityEffect needs a ParticleMeshGravitySolver.");
+        }
+        super.setSolver(solver);
+    }
+}
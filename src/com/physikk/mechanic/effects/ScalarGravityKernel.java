@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.mechanic.effects;
+
+/**
+ * The portable kernel of the SoftenedGravitySolver, one source per iteration.
+ * @author Sleepersword
+ */
+final class ScalarGravityKernel implements GravityKernel
+{
+    @Override
+    public void accumulate(double xi, double yi, double zi, int from, int to, double[] x, double[] y, double[] z, double[] m, 
+            double eps2, double[] acc, int a) {
+        double rx = 0, ry = 0, rz = 0;
+        
+        for(int j = from; j < to; j++) {
+            double lx = x[j] - xi;
+            double ly = y[j] - yi;
+            double lz = z[j] - zi;
+            double r2 = lx*lx + ly*ly + lz*lz + eps2;
+            if(r2 == 0) continue;
+            
+            double inverse = 1.0 / Math.sqrt(r2);
+            double s = m[j] * inverse * inverse * inverse;
+            rx += s * lx;
+            ry += s * ly;
+            rz += s * lz;
+        }
+        
+        acc[a] += rx;
+        acc[a + 1] += ry;
+        acc[a + 2] += rz;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.mechanic.effects;
+
+import com.physikk.base.Utils;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * Calculates the gravitation forces by summing over all pairs like the DirectGravitySolver, O(n^2), 
+ * but with a Plummer softening length eps: F_ij = G m_i m_j (r_j - r_i) / (|r_j - r_i|^2 + eps^2)^(3/2).
+ * The softening keeps close encounters finite and makes the inner loop branch free, so it runs on SIMD lanes: 
+ * If the JDK Vector API (module jdk.incubator.vector, Java 16+) is available, a kernel processing several 
+ * sources per instruction is used, otherwise a scalar kernel. 
+ * Start the JVM with --add-modules jdk.incubator.vector to enable it, -Dphysikk.simd=false disables it.
+ * The kernels sum in different orders, their results agree within a relative tolerance of about 1e-12.
+ * @author Sleepersword
+ */
+public class SoftenedGravitySolver implements GravitySolver
+{
+    /**
+     * The number of source bodies visited per pass over a chunk. 
+     */
+    private static final int SOURCE_BLOCK = 1024;
+    
+    private static final String VECTOR_KERNEL = "com.physikk.mechanic.effects.VectorGravityKernel";
+    
+    private final double eps2;
+    private final Executor executor;
+    private final int chunkSize;
+    private final GravityKernel kernel;
+    private final double[] serialAccumulator;
+    
+    /**
+     * Creates a serial solver.
+     * @param softening The softening length eps in meters, at least 0.
+     */
+    public SoftenedGravitySolver(double softening) {
+        this(softening, null, DirectGravitySolver.DEFAULT_CHUNK_SIZE);
+    }
+    
+    /**
+     * Creates a solver which calculates the chunks on the given executor.
+     * @param softening The softening length eps in meters, at least 0.
+     * @param executor The executor, e.g. ForkJoinPool.commonPool(). Null for serial calculation.
+     * @param chunkSize The number of target bodies per chunk.
+     */
+    public SoftenedGravitySolver(double softening, Executor executor, int chunkSize) {
+        this(softening, executor, chunkSize, !"false".equals(System.getProperty("physikk.simd")));
+    }
+    
+    /**
+     * Creates a solver which calculates the chunks on the given executor.
+     * @param softening The softening length eps in meters, at least 0.
+     * @param executor The executor, e.g. ForkJoinPool.commonPool(). Null for serial calculation.
+     * @param chunkSize The number of target bodies per chunk.
+     * @param simd Whether the Vector API kernel is used, if it is available.
+     */
+    public SoftenedGravitySolver(double softening, Executor executor, int chunkSize, boolean simd) {
+        if(!(softening >= 0)) {
+            throw new IllegalArgumentException("softening must not be negative: " + softening);
+        }
+        if(chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        this.eps2 = softening * softening;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        this.kernel = simd ? loadVectorKernel() : new ScalarGravityKernel();
+        this.serialAccumulator = new double[4 * chunkSize];
+    }
+    
+    /// Methods
+    
+    /**
+     * Returns the softening length.
+     * @return The softening length in meters.
+     */
+    public double getSoftening() {
+        return Math.sqrt(eps2);
+    }
+    
+    /**
+     * Returns whether the Vector API kernel is used.
+     * @return True, if several sources are processed per instruction.
+     */
+    public boolean isVectorized() {
+        return !(kernel instanceof ScalarGravityKernel);
+    }
+    
+    @Override
+    public void computeForces(int n, double[] x, double[] y, double[] z, double[] m, double[] fx, double[] fy, double[] fz) {
+        compute(n, x, y, z, m, null, n, fx, fy, fz, null);
+    }
+    
+    @Override
+    public void computeForces(int n, double[] x, double[] y, double[] z, double[] m, int[] targets, int targetCount, 
+            double[] fx, double[] fy, double[] fz) {
+        compute(n, x, y, z, m, targets, targetCount, fx, fy, fz, null);
+    }
+    
+    /**
+     * Calculates the forces and the softened potentials phi_i = -G * sum over j != i of m_j / (|r_j - r_i|^2 + eps^2)^(1/2).
+     * The potentials are summed by the scalar kernel, even if the Vector API kernel is used for the forces.
+     */
+    @Override
+    public void computeForcesAndPotentials(int n, double[] x, double[] y, double[] z, double[] m, 
+            double[] fx, double[] fy, double[] fz, double[] potential) {
+        compute(n, x, y, z, m, null, n, fx, fy, fz, potential);
+    }
+    
+    /**
+     * Calculates the forces on the given targets, split into chunks.
+     * @param potential The potentials of the targets or null, if they aren't needed.
+     */
+    private void compute(int n, double[] x, double[] y, double[] z, double[] m, int[] targets, int targetCount, 
+            double[] fx, double[] fy, double[] fz, double[] potential) {
+        if(executor == null || targetCount <= chunkSize) {
+            for(int from = 0; from < targetCount; from += chunkSize) {
+                computeChunk(targets, from, Math.min(targetCount, from + chunkSize), n, x, y, z, m, fx, fy, fz, potential, 
+                        serialAccumulator);
+            }
+        } else {
+            int chunks = (targetCount + chunkSize - 1) / chunkSize;
+            ParallelLoop.run(executor, chunks, (c) -> {
+                int from = c * chunkSize;
+                int to = Math.min(targetCount, from + chunkSize);
+                computeChunk(targets, from, to, n, x, y, z, m, fx, fy, fz, potential, new double[4 * (to - from)]);
+            });
+        }
+    }
+    
+    /**
+     * Calculates the forces on the targets [from, to) from all n sources, one cache sized block of sources at a time.
+     * The potentials follow the forces in the accumulator.
+     */
+    private void computeChunk(int[] targets, int from, int to, int n, double[] x, double[] y, double[] z, double[] m, 
+            double[] fx, double[] fy, double[] fz, double[] potential, double[] acc) {
+        int count = to - from;
+        Arrays.fill(acc, 0, 4 * count, 0.0);
+        
+        for(int block = 0; block < n; block += SOURCE_BLOCK) {
+            int blockEnd = Math.min(n, block + SOURCE_BLOCK);
+            for(int k = from; k < to; k++) {
+                int i = targets == null ? k : targets[k];
+                if(potential == null) {
+                    kernel.accumulate(x[i], y[i], z[i], block, blockEnd, x, y, z, m, eps2, acc, 3 * (k - from));
+                } else {
+                    kernel.accumulateWithPotential(x[i], y[i], z[i], block, blockEnd, x, y, z, m, eps2, acc, 
+                            3 * (k - from), 3 * count + k - from);
+                }
+            }
+        }
+        
+        // With softening every target sees itself at the distance eps
+        double selfFactor = eps2 > 0 ? 1.0 / Math.sqrt(eps2) : 0;
+        
+        for(int k = from; k < to; k++) {
+            int i = targets == null ? k : targets[k];
+            int a = 3 * (k - from);
+            double mainFactor = Utils.GRAVITATIONAL_CONSTANT * m[i];
+            fx[i] = mainFactor * acc[a];
+            fy[i] = mainFactor * acc[a + 1];
+            fz[i] = mainFactor * acc[a + 2];
+            if(potential != null) {
+                potential[i] = -Utils.GRAVITATIONAL_CONSTANT * (acc[3 * count + k - from] - selfFactor * m[i]);
+            }
+        }
+    }
+    
+    /**
+     * Loads the Vector API kernel, which is compiled separately for Java 16+ (see build.xml).
+     * Falls back to the scalar kernel if the class, the module or the Java version is missing.
+     */
+    private static GravityKernel loadVectorKernel() {
+        try {
+            return (GravityKernel)Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+        } catch(ReflectiveOperationException | LinkageError | RuntimeException ex) {
+            return new ScalarGravityKernel();
+        }
+    }
+}
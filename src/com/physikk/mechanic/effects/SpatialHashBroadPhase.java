@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.mechanic.effects;
+
+import java.util.Arrays;
+
+/**
+ * Finds close pairs with a uniform hash grid, whose cells are as wide as the range.
+ * Every body is kept in a linked list per cell. From call to call only the bodies that changed their cell are moved,
+ * so the update costs O(n) cheap cell computations plus O(moved bodies). The pairs are found by testing every body
+ * against the bodies of its own cell and of the 13 forward neighbour cells, which costs O(n + candidate pairs).
+ * @author Sleepersword
+ */
+public class SpatialHashBroadPhase implements BroadPhase
+{
+    private static final int BITS = 21;
+    private static final long MASK = (1L << BITS) - 1;
+    private static final int FREE = -2;
+    
+    // The forward half of the 26 neighbour cells, so every pair of cells is visited once
+    private static final int[][] FORWARD = {
+        {1, -1, -1}, {1, -1, 0}, {1, -1, 1}, {1, 0, -1}, {1, 0, 0}, {1, 0, 1}, {1, 1, -1}, {1, 1, 0}, {1, 1, 1},
+        {0, 1, -1}, {0, 1, 0}, {0, 1, 1}, {0, 0, 1}
+    };
+    
+    private double cellSize = Double.NaN;
+    private double inverseCellSize;
+    
+    // Per body: the key and hash slot of its cell and the links of the cell list
+    private int count;
+    private long[] bodyCell = new long[0];
+    private int[] bodySlot = new int[0];
+    private int[] next = new int[0], prev = new int[0];
+    
+    // Open addressing hash table from cell keys to the heads of the cell lists
+    private long[] keys = new long[0];
+    private int[] heads = new int[0];
+    private int used;
+    
+    @Override
+    public void findPairs(int n, double[] x, double[] y, double[] z, double range, Pairs pairs) {
+        update(n, x, y, z, range);
+        pairs.clear();
+        
+        double range2 = range * range;
+        for(int i = 0; i < n; i++) {
+            double xi = x[i], yi = y[i], zi = z[i];
+            
+            for(int j = heads[bodySlot[i]]; j >= 0; j = next[j]) {
+                if(j > i && distance2(xi - x[j], yi - y[j], zi - z[j]) < range2) {
+                    pairs.add(i, j);
+                }
+            }
+            
+            long key = bodyCell[i];
+            long cx = key >>> (2 * BITS), cy = (key >>> BITS) & MASK, cz = key & MASK;
+            for(int[] o : FORWARD) {
+                int slot = find(pack(cx + o[0], cy + o[1], cz + o[2]));
+                if(slot < 0) {
+                    continue;
+                }
+                for(int j = heads[slot]; j >= 0; j = next[j]) {
+                    if(distance2(xi - x[j], yi - y[j], zi - z[j]) < range2) {
+                        pairs.add(i, j);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Moves the bodies that changed their cell since the last call, adds new and drops surplus bodies.
+     */
+    private void update(int n, double[] x, double[] y, double[] z, double range) {
+        if(!(range > 0)) {
+            throw new IllegalArgumentException("range must be positive: " + range);
+        }
+        if(range != cellSize) {
+            cellSize = range;
+            inverseCellSize = 1.0 / range;
+            count = 0;
+            rehash(n);
+        }
+        if(n < count) {
+            for(int i = n; i < count; i++) {
+                unlink(i);
+            }
+            count = n;
+        }
+        
+        ensureCapacity(n);
+        for(int i = 0; i < count; i++) {
+            long key = cellOf(x[i], y[i], z[i]);
+            if(key != bodyCell[i]) {
+                unlink(i);
+                link(i, key);
+            }
+        }
+        for(int i = count; i < n; i++) {
+            link(i, cellOf(x[i], y[i], z[i]));
+        }
+        count = n;
+        
+        // Drop the empty cells left behind by moving bodies
+        if(used * 2 > keys.length) {
+            rehash(n);
+        }
+    }
+    
+    private long cellOf(double x, double y, double z) {
+        return pack((long)Math.floor(x * inverseCellSize), (long)Math.floor(y * inverseCellSize), 
+                (long)Math.floor(z * inverseCellSize));
+    }
+    
+    private static long pack(long cx, long cy, long cz) {
+        return ((cx & MASK) << (2 * BITS)) | ((cy & MASK) << BITS) | (cz & MASK);
+    }
+    
+    private static double distance2(double dx, double dy, double dz) {
+        return dx * dx + dy * dy + dz * dz;
+    }
+    
+    /// Cell lists
+    
+    private void link(int i, long key) {
+        int slot = find(key);
+        if(slot < 0) {
+            slot = -slot - 1;
+            keys[slot] = key;
+            heads[slot] = -1;
+            used++;
+        }
+        
+        int head = heads[slot];
+        next[i] = head;
+        prev[i] = -1;
+        if(head >= 0) {
+            prev[head] = i;
+        }
+        heads[slot] = i;
+        bodyCell[i] = key;
+        bodySlot[i] = slot;
+    }
+    
+    private void unlink(int i) {
+        if(prev[i] >= 0) {
+            next[prev[i]] = next[i];
+        } else {
+            heads[bodySlot[i]] = next[i];
+        }
+        if(next[i] >= 0) {
+            prev[next[i]] = prev[i];
+        }
+    }
+    
+    /**
+     * Returns the slot of the given cell, or -(free slot) - 1 if the cell isn't in the table.
+     */
+    private int find(long key) {
+        int mask = keys.length - 1;
+        long h = key * 0x9E3779B97F4A7C15L;
+        int slot = (int)(h ^ (h >>> 32)) & mask;
+        while(heads[slot] != FREE) {
+            if(keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -slot - 1;
+    }
+    
+    /**
+     * Rebuilds the table for the given number of bodies, so it stays less than 3/4 full until the next rehash.
+     */
+    private void rehash(int bodies) {
+        int capacity = Integer.highestOneBit(Math.max(16, bodies * 4) - 1) << 1;
+        keys = new long[capacity];
+        heads = new int[capacity];
+        Arrays.fill(heads, FREE);
+        used = 0;
+        for(int i = 0; i < count; i++) {
+            link(i, bodyCell[i]);
+        }
+    }
+    
+    private void ensureCapacity(int n) {
+        if(bodyCell.length < n) {
+            int capacity = Math.max(n, 2 * bodyCell.length);
+            bodyCell = Arrays.copyOf(bodyCell, capacity);
+            bodySlot = Arrays.copyOf(bodySlot, capacity);
+            next = Arrays.copyOf(next, capacity);
+            prev = Arrays.copyOf(prev, capacity);
+        }
+        if(keys.length < Math.max(16, n * 4)) {
+            rehash(n);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.mechanic.effects;
+
+import java.util.Arrays;
+
+/**
+ * Finds close pairs by sweeping over the bodies sorted by their X coordinate (sweep and prune).
+ * The order is kept between calls and repaired by an insertion sort, which costs only O(n + swaps) since bodies
+ * move little per tick. If the order changed a lot, it falls back to a merge sort.
+ * Works best if the bodies are spread along the X axis, it degrades to O(n^2) if they all share the same X.
+ * @author Sleepersword
+ */
+public class SweepAndPruneBroadPhase implements BroadPhase
+{
+    private int[] order = new int[0];
+    private int[] buffer = new int[0];
+    private int count;
+    
+    @Override
+    public void findPairs(int n, double[] x, double[] y, double[] z, double range, Pairs pairs) {
+        sort(n, x);
+        pairs.clear();
+        
+        double range2 = range * range;
+        for(int a = 0; a < n; a++) {
+            int i = order[a];
+            double xi = x[i], yi = y[i], zi = z[i];
+            for(int b = a + 1; b < n; b++) {
+                int j = order[b];
+                double dx = x[j] - xi;
+                if(dx >= range) {
+                    break;
+                }
+                double dy = y[j] - yi, dz = z[j] - zi;
+                if(dx * dx + dy * dy + dz * dz < range2) {
+                    pairs.add(i, j);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Updates the order to the current positions, drops surplus and appends new bodies.
+     */
+    private void sort(int n, double[] x) {
+        if(order.length < n) {
+            order = Arrays.copyOf(order, Math.max(n, 2 * order.length));
+            buffer = new int[order.length];
+        }
+        if(n < count) {
+            int k = 0;
+            for(int a = 0; a < count; a++) {
+                if(order[a] < n) order[k++] = order[a];
+            }
+        }
+        for(int i = count; i < n; i++) {
+            order[i] = i;
+        }
+        count = n;
+        
+        if(!insertionSort(n, x, 8L * n + 64)) {
+            mergeSort(0, n, x);
+        }
+    }
+    
+    /**
+     * Sorts the order by insertion, unless it needs more than the given number of moves.
+     * @return True if the order is sorted.
+     */
+    private boolean insertionSort(int n, double[] x, long budget) {
+        for(int a = 1; a < n; a++) {
+            int i = order[a];
+            double key = x[i];
+            int b = a - 1;
+            while(b >= 0 && x[order[b]] > key) {
+                order[b + 1] = order[b];
+                b--;
+                if(--budget < 0) {
+                    order[b + 1] = i;
+                    return false;
+                }
+            }
+            order[b + 1] = i;
+        }
+        return true;
+    }
+    
+    private void mergeSort(int from, int to, double[] x) {
+        if(to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(from, mid, x);
+        mergeSort(mid, to, x);
+        if(x[order[mid - 1]] <= x[order[mid]]) {
+            return;
+        }
+        
+        System.arraycopy(order, from, buffer, from, to - from);
+        int a = from, b = mid;
+        for(int k = from; k < to; k++) {
+            if(b >= to || (a < mid && x[buffer[a]] <= x[buffer[b]])) {
+                order[k] = buffer[a++];
+            } else {
+                order[k] = buffer[b++];
+            }
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.mechanic.effects;
+
+import com.physikk.base.Utils;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Calculates the exact gravitation forces like the DirectGravitySolver, but visits every pair only once
+ * and applies equal and opposite forces (Newton's third law).
+ * The bodies are split into tiles, every pair of tiles is calculated as a block that stays in the L1/L2 cache.
+ * In parallel mode every worker sums into its own accumulators, which are merged at the end.
+ * The work is distributed statically, so the result only depends on the body order and the number of workers.
+ * @author Sleepersword
+ */
+public class SymmetricGravitySolver implements GravitySolver
+{
+    /**
+     * The default number of bodies per tile. Two tiles of positions, masses and accumulators take about 28 KiB.
+     */
+    public static final int DEFAULT_TILE_SIZE = 128;
+    
+    private final Executor executor;
+    private final int workers;
+    private final int tileSize;
+    private double[][] accumulators = new double[0][];
+    private double[][] potentialAccumulators = new double[0][];
+    
+    /**
+     * Creates a serial solver.
+     */
+    public SymmetricGravitySolver() {
+        this(null, 1, DEFAULT_TILE_SIZE);
+    }
+    
+    /**
+     * Creates a solver which uses one worker per thread of the given pool.
+     * @param pool The pool, e.g. ForkJoinPool.commonPool().
+     */
+    public SymmetricGravitySolver(ForkJoinPool pool) {
+        this(pool, pool.getParallelism(), DEFAULT_TILE_SIZE);
+    }
+    
+    /**
+     * Creates a solver which calculates on the given executor.
+     * @param executor The executor. Null for serial calculation.
+     * @param workers The number of workers, each of them gets its own accumulators.
+     * @param tileSize The number of bodies per tile.
+     */
+    public SymmetricGravitySolver(Executor executor, int workers, int tileSize) {
+        if(workers < 1 || tileSize < 1) {
+            throw new IllegalArgumentException("workers and tileSize must be positive.");
+        }
+        this.executor = executor;
+        this.workers = executor == null ? 1 : workers;
+        this.tileSize = tileSize;
+    }
+    
+    @Override
+    public void computeForces(int n, double[] x, double[] y, double[] z, double[] m, double[] fx, double[] fy, double[] fz) {
+        compute(n, x, y, z, m, fx, fy, fz, null);
+    }
+    
+    /**
+     * Calculates the forces and the potentials in the same pair loop, 
+     * every pair adds m_j / r to the potential of i and m_i / r to the potential of j.
+     */
+    @Override
+    public void computeForcesAndPotentials(int n, double[] x, double[] y, double[] z, double[] m, 
+            double[] fx, double[] fy, double[] fz, double[] potential) {
+        compute(n, x, y, z, m, fx, fy, fz, potential);
+    }
+    
+    private void compute(int n, double[] x, double[] y, double[] z, double[] m, 
+            double[] fx, double[] fy, double[] fz, double[] potential) {
+        int tiles = (n + tileSize - 1) / tileSize;
+        // Row r and row (tiles - 1 - r) together always hold tiles + 1 tile pairs
+        int rowPairs = (tiles + 1) / 2;
+        int usedWorkers = Math.max(1, Math.min(workers, rowPairs));
+        ensureAccumulators(usedWorkers, n, potential != null);
+        double[][] potentials = potential != null ? potentialAccumulators : null;
+        
+        if(usedWorkers == 1) {
+            computeRows(0, 1, tiles, n, x, y, z, m, accumulators[0], potentials != null ? potentials[0] : null);
+        } else {
+            ParallelLoop.run(executor, usedWorkers, (w) -> {
+                computeRows(w, usedWorkers, tiles, n, x, y, z, m, accumulators[w], potentials != null ? potentials[w] : null);
+            });
+        }
+        
+        // Merge the accumulators of all workers in a fixed order
+        for(int i = 0; i < n; i++) {
+            double ax = 0, ay = 0, az = 0;
+            for(int w = 0; w < usedWorkers; w++) {
+                double[] acc = accumulators[w];
+                ax += acc[3 * i];
+                ay += acc[3 * i + 1];
+                az += acc[3 * i + 2];
+            }
+            fx[i] = Utils.GRAVITATIONAL_CONSTANT * ax;
+            fy[i] = Utils.GRAVITATIONAL_CONSTANT * ay;
+            fz[i] = Utils.GRAVITATIONAL_CONSTANT * az;
+        }
+        
+        if(potentials != null) {
+            for(int i = 0; i < n; i++) {
+                double sum = 0;
+                for(int w = 0; w < usedWorkers; w++) {
+                    sum += potentials[w][i];
+                }
+                potential[i] = -Utils.GRAVITATIONAL_CONSTANT * sum;
+            }
+        }
+    }
+    
+    /**
+     * Calculates all tile pairs of the rows belonging to the given worker.
+     * A row r holds the tile pairs (r, c) with c >= r.
+     * @param pot The potential accumulators of the worker, or null if only the forces are calculated.
+     */
+    private void computeRows(int worker, int workerCount, int tiles, int n, double[] x, double[] y, double[] z, double[] m, 
+            double[] acc, double[] pot) {
+        Arrays.fill(acc, 0, 3 * n, 0.0);
+        if(pot != null) {
+            Arrays.fill(pot, 0, n, 0.0);
+        }
+        
+        for(int pair = worker; pair < (tiles + 1) / 2; pair += workerCount) {
+            computeRow(pair, tiles, n, x, y, z, m, acc, pot);
+            int mirrored = tiles - 1 - pair;
+            if(mirrored != pair) {
+                computeRow(mirrored, tiles, n, x, y, z, m, acc, pot);
+            }
+        }
+    }
+    
+    private void computeRow(int row, int tiles, int n, double[] x, double[] y, double[] z, double[] m, double[] acc, double[] pot) {
+        int rowStart = row * tileSize;
+        int rowEnd = Math.min(n, rowStart + tileSize);
+        
+        computeDiagonalTile(rowStart, rowEnd, x, y, z, m, acc, pot);
+        for(int col = row + 1; col < tiles; col++) {
+            int colStart = col * tileSize;
+            computeTile(rowStart, rowEnd, colStart, Math.min(n, colStart + tileSize), x, y, z, m, acc, pot);
+        }
+    }
+    
+    /**
+     * Calculates all pairs (i, j) with i in [rowStart, rowEnd) and j in [colStart, colEnd), 
+     * and their potentials if pot isn't null.
+     */
+    private static void computeTile(int rowStart, int rowEnd, int colStart, int colEnd, 
+            double[] x, double[] y, double[] z, double[] m, double[] acc, double[] pot) {
+        if(pot == null) {
+            computeTile(rowStart, rowEnd, colStart, colEnd, x, y, z, m, acc);
+            return;
+        }
+        
+        for(int i = rowStart; i < rowEnd; i++) {
+            double xi = x[i], yi = y[i], zi = z[i], mi = m[i];
+            double ax = 0, ay = 0, az = 0, pi = 0;
+            
+            for(int j = colStart; j < colEnd; j++) {
+                double lx = x[j] - xi;
+                double ly = y[j] - yi;
+                double lz = z[j] - zi;
+                double norm2 = lx*lx + ly*ly + lz*lz;
+                double norm = Math.sqrt(norm2);
+                // Same expression as without potentials, so the forces are identical
+                double s = mi * m[j] / (norm2 * norm);
+                double inverse = 1.0 / norm;
+                double sx = s * lx, sy = s * ly, sz = s * lz;
+                
+                ax += sx;
+                ay += sy;
+                az += sz;
+                pi += m[j] * inverse;
+                acc[3 * j] -= sx;
+                acc[3 * j + 1] -= sy;
+                acc[3 * j + 2] -= sz;
+                pot[j] += mi * inverse;
+            }
+            
+            acc[3 * i] += ax;
+            acc[3 * i + 1] += ay;
+            acc[3 * i + 2] += az;
+            pot[i] += pi;
+        }
+    }
+    
+    /**
+     * Calculates all pairs (i, j) with i in [rowStart, rowEnd) and j in [colStart, colEnd).
+     */
+    private static void computeTile(int rowStart, int rowEnd, int colStart, int colEnd, 
+            double[] x, double[] y, double[] z, double[] m, double[] acc) {
+        for(int i = rowStart; i < rowEnd; i++) {
+            double xi = x[i], yi = y[i], zi = z[i], mi = m[i];
+            double ax = 0, ay = 0, az = 0;
+            
+            for(int j = colStart; j < colEnd; j++) {
+                double lx = x[j] - xi;
+                double ly = y[j] - yi;
+                double lz = z[j] - zi;
+                double norm2 = lx*lx + ly*ly + lz*lz;
+                // Mi * Mj / |Rj - Ri|^3
+                double s = mi * m[j] / (norm2 * Math.sqrt(norm2));
+                double sx = s * lx, sy = s * ly, sz = s * lz;
+                
+                ax += sx;
+                ay += sy;
+                az += sz;
+                acc[3 * j] -= sx;
+                acc[3 * j + 1] -= sy;
+                acc[3 * j + 2] -= sz;
+            }
+            
+            acc[3 * i] += ax;
+            acc[3 * i + 1] += ay;
+            acc[3 * i + 2] += az;
+        }
+    }
+    
+    /**
+     * Calculates all pairs (i, j) with rowStart &lt;= i &lt; j &lt; rowEnd.
+     */
+    private static void computeDiagonalTile(int rowStart, int rowEnd, double[] x, double[] y, double[] z, double[] m, 
+            double[] acc, double[] pot) {
+        for(int i = rowStart; i < rowEnd - 1; i++) {
+            computeTile(i, i + 1, i + 1, rowEnd, x, y, z, m, acc, pot);
+        }
+    }
+    
+    private void ensureAccumulators(int count, int n, boolean withPotentials) {
+        if(accumulators.length < count) {
+            accumulators = Arrays.copyOf(accumulators, count);
+        }
+        for(int w = 0; w < count; w++) {
+            if(accumulators[w] == null || accumulators[w].length < 3 * n) {
+                accumulators[w] = new double[3 * n];
+            }
+        }
+        
+        if(!withPotentials) {
+            return;
+        }
+        if(potentialAccumulators.length < count) {
+            potentialAccumulators = Arrays.copyOf(potentialAccumulators, count);
+        }
+        for(int w = 0; w < count; w++) {
+            if(potentialAccumulators[w] == null || potentialAccumulators[w].length < n) {
+                potentialAccumulators[w] = new double[n];
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.test;
+
+import com.physikk.base.*;
+import com.physikk.base.integrators.*;
+import com.physikk.mechanic.*;
+import com.physikk.mechanic.effects.GravitationEffect;
+import java.util.Locale;
+
+/**
+ * Compares the energy error and the wall time of all integrators on the two body setup of GeneralTest,
+ * with the lighter mass on a circular orbit.
+ * @author Sleepersword
+ */
+public class IntegratorBenchmark 
+{
+    private static final double MASS_1 = 10e10;
+    private static final double MASS_2 = 10e3;
+    private static final double DISTANCE = 1.0;
+    private static final int ORBITS = 20;
+    
+    public static void main(String[] args) {
+        double mu = Utils.GRAVITATIONAL_CONSTANT * (MASS_1 + MASS_2);
+        double period = 2 * Math.PI * Math.sqrt(DISTANCE * DISTANCE * DISTANCE / mu);
+        
+        System.out.println("integrator            steps/orbit  timestep[s]     wall[ms]  max. rel. energy error");
+        for(int stepsPerOrbit : new int[] { 25, 50, 100, 200, 400, 800, 1600 }) {
+            run("SemiImplicitEuler", new SemiImplicitEulerIntegrator(), period, stepsPerOrbit);
+            run("VelocityVerlet", new VelocityVerletIntegrator(), period, stepsPerOrbit);
+            run("RungeKutta4", new RungeKutta4Integrator(), period, stepsPerOrbit);
+            run("Yoshida4", new Yoshida4Integrator(), period, stepsPerOrbit);
+        }
+    }
+    
+    private static void run(String name, Integrator integrator, double period, int stepsPerOrbit) {
+        double mu = Utils.GRAVITATIONAL_CONSTANT * (MASS_1 + MASS_2);
+        double v = Math.sqrt(mu / DISTANCE);
+        
+        // Circular orbit around the common center of mass, total momentum 0
+        MassPoint mp1 = new MassPoint("mp1", MASS_1, new Vector(0.0), new Vector(0, -v * MASS_2 / (MASS_1 + MASS_2), 0));
+        MassPoint mp2 = new MassPoint("mp2", MASS_2, new Vector(DISTANCE), new Vector(0, v * MASS_1 / (MASS_1 + MASS_2), 0));
+        
+        SystemManager manager = new SystemManager(true);
+        manager.addObjects(mp1, mp2);
+        manager.addEffect(new GravitationEffect(), true);
+        manager.setIntegrator(integrator);
+        manager.setTimeStep(period / stepsPerOrbit);
+        // The per second updates and their console output aren't wanted here
+        manager.setSecondUpdates(false);
+        
+        double initialEnergy = energy(mp1, mp2);
+        double maxError = 0;
+        long wallNanos = 0;
+        
+        // Sample the energy 25 times per orbit, only the ticks count for the wall time
+        int ticksPerSample = stepsPerOrbit / 25;
+        for(int sample = 0; sample < ORBITS * 25; sample++) {
+            wallNanos += manager.runTicks(ticksPerSample).getElapsedNanos();
+            maxError = Math.max(maxError, Math.abs((energy(mp1, mp2) - initialEnergy) / initialEnergy));
+        }
+        
+        System.out.println(String.format(Locale.US, "%-20s %12d %12.3e %12.2f %18.3e", 
+                name, stepsPerOrbit, manager.getTimeStep(), wallNanos / 1e6, maxError));
+    }
+    
+    private static double energy(PhysicObject a, PhysicObject b) {
+        Vector va = a.getVelocity(), vb = b.getVelocity();
+        double kinetic = 0.5 * a.getMass() * va.scalarMultiply(va) + 0.5 * b.getMass() * vb.scalarMultiply(vb);
+        double potential = -Utils.GRAVITATIONAL_CONSTANT * a.getMass() * b.getMass() / a.getPosition().distance(b.getPosition());
+        
+        return kinetic + potential;
+    }
+}
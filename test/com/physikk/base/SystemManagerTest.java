@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+import com.physikk.base.integrators.VelocityVerletIntegrator;
+import com.physikk.mechanic.MassPoint;
+import com.physikk.mechanic.effects.GravitationEffect;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a tick distributed over several threads gives exactly the same state as a single thread.
+ * @author Sleepersword
+ */
+public class SystemManagerTest
+{
+    private static final int BODIES = 500;
+    private static final int TICKS = 200;
+    
+    @Test
+    public void testThreadCountClassic() {
+        assertSameState(run(false, false, 1), run(false, false, 4));
+    }
+    
+    @Test
+    public void testThreadCountBodyStore() {
+        assertSameState(run(true, false, 1), run(true, false, 4));
+    }
+    
+    @Test
+    public void testThreadCountIntegrator() {
+        assertSameState(run(true, true, 1), run(true, true, 4));
+    }
+    
+    /// Helpers
+    
+    /**
+     * Runs a seeded cluster with gravity and a constant force.
+     * @return The positions and velocities after TICKS ticks, from the BodyStore if there is one.
+     */
+    private static double[][] run(boolean bodyStore, boolean integrator, int threads) {
+        Random random = new Random(11);
+        MassPoint[] bodies = new MassPoint[BODIES];
+        SystemManager manager = new SystemManager(bodyStore);
+        for(int i = 0; i < BODIES; i++) {
+            Vector position = new Vector(100 * random.nextGaussian(), 100 * random.nextGaussian(), 100 * random.nextGaussian());
+            Vector velocity = new Vector(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+            bodies[i] = new MassPoint("mp" + i, 1e9 * (1 + random.nextDouble()), position, velocity, 
+                    new NamedVector("wind", 1e3 * random.nextDouble(), 0, 0));
+        }
+        manager.addObjects(bodies);
+        manager.addEffect(new GravitationEffect(), true);
+        manager.setSecondUpdates(false);
+        if(integrator) {
+            manager.setIntegrator(new VelocityVerletIntegrator());
+        }
+        
+        manager.setThreadCount(threads);
+        try {
+            manager.runTicks(TICKS);
+        } finally {
+            manager.setThreadCount(1);
+        }
+        
+        BodyStore store = manager.getBodyStore();
+        if(store != null) {
+            return new double[][] { 
+                store.getPositionX().clone(), store.getPositionY().clone(), store.getPositionZ().clone(),
+                store.getVelocityX().clone(), store.getVelocityY().clone(), store.getVelocityZ().clone() 
+            };
+        }
+        double[][] state = new double[6][BODIES];
+        for(int i = 0; i < BODIES; i++) {
+            Vector p = bodies[i].getPosition(), v = bodies[i].getVelocity();
+            state[0][i] = p.x;
+            state[1][i] = p.y;
+            state[2][i] = p.z;
+            state[3][i] = v.x;
+            state[4][i] = v.y;
+            state[5][i] = v.z;
+        }
+        return state;
+    }
+    
+    private static void assertSameState(double[][] expected, double[][] actual) {
+        String[] names = { "position x", "position y", "position z", "velocity x", "velocity y", "velocity z" };
+        for(int k = 0; k < names.length; k++) {
+            assertArrayEquals(names[k], expected[k], actual[k], 0.0);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base;
+
+import com.physikk.base.integrators.VelocityVerletIntegrator;
+import com.physikk.mechanic.MassPoint;
+import com.physikk.mechanic.effects.GravitationEffect;
+import java.lang.management.ManagementFactory;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/**
+ * Checks that a warmed up tick doesn't allocate, by counting the bytes allocated by the test thread.
+ * @author Sleepersword
+ */
+public class TickAllocationTest
+{
+    private static final int BODIES = 50;
+    private static final int WARMUP_TICKS = 20000;
+    private static final int MEASURED_TICKS = 1000;
+    
+    @Test
+    public void testClassicTick() {
+        assertEquals(0, allocatedBytes(createManager(false)));
+    }
+    
+    @Test
+    public void testBodyStoreTick() {
+        assertEquals(0, allocatedBytes(createManager(true)));
+    }
+    
+    @Test
+    public void testIntegratorTick() {
+        SystemManager manager = createManager(true);
+        manager.setIntegrator(new VelocityVerletIntegrator());
+        assertEquals(0, allocatedBytes(manager));
+    }
+    
+    /// Helpers
+    
+    private static SystemManager createManager(boolean bodyStore) {
+        SystemManager manager = new SystemManager(bodyStore);
+        for(int i = 0; i < BODIES; i++) {
+            manager.addObject(new MassPoint("mp" + i, 1e9 + i, new Vector(i, i % 7, i % 13), new Vector(0.0), 
+                    new NamedVector("wind", 0.1 * i, 0, 0)));
+        }
+        manager.addEffect(new GravitationEffect(), true);
+        manager.setSecondUpdates(false);
+        return manager;
+    }
+    
+    /**
+     * Runs the warm up ticks, so the JIT has compiled the tick, and counts the bytes allocated by the measured ticks.
+     */
+    private static long allocatedBytes(SystemManager manager) {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+        long thread = Thread.currentThread().getId();
+        
+        for(int i = 0; i < WARMUP_TICKS; i++) {
+            manager.tick();
+        }
+        long before = bean.getThreadAllocatedBytes(thread);
+        for(int i = 0; i < MEASURED_TICKS; i++) {
+            manager.tick();
+        }
+        return bean.getThreadAllocatedBytes(thread) - before;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base.distributed;
+
+import com.physikk.base.BodyStore;
+import com.physikk.base.SystemManager;
+import com.physikk.base.Vector;
+import com.physikk.base.integrators.VelocityVerletIntegrator;
+import com.physikk.mechanic.MassPoint;
+import com.physikk.mechanic.effects.CollisionEffect;
+import com.physikk.mechanic.effects.GravitationEffect;
+import com.physikk.mechanic.effects.SoftenedGravitySolver;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that workers which see all other bodies exactly simulate the same as a single SoftenedGravitySolver.
+ * @author Sleepersword
+ */
+public class DistributedSimulationTest
+{
+    private static final int BODIES = 300;
+    private static final int TICKS = 20;
+    private static final double SOFTENING = 1.0;
+    private static final double TOLERANCE = 1e-14;
+    
+    @Test
+    public void testInfiniteHaloThreads() throws IOException {
+        assertMatchesSingleSolver(DistributedSimulation.Launch.THREADS);
+    }
+    
+    @Test
+    public void testInfiniteHaloProcesses() throws IOException {
+        assertMatchesSingleSolver(DistributedSimulation.Launch.PROCESSES);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsIntegrator() throws IOException {
+        SystemManager manager = cluster();
+        manager.setIntegrator(new VelocityVerletIntegrator());
+        new DistributedSimulation(3, Double.POSITIVE_INFINITY).setLaunch(DistributedSimulation.Launch.THREADS).run(manager, 1);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsOtherEffects() throws IOException {
+        SystemManager manager = cluster();
+        manager.addEffect(new CollisionEffect(1, 1e3, 0), true);
+        new DistributedSimulation(3, Double.POSITIVE_INFINITY).setLaunch(DistributedSimulation.Launch.THREADS).run(manager, 1);
+    }
+    
+    /// Helpers
+    
+    private static void assertMatchesSingleSolver(DistributedSimulation.Launch launch) throws IOException {
+        SystemManager single = cluster();
+        single.runTicks(TICKS);
+        
+        SystemManager distributed = cluster();
+        new DistributedSimulation(3, Double.POSITIVE_INFINITY).setSoftening(SOFTENING).setLaunch(launch).run(distributed, TICKS);
+        
+        BodyStore expected = single.getBodyStore(), actual = distributed.getBodyStore();
+        assertClose("position x", expected.getPositionX(), actual.getPositionX());
+        assertClose("position y", expected.getPositionY(), actual.getPositionY());
+        assertClose("position z", expected.getPositionZ(), actual.getPositionZ());
+        assertClose("velocity x", expected.getVelocityX(), actual.getVelocityX());
+        assertClose("velocity y", expected.getVelocityY(), actual.getVelocityY());
+        assertClose("velocity z", expected.getVelocityZ(), actual.getVelocityZ());
+    }
+    
+    /**
+     * Creates a seeded cluster with a softened gravitation on a BodyStore.
+     */
+    private static SystemManager cluster() {
+        Random random = new Random(5);
+        SystemManager manager = new SystemManager(true);
+        for(int i = 0; i < BODIES; i++) {
+            Vector position = new Vector(100 * random.nextGaussian(), 100 * random.nextGaussian(), 100 * random.nextGaussian());
+            Vector velocity = new Vector(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+            manager.addObject(new MassPoint("mp" + i, 1e9 * (1 + random.nextDouble()), position, velocity));
+        }
+        manager.addEffect(new GravitationEffect(new SoftenedGravitySolver(SOFTENING)), true);
+        manager.setSecondUpdates(false);
+        return manager;
+    }
+    
+    /**
+     * Compares relative to the largest magnitude, the summation order of the forces differs.
+     */
+    private static void assertClose(String name, double[] expected, double[] actual) {
+        double scale = 0;
+        for(int i = 0; i < BODIES; i++) {
+            scale = Math.max(scale, Math.abs(expected[i]));
+        }
+        for(int i = 0; i < BODIES; i++) {
+            assertEquals(name + " of body " + i, expected[i], actual[i], TOLERANCE * scale);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.base.integrators;
+
+import com.physikk.base.Integrator;
+import com.physikk.base.SystemManager;
+import com.physikk.base.Vector;
+import com.physikk.mechanic.MassPoint;
+import com.physikk.mechanic.effects.GravitationEffect;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the integrators keep deactivated objects in place, like the built-in integration does.
+ * @author Sleepersword
+ */
+public class IntegratorActivationTest
+{
+    private static final int TICKS = 50;
+    
+    @Test
+    public void testVelocityVerlet() {
+        checkDeactivated(new VelocityVerletIntegrator());
+    }
+    
+    @Test
+    public void testSemiImplicitEuler() {
+        checkDeactivated(new SemiImplicitEulerIntegrator());
+    }
+    
+    @Test
+    public void testRungeKutta4() {
+        checkDeactivated(new RungeKutta4Integrator());
+    }
+    
+    @Test
+    public void testYoshida4() {
+        checkDeactivated(new Yoshida4Integrator());
+    }
+    
+    @Test
+    public void testBlockTimestep() {
+        checkDeactivated(new BlockTimestepIntegrator());
+    }
+    
+    /// Helpers
+    
+    /**
+     * Runs three gravitating bodies, one of them deactivated, then activates it again.
+     */
+    private static void checkDeactivated(Integrator integrator) {
+        MassPoint a = new MassPoint("a", 1e12, new Vector(0, 0, 0), new Vector(0, 1, 0));
+        MassPoint b = new MassPoint("b", 1e12, new Vector(10, 0, 0), new Vector(0, -1, 0));
+        MassPoint frozen = new MassPoint("frozen", 1e12, new Vector(5, 5, 0), new Vector(1, 0, 0));
+        SystemManager manager = new SystemManager(true);
+        manager.addObjects(a, b, frozen);
+        manager.addEffect(new GravitationEffect(), true);
+        manager.setIntegrator(integrator);
+        manager.setSecondUpdates(false);
+        
+        frozen.deactivate();
+        Vector positionA = new Vector(a.getPosition());
+        manager.runTicks(TICKS);
+        
+        assertPosition(5, 5, 0, frozen.getPosition());
+        assertPosition(1, 0, 0, frozen.getVelocity());
+        assertTrue("the active bodies move", a.getPosition().x != positionA.x);
+        assertEquals(2, manager.getAwakeCount());
+        
+        frozen.activate();
+        manager.runTicks(TICKS);
+        assertTrue("the activated body moves", frozen.getPosition().x != 5);
+        assertEquals(3, manager.getAwakeCount());
+    }
+    
+    private static void assertPosition(double x, double y, double z, Vector actual) {
+        assertEquals(x, actual.x, 0.0);
+        assertEquals(y, actual.y, 0.0);
+        assertEquals(z, actual.z, 0.0);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.mechanic.effects;
+
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Compares the forces of the BarnesHutGravitySolver with the exact forces of the DirectGravitySolver.
+ * @author Sleepersword
+ */
+public class BarnesHutGravitySolverTest
+{
+    private static final int BODIES = 1000;
+    
+    private double[] x, y, z, m;
+    private double[] fx, fy, fz;
+    
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+        x = new double[BODIES];
+        y = new double[BODIES];
+        z = new double[BODIES];
+        m = new double[BODIES];
+        for(int i = 0; i < BODIES; i++) {
+            x[i] = 100 * random.nextGaussian();
+            y[i] = 100 * random.nextGaussian();
+            z[i] = 100 * random.nextGaussian();
+            m[i] = 1e6 * (1 + random.nextDouble());
+        }
+        
+        fx = new double[BODIES];
+        fy = new double[BODIES];
+        fz = new double[BODIES];
+        new DirectGravitySolver().computeForces(BODIES, x, y, z, m, fx, fy, fz);
+    }
+    
+    @Test
+    public void testExactWithoutOpeningAngle() {
+        double[] bx = new double[BODIES], by = new double[BODIES], bz = new double[BODIES];
+        new BarnesHutGravitySolver(0).computeForces(BODIES, x, y, z, m, bx, by, bz);
+        
+        // Only the summation order differs
+        for(int i = 0; i < BODIES; i++) {
+            double error = Math.sqrt(square(bx[i] - fx[i]) + square(by[i] - fy[i]) + square(bz[i] - fz[i]));
+            double force = Math.sqrt(square(fx[i]) + square(fy[i]) + square(fz[i]));
+            assertTrue("Body " + i + " differs by " + error / force, error <= 1e-12 * force);
+        }
+    }
+    
+    @Test
+    public void testErrorBounds() {
+        double[] thetas = { 0.1, 0.3, 0.5, 0.7, 1.0 };
+        double[] bounds = { 1e-4, 3e-3, 1e-2, 2.5e-2, 6e-2 };
+        
+        double last = 0;
+        for(int t = 0; t < thetas.length; t++) {
+            double error = relativeError(new BarnesHutGravitySolver(thetas[t]));
+            assertTrue("theta " + thetas[t] + ": relative error " + error, error <= bounds[t]);
+            assertTrue("theta " + thetas[t] + ": error doesn't grow with theta", error > last);
+            last = error;
+        }
+    }
+    
+    @Test
+    public void testTargets() {
+        int[] targets = { 0, 17, 500, BODIES - 1 };
+        double[] bx = new double[BODIES], by = new double[BODIES], bz = new double[BODIES];
+        new BarnesHutGravitySolver(0).computeForces(BODIES, x, y, z, m, targets, targets.length, bx, by, bz);
+        
+        for(int i : targets) {
+            double force = Math.sqrt(square(fx[i]) + square(fy[i]) + square(fz[i]));
+            assertEquals(fx[i], bx[i], 1e-12 * force);
+            assertEquals(fy[i], by[i], 1e-12 * force);
+            assertEquals(fz[i], bz[i], 1e-12 * force);
+        }
+    }
+    
+    /// Helpers
+    
+    /**
+     * Returns the norm of the force errors of all bodies relative to the norm of the exact forces.
+     */
+    private double relativeError(GravitySolver solver) {
+        double[] bx = new double[BODIES], by = new double[BODIES], bz = new double[BODIES];
+        solver.computeForces(BODIES, x, y, z, m, bx, by, bz);
+        
+        double error = 0, force = 0;
+        for(int i = 0; i < BODIES; i++) {
+            error += square(bx[i] - fx[i]) + square(by[i] - fy[i]) + square(bz[i] - fz[i]);
+            force += square(fx[i]) + square(fy[i]) + square(fz[i]);
+        }
+        return Math.sqrt(error / force);
+    }
+    
+    private static double square(double v) {
+        return v * v;
+    }
+}
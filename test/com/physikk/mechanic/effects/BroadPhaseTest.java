@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.mechanic.effects;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the broad phases against testing all n^2 pairs, while their incremental indices are updated over several
+ * steps: small moves, a reshuffle, fewer and more bodies and a changed range.
+ * @author Sleepersword
+ */
+public class BroadPhaseTest
+{
+    private static final int BODIES = 1000;
+    private static final double BOX = 100;
+    
+    private final Random random = new Random(42);
+    private final double[] x = new double[BODIES], y = new double[BODIES], z = new double[BODIES];
+    
+    @Test
+    public void testSpatialHash() {
+        checkSteps(new SpatialHashBroadPhase());
+    }
+    
+    @Test
+    public void testSweepAndPrune() {
+        checkSteps(new SweepAndPruneBroadPhase());
+    }
+    
+    /// Helpers
+    
+    private void checkSteps(BroadPhase broadPhase) {
+        BroadPhase.Pairs pairs = new BroadPhase.Pairs();
+        for(int i = 0; i < BODIES; i++) {
+            x[i] = BOX * random.nextDouble();
+            y[i] = BOX * random.nextDouble();
+            z[i] = BOX * random.nextDouble();
+        }
+        
+        for(int step = 0; step < 5; step++) {
+            check(broadPhase, pairs, BODIES, 8, "move " + step);
+            move(BODIES, 1);
+        }
+        move(BODIES, BOX);
+        check(broadPhase, pairs, BODIES, 8, "reshuffle");
+        
+        for(int step = 0; step < 3; step++) {
+            move(BODIES, 1);
+            check(broadPhase, pairs, 600, 8, "fewer bodies " + step);
+        }
+        for(int step = 0; step < 3; step++) {
+            move(BODIES, 1);
+            check(broadPhase, pairs, BODIES, 5, "smaller range " + step);
+        }
+        move(BODIES, 1);
+        check(broadPhase, pairs, BODIES, 12, "larger range");
+    }
+    
+    /**
+     * Moves every body by a random offset up to the given distance per axis, some leave the box.
+     */
+    private void move(int n, double distance) {
+        for(int i = 0; i < n; i++) {
+            x[i] += distance * (2 * random.nextDouble() - 1);
+            y[i] += distance * (2 * random.nextDouble() - 1);
+            z[i] += distance * (2 * random.nextDouble() - 1);
+        }
+    }
+    
+    private void check(BroadPhase broadPhase, BroadPhase.Pairs pairs, int n, double range, String step) {
+        broadPhase.findPairs(n, x, y, z, range, pairs);
+        long[] actual = new long[pairs.size()];
+        for(int k = 0; k < pairs.size(); k++) {
+            actual[k] = key(pairs.getFirst(k), pairs.getSecond(k));
+        }
+        Arrays.sort(actual);
+        assertArrayEquals(step, reference(n, range), actual);
+    }
+    
+    /**
+     * Finds the pairs by testing all of them.
+     */
+    private long[] reference(int n, double range) {
+        long[] found = new long[16];
+        int size = 0;
+        for(int i = 0; i < n; i++) {
+            for(int j = i + 1; j < n; j++) {
+                double dx = x[i] - x[j], dy = y[i] - y[j], dz = z[i] - z[j];
+                if(dx * dx + dy * dy + dz * dz < range * range) {
+                    if(size == found.length) {
+                        found = Arrays.copyOf(found, 2 * size);
+                    }
+                    found[size++] = key(i, j);
+                }
+            }
+        }
+        found = Arrays.copyOf(found, size);
+        Arrays.sort(found);
+        return found;
+    }
+    
+    private static long key(int i, int j) {
+        return (long)Math.min(i, j) << 32 | Math.max(i, j);
+    }
+}
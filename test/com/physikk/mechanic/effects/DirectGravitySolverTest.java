@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.mechanic.effects;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the parallel mode of the DirectGravitySolver is bit-identical to the serial mode.
+ * @author Sleepersword
+ */
+public class DirectGravitySolverTest
+{
+    private static final int BODIES = 3000;
+    
+    private double[] x, y, z, m;
+    private ForkJoinPool pool;
+    
+    @Before
+    public void setUp() {
+        // A dense cluster with a sparse halo, so the forces span several orders of magnitude
+        Random random = new Random(2017);
+        x = new double[BODIES];
+        y = new double[BODIES];
+        z = new double[BODIES];
+        m = new double[BODIES];
+        for(int i = 0; i < BODIES; i++) {
+            double scale = i % 10 == 0 ? 1000 : 10;
+            x[i] = scale * random.nextGaussian();
+            y[i] = scale * random.nextGaussian();
+            z[i] = scale * random.nextGaussian();
+            m[i] = 1e5 * (1 + 100 * random.nextDouble());
+        }
+        pool = new ForkJoinPool(4);
+    }
+    
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+    
+    @Test
+    public void testParallelForcesAreIdentical() {
+        double[][] serial = forces(new DirectGravitySolver());
+        for(int chunkSize : new int[] { DirectGravitySolver.DEFAULT_CHUNK_SIZE, 37 }) {
+            double[][] parallel = forces(new DirectGravitySolver(pool, chunkSize));
+            assertArrayEquals("chunk size " + chunkSize, serial[0], parallel[0], 0.0);
+            assertArrayEquals("chunk size " + chunkSize, serial[1], parallel[1], 0.0);
+            assertArrayEquals("chunk size " + chunkSize, serial[2], parallel[2], 0.0);
+        }
+    }
+    
+    @Test
+    public void testParallelPotentialsAreIdentical() {
+        double[][] serial = forcesAndPotentials(new DirectGravitySolver());
+        double[][] parallel = forcesAndPotentials(new DirectGravitySolver(pool, 37));
+        for(int k = 0; k < 4; k++) {
+            assertArrayEquals(serial[k], parallel[k], 0.0);
+        }
+    }
+    
+    @Test
+    public void testParallelTargetsAreIdentical() {
+        int[] targets = new int[BODIES / 3];
+        for(int k = 0; k < targets.length; k++) {
+            targets[k] = 3 * k + 1;
+        }
+        double[][] serial = new double[3][BODIES], parallel = new double[3][BODIES];
+        new DirectGravitySolver().computeForces(BODIES, x, y, z, m, targets, targets.length, serial[0], serial[1], serial[2]);
+        new DirectGravitySolver(pool, 37).computeForces(BODIES, x, y, z, m, targets, targets.length, parallel[0], parallel[1], parallel[2]);
+        for(int i : targets) {
+            assertEquals(serial[0][i], parallel[0][i], 0.0);
+            assertEquals(serial[1][i], parallel[1][i], 0.0);
+            assertEquals(serial[2][i], parallel[2][i], 0.0);
+        }
+    }
+    
+    /// Helpers
+    
+    private double[][] forces(GravitySolver solver) {
+        double[][] f = new double[3][BODIES];
+        solver.computeForces(BODIES, x, y, z, m, f[0], f[1], f[2]);
+        return f;
+    }
+    
+    private double[][] forcesAndPotentials(GravitySolver solver) {
+        double[][] f = new double[4][BODIES];
+        solver.computeForcesAndPotentials(BODIES, x, y, z, m, f[0], f[1], f[2], f[3]);
+        return f;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.mechanic.effects;
+
+import com.physikk.base.Utils;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the ParticleMeshGravitySolver against Newton's law for pairs several cells apart
+ * and that the forces of a cluster sum up to zero, so the momentum is conserved.
+ * @author Sleepersword
+ */
+public class ParticleMeshGravitySolverTest
+{
+    private static final int GRID = 64;
+    private static final double BOX = 100;
+    private static final double CELL = BOX / GRID;
+    
+    @Test
+    public void testIsolatedPairCic() {
+        checkPair(ParticleMeshGravitySolver.Assignment.CIC, 5e-3);
+    }
+    
+    @Test
+    public void testIsolatedPairTsc() {
+        checkPair(ParticleMeshGravitySolver.Assignment.TSC, 5e-4);
+    }
+    
+    @Test
+    public void testMomentumIsolated() {
+        checkMomentum(ParticleMeshGravitySolver.Boundary.ISOLATED);
+    }
+    
+    @Test
+    public void testMomentumPeriodic() {
+        checkMomentum(ParticleMeshGravitySolver.Boundary.PERIODIC);
+    }
+    
+    /// Helpers
+    
+    /**
+     * Places two equal bodies 16 and 24 cells apart in random directions and at random offsets to the grid
+     * and compares the force along their separation with Newton's law.
+     */
+    private static void checkPair(ParticleMeshGravitySolver.Assignment assignment, double tolerance) {
+        ParticleMeshGravitySolver solver = new ParticleMeshGravitySolver(GRID, BOX, 
+                ParticleMeshGravitySolver.Boundary.ISOLATED, assignment, null);
+        Random random = new Random(1);
+        double mass = 1e10;
+        double[] fx = new double[2], fy = new double[2], fz = new double[2];
+        
+        for(double cells : new double[] { 16, 24 }) {
+            for(int k = 0; k < 8; k++) {
+                double ux = random.nextGaussian(), uy = random.nextGaussian(), uz = random.nextGaussian();
+                double norm = Math.sqrt(ux * ux + uy * uy + uz * uz);
+                ux /= norm;
+                uy /= norm;
+                uz /= norm;
+                double d = cells * CELL;
+                double cx = CELL * random.nextDouble(), cy = CELL * random.nextDouble(), cz = CELL * random.nextDouble();
+                double[] x = { cx, cx + d * ux }, y = { cy, cy + d * uy }, z = { cz, cz + d * uz };
+                double[] m = { mass, mass };
+                
+                solver.computeForces(2, x, y, z, m, fx, fy, fz);
+                double newton = Utils.GRAVITATIONAL_CONSTANT * mass * mass / (d * d);
+                double along = fx[0] * ux + fy[0] * uy + fz[0] * uz;
+                assertEquals(cells + " cells, pair " + k, 1.0, along / newton, tolerance);
+                assertEquals("symmetric x", -fx[0], fx[1], 1e-9 * newton);
+                assertEquals("symmetric y", -fy[0], fy[1], 1e-9 * newton);
+                assertEquals("symmetric z", -fz[0], fz[1], 1e-9 * newton);
+            }
+        }
+    }
+    
+    /**
+     * Checks that the net force on a random cluster is negligible compared to the single forces.
+     */
+    private static void checkMomentum(ParticleMeshGravitySolver.Boundary boundary) {
+        int n = 1000;
+        Random random = new Random(7);
+        double[] x = new double[n], y = new double[n], z = new double[n], m = new double[n];
+        for(int i = 0; i < n; i++) {
+            x[i] = 0.5 * BOX + 10 * random.nextGaussian();
+            y[i] = 0.5 * BOX + 10 * random.nextGaussian();
+            z[i] = 0.5 * BOX + 10 * random.nextGaussian();
+            m[i] = 1e10 * (1 + random.nextDouble());
+        }
+        double[] fx = new double[n], fy = new double[n], fz = new double[n];
+        
+        for(ParticleMeshGravitySolver.Assignment assignment : ParticleMeshGravitySolver.Assignment.values()) {
+            new ParticleMeshGravitySolver(GRID, BOX, boundary, assignment, null).computeForces(n, x, y, z, m, fx, fy, fz);
+            double sumX = 0, sumY = 0, sumZ = 0, total = 0;
+            for(int i = 0; i < n; i++) {
+                sumX += fx[i];
+                sumY += fy[i];
+                sumZ += fz[i];
+                total += Math.sqrt(fx[i] * fx[i] + fy[i] * fy[i] + fz[i] * fz[i]);
+            }
+            assertTrue("no forces", total > 0);
+            double net = Math.sqrt(sumX * sumX + sumY * sumY + sumZ * sumZ);
+            assertEquals(boundary + " " + assignment + " net force", 0, net / total, 1e-12);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2017 Sleepersword
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.physikk.mechanic.effects;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/**
+ * Compares the Vector API kernel of the SoftenedGravitySolver with the scalar kernel on the same system.
+ * The tests are skipped if the Vector API isn't available, 
+ * set run.jvmargs=--add-modules jdk.incubator.vector to run them.
+ * @author Sleepersword
+ */
+public class SoftenedGravitySolverTest
+{
+    private static final int BODIES = 2000;
+    private static final double TOLERANCE = 1e-12;
+    private static final double[] SOFTENINGS = { 0, 1.0 };
+    
+    private double[] x, y, z, m;
+    
+    @Before
+    public void setUp() {
+        assumeTrue("The Vector API is not available.", new SoftenedGravitySolver(0, null, 256, true).isVectorized());
+        
+        Random random = new Random(7);
+        x = new double[BODIES];
+        y = new double[BODIES];
+        z = new double[BODIES];
+        m = new double[BODIES];
+        for(int i = 0; i < BODIES; i++) {
+            x[i] = 1000 * random.nextDouble();
+            y[i] = 1000 * random.nextDouble();
+            z[i] = 1000 * random.nextDouble();
+            m[i] = 1e6 + 1e9 * random.nextDouble();
+        }
+    }
+    
+    @Test
+    public void testForces() {
+        for(double softening : SOFTENINGS) {
+            double[][] scalar = forces(new SoftenedGravitySolver(softening, null, 256, false));
+            double[][] simd = forces(new SoftenedGravitySolver(softening, null, 256, true));
+            assertForces("softening " + softening, scalar, simd);
+        }
+    }
+    
+    @Test
+    public void testParallelForces() {
+        double[][] scalar = forces(new SoftenedGravitySolver(1.0, null, 256, false));
+        double[][] simd = forces(new SoftenedGravitySolver(1.0, ForkJoinPool.commonPool(), 64, true));
+        assertForces("parallel", scalar, simd);
+    }
+    
+    @Test
+    public void testPotentials() {
+        for(double softening : SOFTENINGS) {
+            double[] scalar = potentials(new SoftenedGravitySolver(softening, null, 256, false));
+            double[] simd = potentials(new SoftenedGravitySolver(softening, null, 256, true));
+            for(int i = 0; i < BODIES; i++) {
+                assertEquals("softening " + softening + ", body " + i, scalar[i], simd[i], TOLERANCE * Math.abs(scalar[i]));
+            }
+        }
+    }
+    
+    /// Helpers
+    
+    private double[][] forces(GravitySolver solver) {
+        double[][] f = new double[3][BODIES];
+        solver.computeForces(BODIES, x, y, z, m, f[0], f[1], f[2]);
+        return f;
+    }
+    
+    private double[] potentials(GravitySolver solver) {
+        double[] fx = new double[BODIES], fy = new double[BODIES], fz = new double[BODIES];
+        double[] potential = new double[BODIES];
+        solver.computeForcesAndPotentials(BODIES, x, y, z, m, fx, fy, fz, potential);
+        return potential;
+    }
+    
+    /**
+     * Checks that the force on every body differs by at most TOLERANCE relative to the expected force.
+     */
+    private static void assertForces(String message, double[][] expected, double[][] actual) {
+        for(int i = 0; i < BODIES; i++) {
+            double dx = actual[0][i] - expected[0][i];
+            double dy = actual[1][i] - expected[1][i];
+            double dz = actual[2][i] - expected[2][i];
+            double error = Math.sqrt(dx*dx + dy*dy + dz*dz);
+            double force = Math.sqrt(expected[0][i] * expected[0][i] + expected[1][i] * expected[1][i] + expected[2][i] * expected[2][i]);
+            assertTrue(message + ", body " + i + ": relative error " + error / force, error <= TOLERANCE * force);
+        }
+    }
+}